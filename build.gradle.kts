@@ -1,3 +1,17 @@
+import gg.jte.ContentType
+import gg.jte.TemplateEngine
+import gg.jte.resolve.DirectoryCodeResolver
+
+buildscript {
+    repositories {
+        mavenCentral()
+    }
+    dependencies {
+        // Generates the sources of precompiled templates, see registerJteGeneration
+        classpath("gg.jte:jte:${project.properties["jte_version"]}")
+    }
+}
+
 plugins {
     java
     `maven-publish`
@@ -11,6 +25,17 @@ repositories {
     mavenLocal()
 }
 
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+        runtimeClasspath += sourceSets.main.get().output + sourceSets.main.get().runtimeClasspath
+    }
+    create("loadtest") {
+        compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+        runtimeClasspath += sourceSets.main.get().output + sourceSets.main.get().runtimeClasspath
+    }
+}
+
 dependencies {
     compileOnly("org.projectlombok:lombok:${project.properties["lombok_version"]}")
     annotationProcessor("org.projectlombok:lombok:${project.properties["lombok_version"]}")
@@ -18,6 +43,13 @@ dependencies {
     implementation("gg.jte:jte:${project.properties["jte_version"]}")
 
     implementation("com.google.code.gson:gson:${project.properties["gson_version"]}")
+
+    testImplementation(platform("org.junit:junit-bom:${project.properties["junit_version"]}"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:${project.properties["jmh_version"]}")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:${project.properties["jmh_version"]}")
 }
 
 java {
@@ -49,8 +81,64 @@ publishing {
 }
 
 
+tasks.test {
+    useJUnitPlatform()
+}
+
 tasks.javadoc {
     if (JavaVersion.current().isJava9Compatible) {
         (options as StandardJavadocDocletOptions).addBooleanOption("html5", true)
     }
-}
\ No newline at end of file
+}
+
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks with the GC profiler. Use -PjmhIncludes=<regex> to select benchmarks."
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    // The GC profiler adds allocation rate and bytes allocated per operation (gc.alloc.rate.norm) to every result
+    args(project.findProperty("jmhIncludes")?.toString() ?: ".*", "-prof", "gc")
+}
+
+/**
+ * Registers a task generating Java sources for the templates in src/<sourceSet>/jte. They are compiled together with the
+ * source set, so Kizuna.builder().setPrecompiledTemplates(true) loads them from the classpath without running javac at startup.
+ */
+fun registerJteGeneration(sourceSet: SourceSet) {
+    val templatesDir = file("src/${sourceSet.name}/jte")
+    val outputDir = layout.buildDirectory.dir("generated/jte/${sourceSet.name}")
+    val generate = tasks.register(sourceSet.getTaskName("generate", "Jte")) {
+        group = "build"
+        description = "Generates Java sources for the JTE templates of the ${sourceSet.name} source set."
+        inputs.files(fileTree(templatesDir))
+        outputs.dir(outputDir)
+        doLast {
+            val target = outputDir.get().asFile
+            target.deleteRecursively()
+            if (templatesDir.isDirectory) {
+                // createPrecompiled looks the classes up in this package
+                val engine = TemplateEngine.create(DirectoryCodeResolver(templatesDir.toPath()), target.toPath(), ContentType.Html, null, "gg.jte.generated.precompiled")
+                // Static parts of the templates are written as pre-encoded UTF-8 (.bin resources next to the sources)
+                engine.setBinaryStaticContent(true)
+                engine.generateAll()
+            }
+        }
+    }
+
+    sourceSet.java.srcDir(generate)
+    sourceSet.resources.srcDir(generate).exclude("**/*.java")
+}
+
+registerJteGeneration(sourceSets["loadtest"])
+
+tasks.register<JavaExec>("loadTest") {
+    group = "benchmark"
+    description = "Runs the loopback load test and writes build/loadtest/results.json. Pass options with -PloadTestArgs=\"--duration 30 --engine BLOCKING\"."
+    classpath = sourceSets["loadtest"].runtimeClasspath
+    mainClass.set("dev.mitask.loadtest.LoadTest")
+    // The default results.json ends up in the build directory instead of the project root
+    workingDir = layout.buildDirectory.dir("loadtest").get().asFile
+    doFirst { workingDir.mkdirs() }
+    systemProperty("kizuna.version", project.version.toString())
+    args((project.findProperty("loadTestArgs")?.toString() ?: "").split(" ").filter { it.isNotBlank() })
+}
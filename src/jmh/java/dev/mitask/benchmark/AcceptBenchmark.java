@@ -0,0 +1,67 @@
+package dev.mitask.benchmark;
+
+import dev.mitask.Kizuna;
+import dev.mitask.server.ListenOptions;
+import dev.mitask.server.ServerEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection establishment rate by amount of acceptors per port, like a connection storm after a load balancer failover.
+ * Every operation opens a connection, sends one request with "Connection: close" and reads the response until the server
+ * closes it, so accepting, not request handling, dominates. The server closes first, which leaves TIME_WAIT on its side only.
+ * Scaling needs more cores than acceptors, check the listening message whether SO_REUSEPORT is used.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+public class AcceptBenchmark {
+    private static final byte[] REQUEST = "GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    @Param({"NIO", "BLOCKING"})
+    public String engine;
+
+    @Param({"1", "2", "4"})
+    public int acceptors;
+
+    private int port;
+
+    @Setup
+    public void setup() throws Exception {
+        try(ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+
+        // Runs until the fork exits, every trial gets its own fork
+        Kizuna app = Kizuna.builder()
+                .setHttpPort(port)
+                .setEngine(ServerEngine.valueOf(engine))
+                .setListen(ListenOptions.builder().setAcceptors(acceptors).build())
+                .build();
+        app.get("/", (req, res) -> res.sendText("ok"));
+        app.listen();
+    }
+
+    @Benchmark
+    public int connect() throws IOException {
+        try(Socket socket = new Socket("localhost", port)) {
+            socket.getOutputStream().write(REQUEST);
+
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[512];
+            int total = 0, read;
+            while((read = in.read(buffer)) != -1) total += read;
+            return total;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package dev.mitask.benchmark;
+
+import dev.mitask.server.WorkerExecutors;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the request executors on bursts of handlers which block on I/O (simulated with sleep),
+ * like handlers calling a database or another service.
+ * On JVMs without virtual threads the "virtual" mode measures the bounded fallback pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecutorBenchmark {
+    @Param({"cached", "bounded", "virtual"})
+    public String mode;
+
+    @Param({"1000"})
+    public int burstSize;
+
+    @Param({"5"})
+    public int blockingMillis;
+
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() {
+        executor = switch(mode) {
+            case "cached" -> WorkerExecutors.cached();
+            case "bounded" -> WorkerExecutors.bounded(200);
+            case "virtual" -> WorkerExecutors.virtual(200);
+            default -> throw new IllegalArgumentException(mode);
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void blockingBurst() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(burstSize);
+        for(int i = 0; i < burstSize; i++) {
+            executor.execute(() -> {
+                try {
+                    Thread.sleep(blockingMillis);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            });
+        }
+        done.await();
+    }
+}
@@ -0,0 +1,42 @@
+package dev.mitask.benchmark;
+
+import dev.mitask.metrics.Metrics;
+import dev.mitask.requests.Route;
+import dev.mitask.util.HttpMethod;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the per-request instrumentation: looking up the metrics of the matched route and recording
+ * status, bytes and latency. Runs with several threads to include contention on the shared counters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class MetricsBenchmark {
+    private Metrics metrics;
+    private Route route;
+
+    @Setup
+    public void setup() {
+        metrics = new Metrics();
+        route = new Route(HttpMethod.GET, "/users/:id", (request, response) -> {});
+    }
+
+    @Benchmark
+    public void recordRequest() {
+        metrics.route(route).record(200, 312, 1024, 180_000);
+    }
+
+    @Benchmark
+    public long timedRecordRequest() {
+        long start = System.nanoTime();
+        metrics.route(route).record(200, 312, 1024, System.nanoTime() - start);
+        return start;
+    }
+}
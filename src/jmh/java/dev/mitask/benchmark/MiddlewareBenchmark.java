@@ -0,0 +1,51 @@
+package dev.mitask.benchmark;
+
+import dev.mitask.requests.*;
+import dev.mitask.util.HttpMethod;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds middleware chains of different depths and runs requests through them. The handlers only pass the request on,
+ * so the numbers are the overhead of the chain itself including the response every request needs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MiddlewareBenchmark {
+    @Param({"1", "5", "20"})
+    public int depth;
+
+    private final List<Middleware.MiddlewareHandler> handlers = new ArrayList<>();
+    private final Route.RouteHandler finalHandler = (request, response) -> response.setStatus(204);
+    private Middleware chain;
+    private HttpRequest request;
+
+    @Setup
+    public void setup() {
+        for(int i = 0; i < depth; i++) handlers.add((request, response, next) -> next.next(request, response));
+        chain = new Middleware(handlers, finalHandler);
+        request = new HttpRequest(HttpMethod.GET, "/", new HashMap<>(), new HashMap<>(), "", new HashMap<>(), new HashMap<>(),
+                "127.0.0.1", new RequestBody(new byte[0]), JsonCodec.DEFAULT, FormOptions.builder().build());
+    }
+
+    @Benchmark
+    public Middleware buildChain() {
+        return new Middleware(handlers, finalHandler);
+    }
+
+    @Benchmark
+    public HttpResponse runChain() throws Exception {
+        HttpResponse response = new HttpResponse(OutputStream.nullOutputStream(), null);
+        chain.next(request, response);
+        return response;
+    }
+}
@@ -0,0 +1,36 @@
+package dev.mitask.benchmark;
+
+import dev.mitask.server.HttpRequestParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes query strings and Cookie headers into maps, which happens for every request that has them
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParamsBenchmark {
+    private static final String QUERY = "page=3&sort=desc&filter=name%3Dkizuna&tags=java%2Chttp&limit=50";
+    private static final String COOKIES = "session=4f1c2b9e8d7a6f5e4d3c2b1a; theme=dark; lang=en; consent=1; _ga=GA1.2.123456789.1700000000";
+
+    @Benchmark
+    public Map<String, String> query() {
+        Map<String, String> params = new HashMap<>();
+        HttpRequestParser.parseQuery(QUERY, params);
+        return params;
+    }
+
+    @Benchmark
+    public Map<String, String> cookies() {
+        Map<String, String> cookies = new HashMap<>();
+        HttpRequestParser.parseCookies(COOKIES, cookies);
+        return cookies;
+    }
+}
@@ -0,0 +1,55 @@
+package dev.mitask.benchmark;
+
+import dev.mitask.server.HttpRequestParser;
+import dev.mitask.server.RequestHead;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses request heads from a buffer with a reused parser, like a connection does for every request.
+ * "minimal" is a load tester request, "browser" a typical browser navigation with cookies.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+    private static final String MINIMAL = "GET /plaintext HTTP/1.1\r\nHost: localhost\r\n\r\n";
+    private static final String BROWSER = "GET /users/42/posts?page=3&sort=desc HTTP/1.1\r\n"
+            + "Host: example.com\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:128.0) Gecko/20100101 Firefox/128.0\r\n"
+            + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+            + "Accept-Language: en-US,en;q=0.5\r\n"
+            + "Accept-Encoding: gzip, deflate, br\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Cookie: session=4f1c2b9e8d7a6f5e4d3c2b1a; theme=dark; lang=en\r\n"
+            + "Upgrade-Insecure-Requests: 1\r\n"
+            + "Sec-Fetch-Dest: document\r\n"
+            + "Sec-Fetch-Mode: navigate\r\n"
+            + "\r\n";
+
+    @Param({"minimal", "browser"})
+    public String request;
+
+    private HttpRequestParser parser;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setup() {
+        parser = new HttpRequestParser(16 * 1024, 100);
+        buffer = ByteBuffer.wrap((request.equals("minimal") ? MINIMAL : BROWSER).getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    @Benchmark
+    public RequestHead parseHead() {
+        buffer.rewind();
+        parser.reset();
+        if(parser.parse(buffer) != HttpRequestParser.Result.COMPLETE) throw new IllegalStateException("Request was not parsed");
+        return parser.getHead();
+    }
+}
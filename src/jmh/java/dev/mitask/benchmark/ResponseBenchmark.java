@@ -0,0 +1,102 @@
+package dev.mitask.benchmark;
+
+import dev.mitask.requests.HttpResponse;
+import gg.jte.ContentType;
+import gg.jte.TemplateEngine;
+import gg.jte.resolve.DirectoryCodeResolver;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Writes complete responses (status line, headers and body) into a discarding stream,
+ * which isolates the encoding cost of each response type from the socket.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseBenchmark {
+    private static final String TEMPLATE = """
+            @param java.util.List<String> items
+            <ul>
+            @for(String item : items)
+                <li>${item}</li>
+            @endfor
+            </ul>
+            """;
+
+    @Param({"1024"})
+    public int bodySize;
+
+    private final OutputStream out = OutputStream.nullOutputStream();
+    private String text;
+    private Object json;
+    private Path directory, file;
+    private TemplateEngine templateEngine;
+    private Map<String, Object> templateParameters;
+
+    @Setup
+    public void setup() throws IOException {
+        text = "x".repeat(bodySize);
+
+        List<Map<String, Object>> users = new ArrayList<>();
+        for(int i = 0; i < 10; i++) users.add(Map.of("id", i, "name", "user" + i, "active", i % 2 == 0));
+        json = Map.of("users", users, "total", users.size());
+
+        directory = Files.createTempDirectory("kizuna-bench");
+        file = Files.writeString(directory.resolve("file.txt"), text);
+        Files.writeString(directory.resolve("list.jte"), TEMPLATE);
+
+        templateEngine = TemplateEngine.create(new DirectoryCodeResolver(directory), directory.resolve("jte-classes"), ContentType.Html);
+        templateEngine.setBinaryStaticContent(true);
+        templateEngine.precompileAll();
+        templateParameters = Map.of("items", List.of("one", "two", "three", "four", "five"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try(Stream<Path> paths = Files.walk(directory)) {
+            for(Path path : paths.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+        }
+    }
+
+    @Benchmark
+    public HttpResponse text() throws IOException {
+        HttpResponse response = new HttpResponse(out, null);
+        response.sendText(text);
+        return response;
+    }
+
+    @Benchmark
+    public HttpResponse json() throws IOException {
+        HttpResponse response = new HttpResponse(out, null);
+        response.sendJson(json);
+        return response;
+    }
+
+    @Benchmark
+    public HttpResponse file() throws IOException {
+        HttpResponse response = new HttpResponse(out, null);
+        response.sendFile(file.toString());
+        return response;
+    }
+
+    @Benchmark
+    public HttpResponse template() throws IOException {
+        HttpResponse response = new HttpResponse(out, templateEngine);
+        response.sendTemplate("list.jte", templateParameters);
+        return response;
+    }
+}
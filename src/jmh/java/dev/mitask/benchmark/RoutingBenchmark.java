@@ -0,0 +1,71 @@
+package dev.mitask.benchmark;
+
+import dev.mitask.requests.Route;
+import dev.mitask.requests.RouteTree;
+import dev.mitask.util.HttpMethod;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the route of a request among a growing route table. "linear" tries every {@link Route#matches} in order,
+ * "tree" uses the {@link RouteTree} the server dispatches with. The requested path matches the last registered route
+ * ("last") or none of them ("miss"), the worst cases for a linear scan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoutingBenchmark {
+    @Param({"10", "100", "1000"})
+    public int routeCount;
+
+    @Param({"last", "miss"})
+    public String target;
+
+    private final List<Route> routes = new ArrayList<>();
+    private final RouteTree tree = new RouteTree();
+    private String path;
+
+    @Setup
+    public void setup() {
+        for(int i = 0; i < routeCount; i++) {
+            // Mix of static and parameterized routes, like a typical REST API
+            String pattern = switch(i % 3) {
+                case 0 -> "/api/resource" + i;
+                case 1 -> "/api/resource" + i + "/:id";
+                default -> "/api/resource" + i + "/:id/items/:item";
+            };
+            Route route = new Route(HttpMethod.GET, pattern, (request, response) -> {});
+            routes.add(route);
+            tree.add(route);
+        }
+
+        int last = routeCount - 1;
+        path = target.equals("miss") ? "/api/unknown/42" : switch(last % 3) {
+            case 0 -> "/api/resource" + last;
+            case 1 -> "/api/resource" + last + "/42";
+            default -> "/api/resource" + last + "/42/items/7";
+        };
+    }
+
+    @Benchmark
+    public Route linear() {
+        Map<String, String> urlParams = new HashMap<>();
+        for(Route route : routes) {
+            if(route.getMethod() == HttpMethod.GET && route.matches(path, urlParams)) return route;
+        }
+        return null;
+    }
+
+    @Benchmark
+    public Route tree() {
+        return tree.find(HttpMethod.GET, path, new HashMap<>());
+    }
+}
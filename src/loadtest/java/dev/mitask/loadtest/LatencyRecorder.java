@@ -0,0 +1,46 @@
+package dev.mitask.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Collects every latency of a run in a growable array, so the percentiles are exact instead of bucketed.
+ * Each load generator thread owns one recorder, they are merged after the run.
+ */
+final class LatencyRecorder {
+    private long[] values = new long[1 << 16];
+    private int size;
+
+    void record(long nanos) {
+        if(size == values.length) values = Arrays.copyOf(values, size * 2);
+        values[size++] = nanos;
+    }
+
+    int size() {
+        return size;
+    }
+
+    static long[] merge(Iterable<LatencyRecorder> recorders) {
+        int total = 0;
+        for(LatencyRecorder recorder : recorders) total += recorder.size;
+
+        long[] merged = new long[total];
+        int position = 0;
+        for(LatencyRecorder recorder : recorders) {
+            System.arraycopy(recorder.values, 0, merged, position, recorder.size);
+            position += recorder.size;
+        }
+        Arrays.sort(merged);
+        return merged;
+    }
+
+    /**
+     * @param sorted Latencies sorted ascending
+     * @param percentile Between 0 and 1, e.g. 0.999
+     */
+    static long percentile(long[] sorted, double percentile) {
+        if(sorted.length == 0) return 0;
+
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
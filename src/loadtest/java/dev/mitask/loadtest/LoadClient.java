@@ -0,0 +1,175 @@
+package dev.mitask.loadtest;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+
+/**
+ * Minimal HTTP/1.1 client over a raw socket. It writes pre-encoded requests and reads exactly one response,
+ * using Content-Length or chunked framing, so connections can be reused without any client library in between.
+ */
+final class LoadClient implements Closeable {
+    private static final SSLContext TRUST_ALL = trustAll();
+
+    private final String host;
+    private final int port;
+    private final boolean tls;
+    private Socket socket;
+    private OutputStream out;
+    private InputStream in;
+    private final byte[] skip = new byte[8192];
+    private final StringBuilder line = new StringBuilder(128);
+
+    LoadClient(String host, int port, boolean tls) {
+        this.host = host;
+        this.port = port;
+        this.tls = tls;
+    }
+
+    /**
+     * Sends the request and reads its response, opening a connection first if there is none
+     * @return status code of the response
+     */
+    int exchange(byte[] request, boolean keepAlive) throws IOException {
+        if(socket == null) connect();
+
+        try {
+            out.write(request);
+            out.flush();
+            int status = readResponse();
+            if(!keepAlive) close();
+            return status;
+        } catch(IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void connect() throws IOException {
+        Socket plain = new Socket();
+        plain.setTcpNoDelay(true);
+        plain.connect(new InetSocketAddress(host, port));
+        if(tls) {
+            SSLSocket sslSocket = (SSLSocket) TRUST_ALL.getSocketFactory().createSocket(plain, host, port, true);
+            sslSocket.startHandshake();
+            socket = sslSocket;
+        } else {
+            socket = plain;
+        }
+
+        out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+        in = new BufferedInputStream(socket.getInputStream(), 16384);
+    }
+
+    private int readResponse() throws IOException {
+        String statusLine = readLine();
+        if(statusLine.length() < 12) throw new IOException("Invalid status line: " + statusLine);
+        int status = Integer.parseInt(statusLine, 9, 12, 10);
+
+        long contentLength = -1;
+        boolean chunked = false, close = false;
+        String header;
+        while(!(header = readLine()).isEmpty()) {
+            int colon = header.indexOf(':');
+            if(colon == -1) continue;
+
+            String name = header.substring(0, colon);
+            String value = header.substring(colon + 1).trim();
+            if(name.equalsIgnoreCase("Content-Length")) contentLength = Long.parseLong(value);
+            else if(name.equalsIgnoreCase("Transfer-Encoding")) chunked = value.equalsIgnoreCase("chunked");
+            else if(name.equalsIgnoreCase("Connection")) close = value.equalsIgnoreCase("close");
+        }
+
+        if(chunked) {
+            long size;
+            while((size = Long.parseLong(readLine().trim(), 16)) > 0) {
+                skipBytes(size);
+                readLine();
+            }
+            readLine();
+        } else if(contentLength >= 0) {
+            skipBytes(contentLength);
+        } else {
+            while(in.read(skip) != -1) {}
+            close = true;
+        }
+
+        if(close) close();
+        return status;
+    }
+
+    private String readLine() throws IOException {
+        line.setLength(0);
+        int b;
+        while((b = in.read()) != '\n') {
+            if(b == -1) throw new EOFException("Connection closed by the server");
+            if(b != '\r') line.append((char) b);
+        }
+        return line.toString();
+    }
+
+    private void skipBytes(long count) throws IOException {
+        while(count > 0) {
+            int read = in.read(skip, 0, (int) Math.min(skip.length, count));
+            if(read == -1) throw new EOFException("Connection closed before the body was received");
+            count -= read;
+        }
+    }
+
+    @Override
+    public void close() {
+        if(socket == null) return;
+
+        try {
+            socket.close();
+        } catch(IOException ignored) {}
+        socket = null;
+    }
+
+    static byte[] encode(String method, String path, String host, boolean keepAlive, String extraHeaders, byte[] body) {
+        StringBuilder request = new StringBuilder(256)
+                .append(method).append(' ').append(path).append(" HTTP/1.1\r\n")
+                .append("Host: ").append(host).append("\r\n")
+                .append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n")
+                .append(extraHeaders);
+        if(body != null) request.append("Content-Length: ").append(body.length).append("\r\n");
+        request.append("\r\n");
+
+        byte[] head = request.toString().getBytes(StandardCharsets.ISO_8859_1);
+        if(body == null) return head;
+
+        byte[] encoded = new byte[head.length + body.length];
+        System.arraycopy(head, 0, encoded, 0, head.length);
+        System.arraycopy(body, 0, encoded, head.length, body.length);
+        return encoded;
+    }
+
+    // The harness only talks to its own server over loopback, so the self-signed certificate is accepted as is
+    private static SSLContext trustAll() {
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, new TrustManager[]{new X509TrustManager() {
+                @Override
+                public void checkClientTrusted(X509Certificate[] chain, String authType) {}
+
+                @Override
+                public void checkServerTrusted(X509Certificate[] chain, String authType) {}
+
+                @Override
+                public X509Certificate[] getAcceptedIssuers() {
+                    return new X509Certificate[0];
+                }
+            }}, null);
+            return context;
+        } catch(GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package dev.mitask.loadtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the server with one thread and connection per simulated client.
+ * <p>
+ * Closed loop: every client sends its next request as soon as the previous response arrived, which measures
+ * the maximum throughput. Open loop: requests are scheduled at a fixed total rate and latency is measured from
+ * the time a request was scheduled, not from when it was sent. A stalled server therefore shows up in the
+ * latency of every request that should have been sent meanwhile instead of silently lowering the request rate
+ * (coordinated omission).
+ */
+final class LoadGenerator {
+    enum Mode {
+        CLOSED, OPEN
+    }
+
+    private final Scenario scenario;
+    private final List<byte[]> requests;
+
+    LoadGenerator(Scenario scenario, List<byte[]> requests) {
+        this.scenario = scenario;
+        this.requests = requests;
+    }
+
+    ScenarioResult run(long warmupNanos, long durationNanos) throws InterruptedException {
+        // Warmup results are dropped, it only gets the JIT and connection pools into a steady state
+        if(warmupNanos > 0) execute(warmupNanos);
+
+        long start = System.nanoTime();
+        Outcome outcome = execute(durationNanos);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long[] latencies = LatencyRecorder.merge(outcome.recorders);
+        return ScenarioResult.of(scenario, seconds, latencies, outcome.errors.sum());
+    }
+
+    private Outcome execute(long durationNanos) throws InterruptedException {
+        Outcome outcome = new Outcome();
+        long start = System.nanoTime();
+        long deadline = start + durationNanos;
+        long interval = scenario.mode() == Mode.OPEN ? 1_000_000_000L / scenario.rate() : 0;
+        AtomicLong nextSlot = new AtomicLong();
+
+        List<Thread> threads = new ArrayList<>();
+        for(int i = 0; i < scenario.connections(); i++) {
+            LatencyRecorder recorder = new LatencyRecorder();
+            outcome.recorders.add(recorder);
+
+            int offset = i;
+            Thread thread = new Thread(() -> {
+                try(LoadClient client = new LoadClient(scenario.host(), scenario.port(), scenario.tls())) {
+                    if(scenario.mode() == Mode.OPEN) openLoop(client, recorder, outcome.errors, nextSlot, start, interval, deadline);
+                    else closedLoop(client, recorder, outcome.errors, offset, deadline);
+                }
+            }, "loadtest-client-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+
+        for(Thread thread : threads) thread.join();
+        return outcome;
+    }
+
+    private void closedLoop(LoadClient client, LatencyRecorder recorder, LongAdder errors, int offset, long deadline) {
+        int index = offset;
+        long now;
+        while((now = System.nanoTime()) < deadline) {
+            send(client, requests.get(index++ % requests.size()), now, recorder, errors);
+        }
+    }
+
+    private void openLoop(LoadClient client, LatencyRecorder recorder, LongAdder errors, AtomicLong nextSlot, long start, long interval, long deadline) {
+        while(true) {
+            long slot = nextSlot.getAndIncrement();
+            long intended = start + slot * interval;
+            if(intended >= deadline) return;
+
+            long wait;
+            while((wait = intended - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+            send(client, requests.get((int) (slot % requests.size())), intended, recorder, errors);
+        }
+    }
+
+    private void send(LoadClient client, byte[] request, long startedAt, LatencyRecorder recorder, LongAdder errors) {
+        try {
+            int status = client.exchange(request, scenario.keepAlive());
+            if(status != 200) errors.increment();
+        } catch(IOException e) {
+            errors.increment();
+        }
+        recorder.record(System.nanoTime() - startedAt);
+    }
+
+    private static final class Outcome {
+        final List<LatencyRecorder> recorders = new ArrayList<>();
+        final LongAdder errors = new LongAdder();
+    }
+}
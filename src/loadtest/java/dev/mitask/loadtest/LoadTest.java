@@ -0,0 +1,121 @@
+package dev.mitask.loadtest;
+
+import com.google.gson.GsonBuilder;
+import dev.mitask.Kizuna;
+import dev.mitask.metrics.LatencyHistogram;
+import dev.mitask.metrics.Metrics;
+import dev.mitask.server.ServerEngine;
+
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end load test over loopback. Starts a server with {@link TestServer}, runs every combination of the selected
+ * load modes, protocols and keep-alive settings against it and writes the results as JSON, so runs of different
+ * releases can be diffed.
+ * <p>
+ * Options (all optional): --engine NIO|BLOCKING, --virtual-threads true|false, --connections 64, --rate 10000 (open loop
+ * requests per second), --duration 10 and --warmup 3 (seconds per scenario), --modes closed,open, --protocols http,https,
+ * --keep-alive true,false, --port 18080, --https-port 18443, --tls-key rsa|ec, --output results.json (relative to build/loadtest when run through Gradle)
+ */
+public final class LoadTest {
+    private static final String HOST = "127.0.0.1";
+
+    private LoadTest() {}
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        ServerEngine engine = ServerEngine.valueOf(options.getOrDefault("engine", "NIO").toUpperCase(Locale.ROOT));
+        boolean virtualThreads = Boolean.parseBoolean(options.getOrDefault("virtual-threads", "false"));
+        int connections = Integer.parseInt(options.getOrDefault("connections", "64"));
+        int rate = Integer.parseInt(options.getOrDefault("rate", "10000"));
+        long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "10")));
+        long warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup", "3")));
+        List<String> modes = list(options.getOrDefault("modes", "closed,open"));
+        List<String> protocols = list(options.getOrDefault("protocols", "http,https"));
+        List<String> keepAlive = list(options.getOrDefault("keep-alive", "true,false"));
+        int httpPort = Integer.parseInt(options.getOrDefault("port", "18080"));
+        int httpsPort = protocols.contains("https") ? Integer.parseInt(options.getOrDefault("https-port", "18443")) : 0;
+        String keyAlgorithm = options.getOrDefault("tls-key", "rsa").toUpperCase(Locale.ROOT);
+        Path output = Path.of(options.getOrDefault("output", "results.json"));
+
+        Path workDir = Files.createTempDirectory("kizuna-loadtest");
+        Kizuna app = TestServer.start(httpPort, httpsPort, engine, virtualThreads, keyAlgorithm, workDir);
+        // The accept threads start asynchronously
+        Thread.sleep(500);
+
+        List<ScenarioResult> results = new ArrayList<>();
+        for(String mode : modes) {
+            for(String protocol : protocols) {
+                for(String reuse : keepAlive) {
+                    boolean tls = protocol.equals("https");
+                    boolean persistent = Boolean.parseBoolean(reuse);
+                    Scenario scenario = new Scenario(LoadGenerator.Mode.valueOf(mode.toUpperCase(Locale.ROOT)), tls, persistent,
+                            HOST, tls ? httpsPort : httpPort, connections, rate);
+
+                    ScenarioResult result = new LoadGenerator(scenario, TestServer.workload(HOST, persistent)).run(warmup, duration);
+                    System.out.println(result.summary());
+                    results.add(result);
+                }
+            }
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("version", System.getProperty("kizuna.version", "unknown"));
+        report.put("timestamp", Instant.now().toString());
+        report.put("java", System.getProperty("java.version"));
+        report.put("os", System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+        report.put("processors", Runtime.getRuntime().availableProcessors());
+        report.put("engine", engine.name());
+        report.put("virtualThreads", virtualThreads);
+        report.put("scenarios", results);
+        if(httpsPort != 0) {
+            report.put("tlsKey", keyAlgorithm);
+            report.put("tls", tlsStats(app.getMetrics()));
+        }
+
+        if(output.getParent() != null) Files.createDirectories(output.getParent());
+        try(Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(report, writer);
+        }
+        if(httpsPort != 0) System.out.println("TLS handshakes " + report.get("tls"));
+        System.out.println("Results written to " + output.toAbsolutePath());
+        System.exit(0);
+    }
+
+    /**
+     * @return handshake counts, resumption ratio and median durations in milliseconds as measured by the server
+     */
+    private static Map<String, Object> tlsStats(Metrics metrics) {
+        LatencyHistogram all = metrics.getTlsHandshakes(), resumed = metrics.getTlsResumedHandshakes();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("handshakes", all.getCount());
+        stats.put("resumed", resumed.getCount());
+        stats.put("resumptionRatio", Math.round(metrics.getTlsResumptionRatio() * 1000) / 1000.0);
+        stats.put("p50", all.getPercentile(0.5) / 1e6);
+        stats.put("resumedP50", resumed.getPercentile(0.5) / 1e6);
+        return stats;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for(int i = 0; i < args.length; i++) {
+            if(!args[i].startsWith("--") || i + 1 == args.length) throw new IllegalArgumentException("Expected --option value, got " + args[i]);
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    private static List<String> list(String value) {
+        List<String> values = new ArrayList<>();
+        for(String part : value.split(",")) {
+            if(!part.isBlank()) values.add(part.trim().toLowerCase(Locale.ROOT));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,11 @@
+package dev.mitask.loadtest;
+
+/**
+ * One combination of load model, protocol and connection handling the harness measures
+ * @param rate Total requests per second in open loop mode, unused in closed loop mode
+ */
+record Scenario(LoadGenerator.Mode mode, boolean tls, boolean keepAlive, String host, int port, int connections, int rate) {
+    String name() {
+        return mode.name().toLowerCase() + "-" + (tls ? "https" : "http") + "-" + (keepAlive ? "keepalive" : "close");
+    }
+}
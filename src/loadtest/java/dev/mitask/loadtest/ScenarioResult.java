@@ -0,0 +1,32 @@
+package dev.mitask.loadtest;
+
+/**
+ * Measured numbers of a scenario, written to the results file. Latencies are in milliseconds
+ */
+record ScenarioResult(String name, String mode, String protocol, boolean keepAlive, int connections, int targetRate,
+                      double durationSeconds, long requests, long errors, double requestsPerSecond,
+                      double p50, double p90, double p99, double p999, double max) {
+    static ScenarioResult of(Scenario scenario, double seconds, long[] sortedLatencies, long errors) {
+        return new ScenarioResult(scenario.name(), scenario.mode().name().toLowerCase(), scenario.tls() ? "https" : "http",
+                scenario.keepAlive(), scenario.connections(), scenario.mode() == LoadGenerator.Mode.OPEN ? scenario.rate() : 0,
+                round(seconds), sortedLatencies.length, errors, round(sortedLatencies.length / seconds),
+                millis(LatencyRecorder.percentile(sortedLatencies, 0.5)),
+                millis(LatencyRecorder.percentile(sortedLatencies, 0.9)),
+                millis(LatencyRecorder.percentile(sortedLatencies, 0.99)),
+                millis(LatencyRecorder.percentile(sortedLatencies, 0.999)),
+                millis(sortedLatencies.length == 0 ? 0 : sortedLatencies[sortedLatencies.length - 1]));
+    }
+
+    String summary() {
+        return String.format("%-28s %10.0f req/s  p50 %8.3f  p99 %8.3f  p999 %8.3f  max %8.3f ms  errors %d",
+                name, requestsPerSecond, p50, p99, p999, max, errors);
+    }
+
+    private static double millis(long nanos) {
+        return round(nanos / 1e6);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+}
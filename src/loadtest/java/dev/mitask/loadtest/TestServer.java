@@ -0,0 +1,109 @@
+package dev.mitask.loadtest;
+
+import dev.mitask.Kizuna;
+import dev.mitask.server.ServerEngine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Starts the server under test with a representative route set: a static file, a path parameter,
+ * JSON, a template, a POST body and a route protected by a middleware. Every route answers 200 for the
+ * requests of {@link #workload(String, boolean)}.
+ */
+final class TestServer {
+    static final String ADMIN_TOKEN = "load-test-token";
+    private static final String KEY_PASSWORD = "kizuna";
+
+    private TestServer() {}
+
+    /**
+     * @param keyAlgorithm Algorithm of the generated certificate, RSA or EC
+     */
+    static Kizuna start(int httpPort, int httpsPort, ServerEngine engine, boolean virtualThreads, String keyAlgorithm, Path workDir) throws Exception {
+        Path staticDir = Files.createDirectories(workDir.resolve("static"));
+        Files.writeString(staticDir.resolve("style.css"), "body { font-family: sans-serif; }\n".repeat(64));
+
+        Kizuna.KizunaBuilder builder = Kizuna.builder()
+                .setHttpPort(httpPort)
+                .setEngine(engine)
+                .setVirtualThreads(virtualThreads)
+                // Generated from src/loadtest/jte by the generateLoadtestJte task
+                .setPrecompiledTemplates(true);
+        if(httpsPort != 0) {
+            Path[] keyPair = generateKeyPair(workDir, keyAlgorithm);
+            builder.setHttpsPort(httpsPort).setPrivateKeyPath(keyPair[0]).setCertificatePath(keyPair[1]);
+        }
+        Kizuna app = builder.build();
+
+        List<String> items = List.of("alpha", "beta", "gamma", "delta", "epsilon");
+        app.serveStatic("/static", staticDir);
+        app.get("/users/:id", (request, response) -> response.sendText("user " + request.urlParams.get("id")));
+        app.get("/json", (request, response) -> response.sendJson(Map.of("id", 42, "name", "kizuna", "items", items)));
+        app.get("/template", (request, response) -> response.sendTemplate("page.jte", Map.of("title", "Load test", "items", items)));
+        app.post("/echo", (request, response) -> response.sendCustom(200, "application/octet-stream", request.body));
+        app.use("/admin", (request, response, chain) -> {
+            if(("Bearer " + ADMIN_TOKEN).equals(request.headers.get("Authorization"))) chain.next(request, response);
+            else response.sendCustom(401, "text/plain", "Unauthorized");
+        });
+        app.get("/admin/stats", (request, response) -> response.sendJson(Map.of("uptime", System.nanoTime())));
+        app.listen();
+        return app;
+    }
+
+    /**
+     * @return encoded requests for every route of the server, sent round-robin by the load generator
+     */
+    static List<byte[]> workload(String host, boolean keepAlive) {
+        byte[] body = "x".repeat(512).getBytes(StandardCharsets.ISO_8859_1);
+        return List.of(
+                LoadClient.encode("GET", "/static/style.css", host, keepAlive, "", null),
+                LoadClient.encode("GET", "/users/42", host, keepAlive, "", null),
+                LoadClient.encode("GET", "/json", host, keepAlive, "", null),
+                LoadClient.encode("GET", "/template", host, keepAlive, "", null),
+                LoadClient.encode("POST", "/echo", host, keepAlive, "Content-Type: application/octet-stream\r\n", body),
+                LoadClient.encode("GET", "/admin/stats", host, keepAlive, "Authorization: Bearer " + ADMIN_TOKEN + "\r\n", null)
+        );
+    }
+
+    /**
+     * Creates a self-signed RSA (2048 bit) or EC (P-256) certificate with keytool and exports it as the PEM files the server reads
+     * @return private key and certificate path
+     */
+    private static Path[] generateKeyPair(Path workDir, String keyAlgorithm) throws Exception {
+        Path keyStorePath = workDir.resolve("loadtest.p12");
+        Path keytool = Path.of(System.getProperty("java.home"), "bin", "keytool");
+        Process process = new ProcessBuilder(keytool.toString(), "-genkeypair", "-alias", "server", "-keyalg", keyAlgorithm, "-keysize", keyAlgorithm.equals("EC") ? "256" : "2048",
+                "-dname", "CN=localhost", "-validity", "1", "-storetype", "PKCS12", "-keystore", keyStorePath.toString(),
+                "-storepass", KEY_PASSWORD, "-keypass", KEY_PASSWORD)
+                .redirectErrorStream(true)
+                .start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        if(process.waitFor() != 0) throw new IOException("keytool failed: " + output);
+
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try(InputStream in = Files.newInputStream(keyStorePath)) {
+            keyStore.load(in, KEY_PASSWORD.toCharArray());
+        }
+        Key key = keyStore.getKey("server", KEY_PASSWORD.toCharArray());
+        Certificate certificate = keyStore.getCertificate("server");
+
+        Path keyPath = workDir.resolve("key.pem"), certificatePath = workDir.resolve("cert.pem");
+        Files.writeString(keyPath, pem("PRIVATE KEY", key.getEncoded()));
+        Files.writeString(certificatePath, pem("CERTIFICATE", certificate.getEncoded()));
+        return new Path[]{keyPath, certificatePath};
+    }
+
+    private static String pem(String type, byte[] der) {
+        return "-----BEGIN " + type + "-----\n" + Base64.getMimeEncoder(64, new byte[]{'\n'}).encodeToString(der) + "\n-----END " + type + "-----\n";
+    }
+}
@@ -0,0 +1,101 @@
+package dev.mitask.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations with fixed buckets. Every bucket is a {@link LongAdder},
+ * so concurrent recording threads do not contend on a single counter.
+ * @since 1.0.0
+ * @author MiTask
+ */
+public final class LatencyHistogram {
+    private static final long[] DEFAULT_BOUNDS = {
+            micros(250), micros(500), micros(1000), micros(2500), micros(5000), micros(10_000), micros(25_000),
+            micros(50_000), micros(100_000), micros(250_000), micros(500_000), micros(1_000_000), micros(2_500_000),
+            micros(5_000_000), micros(10_000_000)
+    };
+
+    private final long[] bounds;
+    // One more than bounds, the last bucket has no upper bound
+    private final LongAdder[] buckets;
+    private final LongAdder sum = new LongAdder();
+
+    public LatencyHistogram() {
+        this(DEFAULT_BOUNDS);
+    }
+
+    /**
+     * @param bounds Ascending inclusive upper bounds of the buckets in nanoseconds
+     */
+    public LatencyHistogram(long[] bounds) {
+        this.bounds = bounds.clone();
+        this.buckets = new LongAdder[bounds.length + 1];
+        for(int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+    }
+
+    public void record(long nanos) {
+        int bucket = 0;
+        while(bucket < bounds.length && nanos > bounds[bucket]) bucket++;
+
+        buckets[bucket].increment();
+        sum.add(nanos);
+    }
+
+    /**
+     * @return upper bounds of the buckets in nanoseconds, the bucket after the last bound is unbounded
+     */
+    public long[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * @return amount of durations recorded in the bucket (not cumulative)
+     */
+    public long getBucketCount(int bucket) {
+        return buckets[bucket].sum();
+    }
+
+    public long getCount() {
+        long count = 0;
+        for(LongAdder bucket : buckets) count += bucket.sum();
+        return count;
+    }
+
+    /**
+     * @return sum of all recorded durations in nanoseconds
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Estimates a percentile with the upper bound of the bucket it falls in
+     * @param percentile Between 0 and 1, e.g. 0.99
+     * @return nanoseconds, {@link Long#MAX_VALUE} if it falls in the unbounded bucket and 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for(int i = 0; i < counts.length; i++) total += counts[i] = buckets[i].sum();
+        if(total == 0) return 0;
+
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for(int i = 0; i < bounds.length; i++) {
+            seen += counts[i];
+            if(seen >= rank) return bounds[i];
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram{count=" + getCount() + ", bounds=" + Arrays.toString(bounds) + "}";
+    }
+
+    private static long micros(long micros) {
+        return TimeUnit.MICROSECONDS.toNanos(micros);
+    }
+}
@@ -0,0 +1,318 @@
+package dev.mitask.metrics;
+
+import dev.mitask.requests.Route;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a server: requests per route, connections, queued work and TLS handshakes.
+ * Recording only increments {@link LongAdder}s, reading sums them up.
+ * @since 1.0.0
+ * @author MiTask
+ */
+public final class Metrics {
+    private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final Map<Route, RouteMetrics> routes = new ConcurrentHashMap<>();
+    private final RouteMetrics unmatched = new RouteMetrics("", "unmatched");
+    private final LongAdder activeConnections = new LongAdder(), totalConnections = new LongAdder();
+    private final LongAdder queuedTasks = new LongAdder();
+    private final LongAdder rejectedConnections = new LongAdder(), rejectedConnectionsPerIp = new LongAdder(), shedRequests = new LongAdder();
+    private final LongAdder headerTimeouts = new LongAdder(), bodyTimeouts = new LongAdder(), idleTimeouts = new LongAdder();
+    private final LatencyHistogram tlsHandshakes = new LatencyHistogram(), tlsResumedHandshakes = new LatencyHistogram();
+    private final LongAdder tlsReloads = new LongAdder(), failedTlsReloads = new LongAdder();
+    private volatile boolean virtualWorkerThreads;
+
+    /**
+     * @param route Matched route, null for requests which did not match any
+     */
+    public RouteMetrics route(Route route) {
+        if(route == null) return unmatched;
+
+        RouteMetrics metrics = routes.get(route);
+        if(metrics != null) return metrics;
+        return routes.computeIfAbsent(route, key -> new RouteMetrics(key.getMethod().name(), key.getPathPattern()));
+    }
+
+    /**
+     * @return metrics of all routes that received requests, including the one for unmatched requests
+     */
+    public Collection<RouteMetrics> getRoutes() {
+        List<RouteMetrics> all = new ArrayList<>(routes.values());
+        all.add(unmatched);
+        return all;
+    }
+
+    public void connectionOpened() {
+        activeConnections.increment();
+        totalConnections.increment();
+    }
+
+    public void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    /**
+     * Called when a request or connection is handed to the executor
+     */
+    public void taskQueued() {
+        queuedTasks.increment();
+    }
+
+    /**
+     * Called when the executor starts running a queued request or connection
+     */
+    public void taskStarted() {
+        queuedTasks.decrement();
+    }
+
+    /**
+     * @param resumed true if the session was resumed from the cache or a ticket instead of a full handshake
+     */
+    public void recordTlsHandshake(long nanos, boolean resumed) {
+        tlsHandshakes.record(nanos);
+        if(resumed) tlsResumedHandshakes.record(nanos);
+    }
+
+    /**
+     * Called when changed certificate files were loaded, or could not be loaded and the previous certificate stays in use
+     */
+    public void tlsReloaded(boolean success) {
+        (success ? tlsReloads : failedTlsReloads).increment();
+    }
+
+    /**
+     * Called when a connection is closed right after accepting it because of a connection limit
+     * @param perIp true if the limit of the client address was reached, false for the server wide limit
+     */
+    public void connectionRejected(boolean perIp) {
+        (perIp ? rejectedConnectionsPerIp : rejectedConnections).increment();
+    }
+
+    /**
+     * Called when a request (or connection for the blocking engine) is answered with 503 because the worker queue is full
+     */
+    public void requestShed() {
+        shedRequests.increment();
+    }
+
+    /**
+     * Called when a client did not send the complete request head in time
+     */
+    public void headerTimeout() {
+        headerTimeouts.increment();
+    }
+
+    /**
+     * Called when a client did not send the complete request body in time
+     */
+    public void bodyTimeout() {
+        bodyTimeouts.increment();
+    }
+
+    /**
+     * Called when a persistent connection is closed because no further request arrived
+     */
+    public void idleTimeout() {
+        idleTimeouts.increment();
+    }
+
+    /**
+     * Called once the executor of the server was created
+     * @param virtual false for platform threads, also when virtual threads were requested but the JVM does not support them
+     */
+    public void workerThreads(boolean virtual) {
+        virtualWorkerThreads = virtual;
+    }
+
+    /**
+     * @return whether connections and handlers run on virtual threads
+     */
+    public boolean isVirtualWorkerThreads() {
+        return virtualWorkerThreads;
+    }
+
+    public long getActiveConnections() {
+        return activeConnections.sum();
+    }
+
+    public long getTotalConnections() {
+        return totalConnections.sum();
+    }
+
+    /**
+     * @return amount of requests (or connections for the blocking engine) waiting for a worker thread
+     */
+    public long getQueueDepth() {
+        return queuedTasks.sum();
+    }
+
+    /**
+     * @return durations of all TLS handshakes, full and resumed
+     */
+    public LatencyHistogram getTlsHandshakes() {
+        return tlsHandshakes;
+    }
+
+    public LatencyHistogram getTlsResumedHandshakes() {
+        return tlsResumedHandshakes;
+    }
+
+    /**
+     * @return share of TLS handshakes that resumed a session, 0 before the first handshake
+     */
+    public double getTlsResumptionRatio() {
+        long total = tlsHandshakes.getCount();
+        return total == 0 ? 0 : (double) tlsResumedHandshakes.getCount() / total;
+    }
+
+    /**
+     * @param success true for certificates loaded, false for failed attempts
+     */
+    public long getTlsReloads(boolean success) {
+        return (success ? tlsReloads : failedTlsReloads).sum();
+    }
+
+    /**
+     * @param perIp true for connections rejected because of the per client limit, false for the server wide limit
+     */
+    public long getRejectedConnections(boolean perIp) {
+        return (perIp ? rejectedConnectionsPerIp : rejectedConnections).sum();
+    }
+
+    public long getShedRequests() {
+        return shedRequests.sum();
+    }
+
+    public long getHeaderTimeouts() {
+        return headerTimeouts.sum();
+    }
+
+    public long getBodyTimeouts() {
+        return bodyTimeouts.sum();
+    }
+
+    public long getIdleTimeouts() {
+        return idleTimeouts.sum();
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text exposition format
+     */
+    public void writePrometheus(Appendable out) throws IOException {
+        Collection<RouteMetrics> all = getRoutes();
+
+        header(out, "kizuna_requests_total", "counter", "Requests handled, by route and status class");
+        for(RouteMetrics route : all) {
+            for(int statusClass = 1; statusClass <= 5; statusClass++) {
+                long count = route.getStatusCount(statusClass);
+                if(count > 0) sample(out, "kizuna_requests_total", route, "status", statusClass + "xx", count);
+            }
+        }
+
+        header(out, "kizuna_request_bytes_total", "counter", "Bytes of request heads and bodies read");
+        for(RouteMetrics route : all) sample(out, "kizuna_request_bytes_total", route, null, null, route.getBytesIn());
+
+        header(out, "kizuna_response_bytes_total", "counter", "Bytes of responses written");
+        for(RouteMetrics route : all) sample(out, "kizuna_response_bytes_total", route, null, null, route.getBytesOut());
+
+        header(out, "kizuna_request_duration_seconds", "histogram", "Time from the parsed request head until the response was written");
+        for(RouteMetrics route : all) histogram(out, "kizuna_request_duration_seconds", route, route.getLatency());
+
+        header(out, "kizuna_active_connections", "gauge", "Open client connections");
+        out.append("kizuna_active_connections ").append(Long.toString(getActiveConnections())).append('\n');
+
+        header(out, "kizuna_connections_total", "counter", "Accepted client connections");
+        out.append("kizuna_connections_total ").append(Long.toString(getTotalConnections())).append('\n');
+
+        header(out, "kizuna_executor_queue_depth", "gauge", "Requests or connections waiting for a worker thread");
+        out.append("kizuna_executor_queue_depth ").append(Long.toString(getQueueDepth())).append('\n');
+
+        header(out, "kizuna_virtual_worker_threads", "gauge", "1 if connections and handlers run on virtual threads, 0 for platform threads");
+        out.append("kizuna_virtual_worker_threads ").append(virtualWorkerThreads ? "1" : "0").append('\n');
+
+        header(out, "kizuna_rejected_connections_total", "counter", "Connections closed on accept because of a connection limit");
+        out.append("kizuna_rejected_connections_total{reason=\"limit\"} ").append(Long.toString(getRejectedConnections(false))).append('\n');
+        out.append("kizuna_rejected_connections_total{reason=\"per_ip\"} ").append(Long.toString(getRejectedConnections(true))).append('\n');
+
+        header(out, "kizuna_shed_requests_total", "counter", "Requests answered with 503 because the worker queue was full");
+        out.append("kizuna_shed_requests_total ").append(Long.toString(getShedRequests())).append('\n');
+
+        header(out, "kizuna_timeouts_total", "counter", "Connections closed because the client was too slow");
+        out.append("kizuna_timeouts_total{phase=\"header\"} ").append(Long.toString(getHeaderTimeouts())).append('\n');
+        out.append("kizuna_timeouts_total{phase=\"body\"} ").append(Long.toString(getBodyTimeouts())).append('\n');
+        out.append("kizuna_timeouts_total{phase=\"idle\"} ").append(Long.toString(getIdleTimeouts())).append('\n');
+
+        header(out, "kizuna_tls_handshake_duration_seconds", "histogram", "Duration of TLS handshakes");
+        histogram(out, "kizuna_tls_handshake_duration_seconds", null, tlsHandshakes);
+
+        header(out, "kizuna_tls_resumed_handshake_duration_seconds", "histogram", "Duration of TLS handshakes that resumed a session, a subset of all handshakes");
+        histogram(out, "kizuna_tls_resumed_handshake_duration_seconds", null, tlsResumedHandshakes);
+
+        header(out, "kizuna_tls_certificate_reloads_total", "counter", "Attempts to load changed certificate files");
+        out.append("kizuna_tls_certificate_reloads_total{result=\"success\"} ").append(Long.toString(getTlsReloads(true))).append('\n');
+        out.append("kizuna_tls_certificate_reloads_total{result=\"failure\"} ").append(Long.toString(getTlsReloads(false))).append('\n');
+    }
+
+    /**
+     * @return route handler answering with {@link #writePrometheus(Appendable)}
+     */
+    public Route.RouteHandler prometheusHandler() {
+        return (request, response) -> {
+            StringBuilder text = new StringBuilder(4096);
+            writePrometheus(text);
+            response.sendCustom(200, PROMETHEUS_CONTENT_TYPE, text.toString());
+        };
+    }
+
+    private static void header(Appendable out, String name, String type, String help) throws IOException {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void histogram(Appendable out, String name, RouteMetrics route, LatencyHistogram histogram) throws IOException {
+        long[] bounds = histogram.getBounds();
+        long cumulative = 0;
+        for(int i = 0; i < bounds.length; i++) {
+            cumulative += histogram.getBucketCount(i);
+            sample(out, name + "_bucket", route, "le", seconds(bounds[i]), cumulative);
+        }
+        cumulative += histogram.getBucketCount(bounds.length);
+        sample(out, name + "_bucket", route, "le", "+Inf", cumulative);
+
+        labels(out.append(name).append("_sum"), route, null, null);
+        out.append(' ').append(seconds(histogram.getSum())).append('\n');
+        sample(out, name + "_count", route, null, null, cumulative);
+    }
+
+    private static void sample(Appendable out, String name, RouteMetrics route, String label, String value, long sample) throws IOException {
+        labels(out.append(name), route, label, value);
+        out.append(' ').append(Long.toString(sample)).append('\n');
+    }
+
+    private static void labels(Appendable out, RouteMetrics route, String label, String value) throws IOException {
+        if(route == null && label == null) return;
+
+        out.append('{');
+        if(route != null) {
+            out.append("method=\"").append(escape(route.getMethod())).append("\",route=\"").append(escape(route.getRoute())).append('"');
+            if(label != null) out.append(',');
+        }
+        if(label != null) out.append(label).append("=\"").append(value).append('"');
+        out.append('}');
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,72 @@
+package dev.mitask.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request statistics of a single route
+ * @since 1.0.0
+ * @author MiTask
+ */
+public final class RouteMetrics {
+    private final String method, route;
+    private final LongAdder requests = new LongAdder();
+    // 1xx to 5xx, responses without a valid status are only counted as requests
+    private final LongAdder[] statusClasses = new LongAdder[5];
+    private final LongAdder bytesIn = new LongAdder(), bytesOut = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * @param method Request method, empty for requests which did not match a route
+     * @param route Path pattern of the route
+     */
+    public RouteMetrics(String method, String route) {
+        this.method = method;
+        this.route = route;
+        for(int i = 0; i < statusClasses.length; i++) statusClasses[i] = new LongAdder();
+    }
+
+    /**
+     * @param status Status code of the response, 0 if none was sent
+     * @param bytesIn Bytes of the request head and body read
+     * @param bytesOut Bytes of the response written
+     * @param nanos Time from the parsed request head until the response was written
+     */
+    public void record(int status, long bytesIn, long bytesOut, long nanos) {
+        requests.increment();
+        if(status >= 100 && status < 600) statusClasses[status / 100 - 1].increment();
+        if(bytesIn > 0) this.bytesIn.add(bytesIn);
+        if(bytesOut > 0) this.bytesOut.add(bytesOut);
+        latency.record(nanos);
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * @param statusClass First digit of the status codes (1-5)
+     */
+    public long getStatusCount(int statusClass) {
+        return statusClasses[statusClass - 1].sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+}
@@ -0,0 +1,189 @@
+package dev.mitask.requests;
+
+import dev.mitask.util.HttpDate;
+import dev.mitask.util.HttpMethod;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Range requests of files (RFC 9110 section 14). A single range is answered with 206 Partial Content and Content-Range,
+ * several ranges with a multipart/byteranges body and ranges that all start behind the end of the file with 416.
+ * Invalid Range headers and those of an outdated If-Range are ignored, the whole file is sent then.
+ */
+final class ByteRanges {
+    // More ranges are ignored instead of answering requests that ask for many tiny parts of the same file
+    private static final int MAX_RANGES = 16;
+    private static final String UNIT = "bytes=";
+
+    private ByteRanges() {}
+
+    /**
+     * Writes part of the content of a file
+     */
+    @FunctionalInterface
+    interface Content {
+        void write(OutputStream out, long position, long count) throws IOException;
+    }
+
+    /**
+     * @param etag Strong entity tag of the file
+     * @return first and last byte of each requested range in ascending order with overlapping ranges merged,
+     * an empty array if no range can be satisfied and null if the whole file should be sent
+     */
+    static long[] requested(HttpRequest request, long size, String etag, long lastModified) {
+        String range = request.headers.get("Range");
+        if(range == null || request.method != HttpMethod.GET || !isCurrent(request.headers.get("If-Range"), etag, lastModified)) return null;
+        return parse(range, size);
+    }
+
+    private static long[] parse(String header, long size) {
+        if(!header.regionMatches(true, 0, UNIT, 0, UNIT.length())) return null;
+
+        String[] specs = header.substring(UNIT.length()).split(",");
+        if(specs.length > MAX_RANGES) return null;
+
+        long[] ranges = new long[specs.length * 2];
+        int count = 0;
+        boolean empty = true;
+        for(String spec : specs) {
+            spec = spec.trim();
+            if(spec.isEmpty()) continue;
+            empty = false;
+
+            int dash = spec.indexOf('-');
+            if(dash == -1) return null;
+
+            long first, last;
+            if(dash == 0) {
+                // "-500" asks for the last 500 bytes
+                long suffix = parseNumber(spec.substring(1));
+                if(suffix == -1) return null;
+                if(suffix == 0 || size == 0) continue;
+
+                first = Math.max(0, size - suffix);
+                last = size - 1;
+            } else {
+                first = parseNumber(spec.substring(0, dash));
+                last = dash == spec.length() - 1 ? Long.MAX_VALUE : parseNumber(spec.substring(dash + 1));
+                if(first == -1 || last == -1 || last < first) return null;
+                if(first >= size) continue;
+
+                last = Math.min(last, size - 1);
+            }
+
+            ranges[count++] = first;
+            ranges[count++] = last;
+        }
+        return empty ? null : merge(ranges, count);
+    }
+
+    /**
+     * @return whether the file still is the one If-Range names, only strong entity tags and exact dates match
+     */
+    static boolean isCurrent(String ifRange, String etag, long lastModified) {
+        if(ifRange == null) return true;
+
+        ifRange = ifRange.trim();
+        if(ifRange.startsWith("\"")) return ifRange.equals(etag);
+        if(ifRange.startsWith("W/")) return false;
+
+        long date = HttpDate.parse(ifRange);
+        return date != -1 && date / 1000 == lastModified / 1000;
+    }
+
+    /**
+     * Sends the ranges with status 206
+     * @param headerBlock Encoded header lines of the file besides Content-Type and Content-Length, e.g. its validators
+     */
+    static void send(HttpResponse response, byte[] headerBlock, String contentType, long size, long[] ranges, Content content) throws IOException {
+        if(ranges.length == 2) {
+            long first = ranges[0], length = ranges[1] - first + 1;
+            response.startEncoded(206, headerBlock)
+                    .header("Content-Type", contentType)
+                    .header("Content-Range", contentRange(first, ranges[1], size))
+                    .header("Content-Length", Long.toString(length))
+                    .end().send();
+            content.write(response.connectionOutput(), first, length);
+            return;
+        }
+
+        // The content length is known up front, so the parts can follow each other without chunked encoding
+        String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE);
+        byte[][] partHeads = new byte[ranges.length / 2][];
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        long length = closing.length;
+        for(int i = 0; i < ranges.length; i += 2) {
+            partHeads[i / 2] = ("\r\n--" + boundary + "\r\nContent-Type: " + contentType + "\r\nContent-Range: " + contentRange(ranges[i], ranges[i + 1], size) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1);
+            length += partHeads[i / 2].length + ranges[i + 1] - ranges[i] + 1;
+        }
+
+        response.startEncoded(206, headerBlock)
+                .header("Content-Type", "multipart/byteranges; boundary=" + boundary)
+                .header("Content-Length", Long.toString(length))
+                .end().send();
+
+        OutputStream out = response.connectionOutput();
+        for(int i = 0; i < ranges.length; i += 2) {
+            out.write(partHeads[i / 2]);
+            content.write(out, ranges[i], ranges[i + 1] - ranges[i] + 1);
+        }
+        out.write(closing);
+    }
+
+    /**
+     * Answers a request whose ranges all lie outside of the file with 416 and the actual size
+     */
+    static void sendUnsatisfiable(HttpResponse response, byte[] headerBlock, long size) throws IOException {
+        response.startEncoded(416, headerBlock)
+                .header("Content-Range", "bytes */" + size)
+                .header("Content-Length", "0")
+                .end().send();
+    }
+
+    private static String contentRange(long first, long last, long size) {
+        return "bytes " + first + "-" + last + "/" + size;
+    }
+
+    /**
+     * Sorts the ranges and merges those that overlap or touch, so no byte is sent twice
+     */
+    private static long[] merge(long[] ranges, int count) {
+        long[][] pairs = new long[count / 2][];
+        for(int i = 0; i < count; i += 2) {
+            pairs[i / 2] = new long[]{ranges[i], ranges[i + 1]};
+        }
+        Arrays.sort(pairs, (a, b) -> Long.compare(a[0], b[0]));
+
+        long[] merged = new long[count];
+        int length = 0;
+        for(long[] pair : pairs) {
+            if(length > 0 && pair[0] <= merged[length - 1] + 1) {
+                merged[length - 1] = Math.max(merged[length - 1], pair[1]);
+            } else {
+                merged[length++] = pair[0];
+                merged[length++] = pair[1];
+            }
+        }
+        return Arrays.copyOf(merged, length);
+    }
+
+    /**
+     * @return the decimal number or -1 if the text is not one, signs are not allowed in ranges
+     */
+    private static long parseNumber(String text) {
+        if(text.isEmpty() || text.length() > 18) return -1;
+
+        long number = 0;
+        for(int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if(c < '0' || c > '9') return -1;
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+}
@@ -0,0 +1,51 @@
+package dev.mitask.requests;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+
+import java.util.List;
+
+/**
+ * Settings of the response cache of a GET route, enabled with {@link Route#cache(CacheOptions)}
+ * @since 1.0.0
+ * @author MiTask
+ */
+@Getter
+public class CacheOptions {
+    private static final long DEFAULT_TTL = 1000;
+    private static final long DEFAULT_MAX_SIZE = 8 * 1024 * 1024;
+    private static final long DEFAULT_LOAD_TIMEOUT = 5000;
+
+    private final long ttl, staleWhileRevalidate, maxSize, loadTimeout;
+    private final List<String> queryParams, headers;
+    private final boolean skipMiddleware;
+
+    /**
+     * @param ttl Time in milliseconds a stored response is served without running the handler. 0 uses the default of 1 second
+     * @param staleWhileRevalidate Time in milliseconds after the ttl during which the stale response is still served
+     *                             while a single request revalidates it. 0 disables serving stale responses
+     * @param maxSize Maximum amount of bytes of stored responses of the route, least recently used ones are evicted. 0 uses the default of 8 MiB
+     * @param loadTimeout Time in milliseconds a request waits for the response of the same key another request is producing,
+     *                    afterwards it is answered with 503 instead of holding its worker any longer. 0 uses the default of 5 seconds
+     * @param queryParams Query parameters that are part of the cache key, all others are ignored
+     * @param headers Request headers that are part of the cache key (e.g. Accept-Language), all others are ignored
+     * @param skipMiddleware Whether cached responses are sent before the middleware chain runs. Only use it for routes
+     *                       whose middlewares do not have to run for every request (e.g. no authentication)
+     */
+    @Builder(setterPrefix = "set")
+    private CacheOptions(long ttl, long staleWhileRevalidate, long maxSize, long loadTimeout, @Singular List<String> queryParams, @Singular List<String> headers, boolean skipMiddleware) {
+        if(ttl < 0) throw new IllegalArgumentException("TTL can not be negative!");
+        if(staleWhileRevalidate < 0) throw new IllegalArgumentException("Stale while revalidate can not be negative!");
+        if(maxSize < 0) throw new IllegalArgumentException("Max size can not be negative!");
+        if(loadTimeout < 0) throw new IllegalArgumentException("Load timeout can not be negative!");
+
+        this.ttl = ttl == 0 ? DEFAULT_TTL : ttl;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        this.maxSize = maxSize == 0 ? DEFAULT_MAX_SIZE : maxSize;
+        this.loadTimeout = loadTimeout == 0 ? DEFAULT_LOAD_TIMEOUT : loadTimeout;
+        this.queryParams = queryParams;
+        this.headers = headers;
+        this.skipMiddleware = skipMiddleware;
+    }
+}
@@ -0,0 +1,58 @@
+package dev.mitask.requests;
+
+import dev.mitask.util.DeflaterPool;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Settings of response compression, enabled by passing them to the compression option of the Kizuna builder
+ * @since 1.0.0
+ * @author MiTask
+ */
+@Getter
+public class CompressionOptions {
+    private static final int DEFAULT_MIN_SIZE = 1024;
+    private static final int DEFAULT_LEVEL = 6;
+    private static final int MAX_POOLED_DEFLATERS = 64;
+    private static final List<String> DEFAULT_CONTENT_TYPES = List.of(
+            "text/*", "application/json", "application/javascript", "application/xml", "image/svg+xml"
+    );
+
+    private final int minSize, level;
+    private final List<String> contentTypes;
+    private final DeflaterPool deflaterPool;
+
+    /**
+     * @param minSize Responses smaller than this (in bytes) are sent uncompressed. 0 uses the default of 1 KiB
+     * @param level Deflate compression level from 1 (fastest) to 9 (smallest). 0 uses the default of 6
+     * @param contentTypes Content types that are compressed, "type/*" matches all subtypes. Empty uses text, JSON, JavaScript, XML and SVG
+     */
+    @Builder(setterPrefix = "set")
+    private CompressionOptions(int minSize, int level, @Singular List<String> contentTypes) {
+        if(minSize < 0) throw new IllegalArgumentException("Min size can not be negative!");
+        if(level < 0 || level > 9) throw new IllegalArgumentException("Compression level must be between 1 and 9!");
+
+        this.minSize = minSize == 0 ? DEFAULT_MIN_SIZE : minSize;
+        this.level = level == 0 ? DEFAULT_LEVEL : level;
+        this.contentTypes = contentTypes.isEmpty() ? DEFAULT_CONTENT_TYPES : contentTypes.stream().map(type -> type.toLowerCase(Locale.ROOT)).toList();
+        this.deflaterPool = new DeflaterPool(this.level, MAX_POOLED_DEFLATERS);
+    }
+
+    /**
+     * @param contentType Content-Type header value, parameters are ignored
+     */
+    public boolean isCompressible(String contentType) {
+        if(contentType == null) return false;
+
+        int parameters = contentType.indexOf(';');
+        String type = (parameters == -1 ? contentType : contentType.substring(0, parameters)).trim().toLowerCase(Locale.ROOT);
+        for(String allowed : contentTypes) {
+            if(allowed.endsWith("/*") ? type.startsWith(allowed.substring(0, allowed.length() - 1)) : type.equals(allowed)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,102 @@
+package dev.mitask.requests;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fields and uploaded files of a form body, see {@link HttpRequest#form()}
+ * @since 1.0.0
+ * @author MiTask
+ */
+public final class Form {
+    private final Map<String, List<String>> fields = new LinkedHashMap<>();
+    private final List<FormPart> files = new ArrayList<>();
+
+    /**
+     * @return first value of the field or null if the form has none
+     */
+    public String get(String name) {
+        List<String> values = fields.get(name);
+        return values == null ? null : values.get(0);
+    }
+
+    /**
+     * @return all values of the field in the order they were sent, empty if the form has none
+     */
+    public List<String> getAll(String name) {
+        return fields.getOrDefault(name, Collections.emptyList());
+    }
+
+    /**
+     * @return first value of every field
+     */
+    public Map<String, String> getFields() {
+        Map<String, String> first = new LinkedHashMap<>();
+        fields.forEach((name, values) -> first.put(name, values.get(0)));
+        return first;
+    }
+
+    /**
+     * @return first file uploaded under the name or null if there is none
+     */
+    public FormPart getFile(String name) {
+        for(FormPart file : files) {
+            if(file.getName().equals(name)) return file;
+        }
+        return null;
+    }
+
+    public List<FormPart> getFiles() {
+        return Collections.unmodifiableList(files);
+    }
+
+    /**
+     * Deletes the temporary files of all uploaded files that were not moved
+     */
+    public void deleteFiles() {
+        for(FormPart file : files) {
+            try {
+                file.delete();
+            } catch(IOException ignored) {}
+        }
+    }
+
+    void addField(String name, String value) {
+        fields.computeIfAbsent(name, key -> new ArrayList<>(1)).add(value);
+    }
+
+    void addFile(FormPart file) {
+        files.add(file);
+    }
+
+    /**
+     * Decodes an application/x-www-form-urlencoded body ("a=1&b=2"), percent escapes as UTF-8. Pairs without a name are skipped
+     */
+    static Form parseUrlEncoded(String body) throws MalformedFormException {
+        Form form = new Form();
+        int start = 0;
+        while(start < body.length()) {
+            int end = body.indexOf('&', start);
+            if(end == -1) end = body.length();
+
+            int equals = body.indexOf('=', start);
+            if(equals == -1 || equals > end) equals = end;
+            if(equals > start) {
+                try {
+                    String value = equals == end ? "" : URLDecoder.decode(body.substring(equals + 1, end), StandardCharsets.UTF_8);
+                    form.addField(URLDecoder.decode(body.substring(start, equals), StandardCharsets.UTF_8), value);
+                } catch(IllegalArgumentException e) {
+                    throw new MalformedFormException("Invalid percent escape in form body");
+                }
+            }
+            start = end + 1;
+        }
+        return form;
+    }
+}
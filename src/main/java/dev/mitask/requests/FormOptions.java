@@ -0,0 +1,43 @@
+package dev.mitask.requests;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.nio.file.Path;
+
+/**
+ * Limits of form bodies parsed with {@link HttpRequest#form()}. Passed to the forms option of the Kizuna builder, defaults are used without it
+ * @since 1.0.0
+ * @author MiTask
+ */
+@Getter
+public class FormOptions {
+    private static final int DEFAULT_MEMORY_THRESHOLD = 64 * 1024;
+    private static final int DEFAULT_MAX_PARTS = 1000;
+
+    private final int memoryThreshold, maxParts;
+    private final long maxPartSize, maxTotalSize;
+    private final Path tempDirectory;
+
+    /**
+     * @param memoryThreshold Size in bytes up to which a part is kept in memory, larger file parts are written to a temporary file
+     *                        and larger fields are rejected with 413. 0 uses the default of 64 KiB
+     * @param maxParts Maximum amount of parts of a multipart body, more are rejected with 413. 0 uses the default of 1000
+     * @param maxPartSize Maximum size in bytes of a single part, larger ones are rejected with 413. 0 for no limit besides the maximum body size
+     * @param maxTotalSize Maximum size in bytes of all parts together, larger forms are rejected with 413. 0 for no limit besides the maximum body size
+     * @param tempDirectory Directory temporary files of file parts are created in. null uses the default temporary directory
+     */
+    @Builder(setterPrefix = "set")
+    private FormOptions(int memoryThreshold, int maxParts, long maxPartSize, long maxTotalSize, Path tempDirectory) {
+        if(memoryThreshold < 0) throw new IllegalArgumentException("Memory threshold can not be negative!");
+        if(maxParts < 0) throw new IllegalArgumentException("Max parts can not be negative!");
+        if(maxPartSize < 0) throw new IllegalArgumentException("Max part size can not be negative!");
+        if(maxTotalSize < 0) throw new IllegalArgumentException("Max total size can not be negative!");
+
+        this.memoryThreshold = memoryThreshold == 0 ? DEFAULT_MEMORY_THRESHOLD : memoryThreshold;
+        this.maxParts = maxParts == 0 ? DEFAULT_MAX_PARTS : maxParts;
+        this.maxPartSize = maxPartSize;
+        this.maxTotalSize = maxTotalSize;
+        this.tempDirectory = tempDirectory;
+    }
+}
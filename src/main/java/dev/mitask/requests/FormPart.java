@@ -0,0 +1,72 @@
+package dev.mitask.requests;
+
+import lombok.Getter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Uploaded file of a multipart form. Small files are kept in memory, larger ones in a temporary file
+ * that is deleted once the request is complete unless it was moved with {@link #moveTo(Path)}.
+ * @since 1.0.0
+ * @author MiTask
+ */
+public final class FormPart {
+    @Getter private final String name, fileName, contentType;
+    @Getter private final long size;
+    // Exactly one of them is set, file is null again after the part was moved
+    private final byte[] bytes;
+    private Path file;
+
+    FormPart(String name, String fileName, String contentType, byte[] bytes, Path file, long size) {
+        this.name = name;
+        this.fileName = fileName;
+        this.contentType = contentType;
+        this.bytes = bytes;
+        this.file = file;
+        this.size = size;
+    }
+
+    public boolean isInMemory() {
+        return bytes != null;
+    }
+
+    public InputStream stream() throws IOException {
+        return bytes != null ? new ByteArrayInputStream(bytes) : Files.newInputStream(temporaryFile());
+    }
+
+    public byte[] bytes() throws IOException {
+        return bytes != null ? bytes : Files.readAllBytes(temporaryFile());
+    }
+
+    public String text() throws IOException {
+        return new String(bytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Stores the part at the target, replacing an existing file. Temporary files are moved instead of copied
+     * @return the target
+     */
+    public Path moveTo(Path target) throws IOException {
+        if(bytes != null) return Files.write(target, bytes);
+
+        Files.move(temporaryFile(), target, StandardCopyOption.REPLACE_EXISTING);
+        file = null;
+        return target;
+    }
+
+    void delete() throws IOException {
+        if(file != null) Files.deleteIfExists(file);
+        file = null;
+    }
+
+    private Path temporaryFile() throws IOException {
+        if(file == null) throw new IOException("Uploaded file " + fileName + " was already moved or deleted");
+        return file;
+    }
+}
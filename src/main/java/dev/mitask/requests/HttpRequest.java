@@ -1,10 +1,14 @@
 package dev.mitask.requests;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
+import com.google.gson.JsonParseException;
 import lombok.AllArgsConstructor;
+import dev.mitask.server.PayloadTooLargeException;
 import dev.mitask.util.HttpMethod;
 
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
 import java.util.Map;
 
 /**
@@ -18,19 +22,84 @@ public class HttpRequest {
     public final String path;
     public final Map<String, String> queryParams;
     public final Map<String, String> urlParams;
+    /**
+     * Body decoded as UTF-8, null for routes marked with {@link Route#streamBody()}
+     */
     public final String body;
     public final Map<String, String> headers;
     public final Map<String, String> cookies;
     public final String IP;
+    public final RequestBody requestBody;
+    private final JsonCodec jsonCodec;
+    private final FormOptions formOptions;
 
+    /**
+     * @return the JSON body as a map, null for requests other than POST and bodies that are not valid JSON
+     * @throws IOException if the body could not be read, e.g. over the size limit (answered with 413) or too slow (408)
+     */
     @SuppressWarnings("unchecked")
-    public Map<String, Object> toJson() {
-        if(method != HttpMethod.POST || body == null || body.isBlank()) return null;
+    public Map<String, Object> toJson() throws IOException {
+        if(method != HttpMethod.POST) return null;
 
         try {
-            return new Gson().fromJson(body, Map.class);
-        } catch (JsonSyntaxException e) {
+            return bodyAs(Map.class);
+        } catch (JsonParseException e) {
             return null;
         }
     }
+
+    /**
+     * Deserialises the JSON body while it is read, without decoding it into a String first
+     * @return the body or null if it is empty
+     * @throws JsonParseException if the body is not valid JSON of the type
+     */
+    public <T> T bodyAs(Class<T> type) throws IOException {
+        return bodyAs((Type) type);
+    }
+
+    /**
+     * @param type Type of the body, use {@link com.google.gson.reflect.TypeToken} for generic types
+     * @see #bodyAs(Class)
+     */
+    public <T> T bodyAs(Type type) throws IOException {
+        return jsonCodec.read(requestBody.stream(), type);
+    }
+
+    /**
+     * Parses an application/x-www-form-urlencoded or multipart/form-data body, bodies of other types give an empty form.
+     * Multipart bodies are parsed while they are read, file parts over the memory threshold of the {@link FormOptions}
+     * go to temporary files which are deleted once the request is complete. Mark upload routes with {@link Route#streamBody()},
+     * so the body is not read into memory before
+     * @throws MalformedFormException if the body does not match its content type, answered with 400
+     * @throws PayloadTooLargeException if the form is over the limits of the {@link FormOptions}, answered with 413
+     */
+    public Form form() throws IOException {
+        if(requestBody.form != null) return requestBody.form;
+
+        String contentType = headers.get("Content-Type");
+        String mimeType = contentType == null ? "" : contentType.split(";", 2)[0].trim().toLowerCase(Locale.ROOT);
+        Form form = switch(mimeType) {
+            // Only ASCII is allowed in the body, everything else is percent encoded
+            case "application/x-www-form-urlencoded" -> Form.parseUrlEncoded(new String(requestBody.bytes(), StandardCharsets.ISO_8859_1));
+            case "multipart/form-data" -> new MultipartParser(requestBody.stream(), MultipartParser.boundary(contentType), formOptions).parse();
+            default -> new Form();
+        };
+        requestBody.form = form;
+        return form;
+    }
+
+    /**
+     * @return first value of every field of the form body
+     * @see #form()
+     */
+    public Map<String, String> formParams() throws IOException {
+        return form().getFields();
+    }
+
+    /**
+     * Deletes the temporary files of uploaded form parts that were not moved, called by the server once the request is complete
+     */
+    public void deleteUploads() {
+        if(requestBody.form != null) requestBody.form.deleteFiles();
+    }
 }
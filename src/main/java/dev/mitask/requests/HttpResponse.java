@@ -1,20 +1,39 @@
 package dev.mitask.requests;
 
-import com.google.gson.Gson;
 import gg.jte.TemplateEngine;
-import gg.jte.output.Utf8ByteOutput;
+import gg.jte.TemplateException;
+import dev.mitask.server.ChunkedOutputStream;
+import dev.mitask.server.CompressingOutputStream;
+import dev.mitask.server.FileTransferOutput;
+import dev.mitask.server.HeaderBlock;
+import dev.mitask.server.ResponseSink;
+import dev.mitask.util.BufferPool;
+import dev.mitask.util.ContentEncoding;
+import dev.mitask.util.HttpDate;
 import dev.mitask.util.HttpStatusCode;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * This class is used to send response to the user.
@@ -23,17 +42,49 @@ import java.util.Map;
  */
 @SuppressWarnings("unused")
 public class HttpResponse {
-    private final BufferedWriter out;
-    private final OutputStream rawOut;
+    private static final int DEFAULT_STREAM_BUFFER_SIZE = 8 * 1024;
+    // Heuristically cacheable status codes of RFC 9110
+    private static final Set<Integer> CACHEABLE_STATUS_CODES = Set.of(200, 203, 204, 300, 301, 308, 404, 405, 410, 414, 501);
+    private static final AtomicIntegerFieldUpdater<HttpResponse> STATE = AtomicIntegerFieldUpdater.newUpdater(HttpResponse.class, "state");
+    private static final int OPEN = 0, COMMITTED = 1, ABANDONED = 2;
+
+    private final OutputStream out;
     private final TemplateEngine templateEngine;
-    private final List<String> headers = new LinkedList<>();
+    private final boolean http11;
+    private final CompressionOptions compression;
+    private final ContentEncoding acceptedEncoding;
+    private final JsonCodec json;
+    // Names and values alternate
+    private final List<String> headers = new ArrayList<>();
     private final Map<String, Object> cookies = new LinkedHashMap<>();
     private int statusCode = 200;
+    // Changed atomically, the server may answer an asynchronous request in place of its handler while the handler still runs
+    private volatile int state;
+    private boolean closeDelimited;
+    private CompletionStage<?> completion;
+    private OutputStream bodyStream;
+    private Writer bodyWriter;
+    // Position in the middleware chain, see Middleware#next
+    int middlewareIndex;
+
+    public HttpResponse(OutputStream out, TemplateEngine templateEngine) {
+        this(out, templateEngine, true, null, null, JsonCodec.DEFAULT);
+    }
 
-    public HttpResponse(BufferedWriter out, OutputStream rawOut, TemplateEngine templateEngine) {
+    /**
+     * @param out Connection output, status line, headers and small bodies are written to it in a single write
+     * @param http11 Whether the client understands <code>Transfer-Encoding: chunked</code>
+     * @param compression Compression settings, null disables compression
+     * @param acceptedEncoding Coding negotiated from the Accept-Encoding header of the request, null if the client accepts none
+     * @param json Codec used by {@link #sendJson(Object)}
+     */
+    public HttpResponse(OutputStream out, TemplateEngine templateEngine, boolean http11, CompressionOptions compression, ContentEncoding acceptedEncoding, JsonCodec json) {
         this.out = out;
-        this.rawOut = rawOut;
         this.templateEngine = templateEngine;
+        this.http11 = http11;
+        this.compression = compression;
+        this.acceptedEncoding = acceptedEncoding;
+        this.json = json;
     }
 
     /**
@@ -44,13 +95,21 @@ public class HttpResponse {
         this.statusCode = statusCode;
     }
 
+    /**
+     * @return status of the response, 200 unless changed
+     */
+    public int getStatus() {
+        return statusCode;
+    }
+
     /**
      * Adds a header to the response
      * @param key Header key
      * @param value Header value
      */
     public void addHeader(String key, Object value) {
-        headers.add(key + ": " + value);
+        headers.add(key);
+        headers.add(String.valueOf(value));
     }
 
     /**
@@ -63,74 +122,384 @@ public class HttpResponse {
     }
 
     /**
-     * This is internal method to write all HTTP headers to the final response through BufferedWriter
+     * @return true if status line and headers were already written to the client
+     */
+    public boolean isCommitted() {
+        return state == COMMITTED;
+    }
+
+    /**
+     * Keeps the request open until the stage completes instead of until the handler returns, see {@link Route.AsyncRouteHandler}.
+     * A middleware can replace the stage of an asynchronous handler with one depending on it to run after the handler finished
+     * @param completion Stage completing once the response was sent, null if it already was
+     */
+    public void suspend(CompletionStage<?> completion) {
+        this.completion = completion;
+    }
+
+    /**
+     * @return stage the request waits for, null if the response is complete once the handler returns
+     */
+    public CompletionStage<?> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * Keeps the handler from sending the response, so the server can answer in its place (504 after an asynchronous handler timed out).
+     * Sending it afterwards fails with an IOException
+     * @return false if the handler already started sending the response
+     */
+    public boolean abandon() {
+        return STATE.compareAndSet(this, OPEN, ABANDONED);
+    }
+
+    /**
+     * @return true if the end of the body is signalled by closing the connection (streamed responses to HTTP/1.0 clients)
      */
-    private void writeHeaders() throws IOException {
-        String statusMessage = HttpStatusCode.STATUS_CODES.getOrDefault(statusCode, "");
-        out.write("HTTP/1.1 " + statusCode + " " + statusMessage + "\r\n");
-        for (String header : headers) {
-            out.write(header + "\r\n");
+    public boolean isCloseDelimited() {
+        return closeDelimited;
+    }
+
+    boolean isHttp11() {
+        return http11;
+    }
+
+    ContentEncoding getAcceptedEncoding() {
+        return acceptedEncoding;
+    }
+
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * @return response with the same settings writing into the stream, without the headers and cookies of this one
+     */
+    HttpResponse capture(OutputStream out) {
+        return new HttpResponse(out, templateEngine, http11, compression, acceptedEncoding, json);
+    }
+
+    /**
+     * @return true if the sent response may be shared with other clients: a cacheable status, no cookies and no
+     * Cache-Control directive forbidding it
+     */
+    boolean isStorable() {
+        if(!isCommitted() || closeDelimited || !cookies.isEmpty() || !CACHEABLE_STATUS_CODES.contains(statusCode)) return false;
+
+        String cacheControl = findHeader("Cache-Control");
+        if(cacheControl == null) return true;
+
+        String directives = cacheControl.toLowerCase(Locale.ROOT);
+        return !directives.contains("no-store") && !directives.contains("private") && !directives.contains("no-cache");
+    }
+
+    /**
+     * Sends a response stored by {@link ResponseCache} together with the headers and cookies set on this response
+     * @param headers Encoded header lines of the stored response without Date
+     * @param age Seconds since the response was stored, 0 sends no Age header
+     */
+    void sendCached(int statusCode, byte[] headers, byte[] body, long age) throws IOException {
+        setStatus(statusCode);
+        HeaderBlock block = startHeaders().headers(headers);
+        if(age > 0) block.header("Age", Long.toString(age));
+        block.end().body(body, 0, body.length).send();
+    }
+
+    /**
+     * Encodes status line, headers and cookies into a pooled block without the empty line ending it.
+     * Nothing is written until {@link HeaderBlock#send()} is called
+     */
+    private HeaderBlock startHeaders() throws IOException {
+        if(state != COMMITTED && !STATE.compareAndSet(this, OPEN, COMMITTED)) throw new IOException("Response was abandoned after the request timed out!");
+        HeaderBlock block = new HeaderBlock(out).status(statusCode);
+        for (int i = 0; i < headers.size(); i += 2) {
+            block.header(headers.get(i), headers.get(i + 1));
         }
 
         for (Map.Entry<String, Object> cookie : cookies.entrySet()) {
-            out.write("Set-Cookie: " + cookie.getKey() + "=" + cookie.getValue() + "\r\n");
+            block.header("Set-Cookie", cookie.getKey() + "=" + cookie.getValue());
         }
-        out.write("\r\n");
+        return block;
+    }
+
+    /**
+     * Sends a response with headers that were already encoded, used for cached static files
+     * @param headerBlock Encoded header lines, each ending with CRLF
+     * @param body Body or null if the response has none
+     */
+    void sendEncoded(int statusCode, byte[] headerBlock, byte[] body) throws IOException {
+        HeaderBlock block = startEncoded(statusCode, headerBlock).end();
+        if(body != null) block.body(body, 0, body.length);
+        block.send();
     }
 
     /**
-     * This is internal method to write all HTTP headers to the final response through OutputStream
-     * (Used for Templates as they use UTF8ByteOutput from JTE)
+     * Sends a whole file with headers that were already encoded, used for static files too large to be cached
      */
-    private void writeRawHeaders() throws IOException {
-        String statusMessage = HttpStatusCode.STATUS_CODES.getOrDefault(statusCode, "");
-        rawOut.write(("HTTP/1.1 " + statusCode + " " + statusMessage + "\r\n").getBytes(StandardCharsets.UTF_8));
-        for (String header : headers) {
-            rawOut.write((header + "\r\n").getBytes(StandardCharsets.UTF_8));
+    void sendEncodedFile(byte[] headerBlock, Path file, long size) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            startHeaders().headers(headerBlock).end().send();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
         }
 
-        rawOut.write("\r\n".getBytes(StandardCharsets.UTF_8));
+        FileTransferOutput.transfer(channel, 0, size, out);
+    }
+
+    /**
+     * Sends a memory mapped static file with headers that were already encoded
+     */
+    void sendEncodedMapped(byte[] headerBlock, MappedFile file) throws IOException {
+        startEncoded(200, headerBlock).end().send();
+        file.write(out, 0, file.size());
+    }
+
+    /**
+     * Starts a response with headers that were already encoded. The caller adds the remaining headers,
+     * sends the block and writes the body to {@link #connectionOutput()}, see {@link ByteRanges}
+     */
+    HeaderBlock startEncoded(int statusCode, byte[] headerBlock) throws IOException {
+        setStatus(statusCode);
+        return startHeaders().headers(headerBlock);
+    }
+
+    OutputStream connectionOutput() {
+        return out;
+    }
+
+    /**
+     * Writes headers with the exact Content-Length of the body and then the body itself
+     */
+    private void sendBytes(String contentType, byte[] body) throws IOException {
+        sendBytes(contentType, body, body.length);
+    }
+
+    private void sendBytes(String contentType, byte[] body, int length) throws IOException {
+        ContentEncoding encoding = negotiateEncoding(contentType, length);
+        if(encoding != null) {
+            body = CompressingOutputStream.encode(body, 0, length, encoding, compression.getDeflaterPool());
+            length = body.length;
+            addHeader("Content-Encoding", encoding.getName());
+        }
+
+        addHeader("Content-Type", contentType);
+        addHeader("Content-Length", length);
+        startHeaders().end().body(body, 0, length).send();
     }
 
     public void sendText(String text) throws IOException {
-        addHeader("Content-Type", "text/plain");
-        addHeader("Content-Length", text.length());
-        writeHeaders();
-        out.write(text);
+        sendBytes("text/plain; charset=utf-8", text.getBytes(StandardCharsets.UTF_8));
     }
 
     public void sendCustom(int httpCode, String contentType, String data) throws IOException {
         setStatus(httpCode);
-        addHeader("Content-Type", contentType);
-        addHeader("Content-Length", data.length());
-        writeHeaders();
-        out.write(data);
+        sendBytes(contentType, data.getBytes(StandardCharsets.UTF_8));
     }
 
+    /**
+     * Serialises the data with the JSON codec of the server straight into a pooled buffer.
+     * JSON larger than the buffer is not buffered any further but sent as a streamed response, see {@link #stream()}
+     */
     public void sendJson(Object data) throws IOException {
-        String json = new Gson().toJson(data);
         setStatus(200);
-        addHeader("Content-Type", "application/json");
-        addHeader("Content-Length", json.length());
-        writeHeaders();
-        out.write(json);
+
+        ByteBuffer buffer = BufferPool.DEFAULT.acquire();
+        try {
+            SpillingOutputStream body = new SpillingOutputStream(buffer.array(), () -> {
+                addHeader("Content-Type", "application/json");
+                return stream();
+            });
+            json.write(data, body);
+
+            if(body.spilled != null) body.spilled.close();
+            else sendBytes("application/json", buffer.array(), body.count);
+        } finally {
+            BufferPool.DEFAULT.release(buffer);
+        }
+    }
+
+    /**
+     * Starts a streamed response with a buffer of 8 KiB, see {@link #stream(int)}
+     */
+    public OutputStream stream() throws IOException {
+        return stream(DEFAULT_STREAM_BUFFER_SIZE);
+    }
+
+    /**
+     * Starts a streamed response. Status and headers have to be set before, they are sent right away.
+     * The body is sent with <code>Transfer-Encoding: chunked</code> whenever the buffer fills up or the stream is flushed,
+     * so the size of the response does not have to be known and it never has to be kept in memory.
+     * HTTP/1.0 clients get the body as-is and the connection is closed afterwards.
+     * Outputs framing the body themselves ({@link ResponseSink}, HTTP/2) get it as-is too.
+     * Closing the stream completes the response, streams left open are completed once the handler returns.
+     * @param bufferSize Amount of bytes collected before they are sent to the client. 0 uses the default of 8 KiB
+     */
+    public OutputStream stream(int bufferSize) throws IOException {
+        if(isCommitted()) throw new IllegalStateException("Response was already sent!");
+        if(bufferSize < 0) throw new IllegalArgumentException("Buffer size can not be negative!");
+        if(bufferSize == 0) bufferSize = DEFAULT_STREAM_BUFFER_SIZE;
+
+        ContentEncoding encoding = negotiateEncoding(findHeader("Content-Type"), -1);
+        if(encoding != null) addHeader("Content-Encoding", encoding.getName());
+
+        if(out instanceof ResponseSink) {
+            bodyStream = new BufferedOutputStream(out, bufferSize) {
+                @Override
+                public void close() throws IOException {
+                    // The body is ended by the sink once the handler returns
+                    flush();
+                }
+            };
+        } else if(http11) {
+            addHeader("Transfer-Encoding", "chunked");
+            bodyStream = new ChunkedOutputStream(out, bufferSize);
+        } else {
+            removeHeader("Connection");
+            addHeader("Connection", "close");
+            closeDelimited = true;
+            bodyStream = new BufferedOutputStream(out, bufferSize) {
+                @Override
+                public void close() throws IOException {
+                    // The connection is closed by the server once the handler returns
+                    flush();
+                }
+            };
+        }
+
+        // Sent right away, so the client gets the head before the first chunk is complete
+        startHeaders().end().send();
+        out.flush();
+
+        if(encoding != null) bodyStream = new CompressingOutputStream(bodyStream, encoding, compression.getDeflaterPool());
+        return bodyStream;
+    }
+
+    /**
+     * Decides whether a body is compressed. Adds "Vary: Accept-Encoding" for every compressible content type,
+     * so caches keep the compressed and the uncompressed variant apart.
+     * @param length Length of the uncompressed body, -1 if it is unknown
+     * @return coding to compress the body with, null if it is sent as-is
+     */
+    private ContentEncoding negotiateEncoding(String contentType, long length) {
+        if(compression == null || !compression.isCompressible(contentType) || findHeader("Content-Encoding") != null) return null;
+
+        addHeader("Vary", "Accept-Encoding");
+        if(length != -1 && length < compression.getMinSize()) return null;
+        return acceptedEncoding;
+    }
+
+    /**
+     * @return value of the first header with the name (ignoring case), null if none was added
+     */
+    private String findHeader(String name) {
+        for(int i = 0; i < headers.size(); i += 2) {
+            if(headers.get(i).equalsIgnoreCase(name)) return headers.get(i + 1);
+        }
+        return null;
+    }
+
+    private void removeHeader(String name) {
+        for(int i = headers.size() - 2; i >= 0; i -= 2) {
+            if(headers.get(i).equalsIgnoreCase(name)) {
+                headers.remove(i + 1);
+                headers.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Starts a streamed response written as UTF-8 text, see {@link #stream(int)}
+     */
+    public Writer writer() throws IOException {
+        return writer(DEFAULT_STREAM_BUFFER_SIZE);
+    }
+
+    public Writer writer(int bufferSize) throws IOException {
+        bodyWriter = new OutputStreamWriter(stream(bufferSize), StandardCharsets.UTF_8);
+        return bodyWriter;
+    }
+
+    /**
+     * Completes a streamed response that was not closed by the handler. Does nothing for other responses
+     */
+    public void finishStream() throws IOException {
+        // The writer keeps encoded characters of its own which have to reach the stream first
+        if(bodyWriter != null) bodyWriter.close();
+        else if(bodyStream != null) bodyStream.close();
     }
 
+    /**
+     * Sends the file as-is. The content is streamed to the client (using sendfile where possible)
+     * instead of being loaded into memory, so it works for binary and large files.
+     * @param filePath Path to the file
+     */
     public void sendFile(String filePath) throws IOException {
         Path file = Path.of(filePath);
         if (Files.exists(file)) {
             String contentType = Files.probeContentType(file);
-            byte[] content = Files.readAllBytes(file);
-            addHeader("Content-Type", contentType);
-            addHeader("Content-Length", content.length);
-            writeHeaders();
-            out.write(new String(content, StandardCharsets.UTF_8));
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            long size;
+            try {
+                size = channel.size();
+                addHeader("Content-Type", contentType == null ? "application/octet-stream" : contentType);
+                addHeader("Content-Length", size);
+                startHeaders().end().send();
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+
+            FileTransferOutput.transfer(channel, 0, size, out);
         } else {
             setStatus(404);
             sendText("Not Found");
         }
     }
 
+    /**
+     * Sends the file like {@link #sendFile(String)}, but answers Range requests of the client with 206 Partial Content.
+     * Accept-Ranges, ETag and Last-Modified are sent with the file, so clients can resume downloads and seek in media with If-Range
+     * @param filePath Path to the file
+     * @param request Request the Range and If-Range headers are read from
+     */
+    public void sendFile(String filePath, HttpRequest request) throws IOException {
+        Path file = Path.of(filePath);
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            attributes = null;
+        }
+        if (attributes == null || !attributes.isRegularFile()) {
+            setStatus(404);
+            sendText("Not Found");
+            return;
+        }
+
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        String etag = StaticFileCache.etag(lastModified, size);
+        String contentType = Files.probeContentType(file);
+        if (contentType == null) contentType = "application/octet-stream";
+        String validators = "Accept-Ranges: bytes\r\nETag: " + etag + "\r\nLast-Modified: " + HttpDate.format(lastModified) + "\r\n";
+
+        long[] ranges = ByteRanges.requested(request, size, etag, lastModified);
+        if (ranges == null) {
+            String headers = "Content-Type: " + contentType + "\r\nContent-Length: " + size + "\r\n" + validators;
+            sendEncodedFile(headers.getBytes(StandardCharsets.ISO_8859_1), file, size);
+        } else if (ranges.length == 0) {
+            ByteRanges.sendUnsatisfiable(this, validators.getBytes(StandardCharsets.ISO_8859_1), size);
+        } else {
+            ByteRanges.send(this, validators.getBytes(StandardCharsets.ISO_8859_1), contentType, size, ranges, (output, position, count) -> FileTransferOutput.transfer(FileChannel.open(file, StandardOpenOption.READ), position, count, output));
+        }
+    }
+
+    /**
+     * Renders the template straight into a pooled buffer and sends it with its exact Content-Length.
+     * Pages larger than the buffer are not buffered any further but sent as a streamed response, see {@link #stream()}
+     */
     public void sendTemplate(String templateName, Map<String, Object> parameters) throws IOException {
         if(templateEngine == null) {
             setStatus(500);
@@ -144,18 +513,77 @@ public class HttpResponse {
             return;
         }
 
-        Utf8ByteOutput output = new Utf8ByteOutput();
-        templateEngine.render(templateName, parameters, output);
-        addHeader("Content-Type", "text/html");
-        addHeader("Content-Length", output.getContentLength());
-        writeRawHeaders();
+        ByteBuffer buffer = BufferPool.DEFAULT.acquire();
+        try {
+            SpillingOutputStream body = new SpillingOutputStream(buffer.array(), () -> {
+                addHeader("Content-Type", "text/html");
+                return stream();
+            });
+            StreamTemplateOutput output = new StreamTemplateOutput(body);
+            try {
+                templateEngine.render(templateName, parameters, output);
+                output.drain();
+            } catch (TemplateException e) {
+                // Failed writes to the client are reported by jte as a rendering failure
+                if(e.getCause() instanceof UncheckedIOException io) throw io.getCause();
+                throw e;
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
 
-        rawOut.write(output.toByteArray());
-        rawOut.flush();
+            if(body.spilled != null) body.spilled.close();
+            else sendBytes("text/html", buffer.array(), body.count);
+        } finally {
+            BufferPool.DEFAULT.release(buffer);
+        }
     }
 
     public void redirect(String url) throws IOException {
         addHeader("Location", url);
         sendCustom(302, "", "");
     }
-}
\ No newline at end of file
+
+    @FunctionalInterface
+    private interface StreamStarter {
+        OutputStream start() throws IOException;
+    }
+
+    /**
+     * Collects bytes in a fixed array and switches to a stream started on overflow once they do not fit
+     */
+    private static final class SpillingOutputStream extends OutputStream {
+        private final byte[] buffer;
+        private final StreamStarter starter;
+        private OutputStream spilled;
+        private int count;
+
+        SpillingOutputStream(byte[] buffer, StreamStarter starter) {
+            this.buffer = buffer;
+            this.starter = starter;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if(spilled == null && count < buffer.length) buffer[count++] = (byte) b;
+            else spill().write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if(spilled == null && length <= buffer.length - count) {
+                System.arraycopy(bytes, offset, buffer, count, length);
+                count += length;
+            } else {
+                spill().write(bytes, offset, length);
+            }
+        }
+
+        private OutputStream spill() throws IOException {
+            if(spilled == null) {
+                spilled = starter.start();
+                spilled.write(buffer, 0, count);
+            }
+            return spilled;
+        }
+    }
+}
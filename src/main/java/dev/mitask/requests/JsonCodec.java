@@ -0,0 +1,73 @@
+package dev.mitask.requests;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JSON serialisation of request and response bodies. One instance is shared by the whole server,
+ * so the type adapters Gson builds by reflection are created once instead of per request.
+ * @since 1.0.0
+ * @author MiTask
+ */
+public final class JsonCodec {
+    public static final JsonCodec DEFAULT = new JsonCodec(new Gson());
+
+    private final Gson gson;
+
+    public JsonCodec(Gson gson) {
+        this.gson = gson;
+    }
+
+    public Gson getGson() {
+        return gson;
+    }
+
+    /**
+     * Serialises the value as UTF-8 straight into the stream. The stream is not closed
+     */
+    public void write(Object value, OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        JsonWriter jsonWriter = gson.newJsonWriter(writer);
+        if(value == null) gson.toJson(JsonNull.INSTANCE, jsonWriter);
+        else gson.toJson(value, value.getClass(), jsonWriter);
+        jsonWriter.flush();
+    }
+
+    /**
+     * Deserialises UTF-8 JSON while reading the stream, the whole stream has to be a single JSON value
+     * @return the value or null if the stream is empty
+     * @throws com.google.gson.JsonParseException if the JSON is malformed or does not match the type
+     * @throws IOException if reading the stream failed, e.g. a body over the size limit
+     */
+    public <T> T read(InputStream in, Type type) throws IOException {
+        JsonReader reader = gson.newJsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        try {
+            T value = gson.fromJson(reader, type);
+            // Like fromJson(String), content after the value ("{}garbage") makes the document invalid
+            if(value != null && reader.peek() != JsonToken.END_DOCUMENT) throw new JsonSyntaxException("JSON document was not fully consumed");
+            return value;
+        } catch(MalformedJsonException | EOFException e) {
+            throw new JsonSyntaxException(e);
+        } catch(JsonIOException | JsonSyntaxException e) {
+            // Gson wraps failures of the stream, which the server answers with their own status (413, 408)
+            if(e.getCause() instanceof IOException cause && !(cause instanceof MalformedJsonException) && !(cause instanceof EOFException)) throw cause;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package dev.mitask.requests;
+
+import java.io.IOException;
+
+/**
+ * Thrown while parsing a form body which does not match its content type, answered with 400
+ * @since 1.0.0
+ * @author MiTask
+ */
+public class MalformedFormException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public MalformedFormException(String message) {
+        super(message);
+    }
+}
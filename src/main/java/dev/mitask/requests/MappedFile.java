@@ -0,0 +1,57 @@
+package dev.mitask.requests;
+
+import dev.mitask.server.FileTransferOutput;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only memory mapping of a large static file, shared by all requests for it. Slices of the mapping are written
+ * straight from the page cache, so requests neither open the file nor read it into buffers.
+ * A mapped buffer is limited to 2 GiB, larger files are mapped in several regions.
+ * The mapping is released by the garbage collector once no cache entry and no queued write refers to it anymore.
+ */
+final class MappedFile {
+    private static final long REGION_SIZE = 1L << 30;
+
+    private final MappedByteBuffer[] regions;
+    private final long size;
+
+    private MappedFile(MappedByteBuffer[] regions, long size) {
+        this.regions = regions;
+        this.size = size;
+    }
+
+    static MappedFile map(Path path, long size) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer[] regions = new MappedByteBuffer[(int) ((size + REGION_SIZE - 1) / REGION_SIZE)];
+            for(int i = 0; i < regions.length; i++) {
+                long position = i * REGION_SIZE;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(REGION_SIZE, size - position));
+            }
+            return new MappedFile(regions, size);
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * Writes part of the file. Every write gets slices of its own, the shared regions are never moved
+     */
+    void write(OutputStream out, long position, long count) throws IOException {
+        while(count > 0) {
+            int offset = (int) (position % REGION_SIZE);
+            int length = (int) Math.min(count, REGION_SIZE - offset);
+            FileTransferOutput.transfer(regions[(int) (position / REGION_SIZE)].slice(offset, length), out);
+
+            position += length;
+            count -= length;
+        }
+    }
+}
@@ -1,23 +1,37 @@
 package dev.mitask.requests;
 
 import java.io.IOException;
-import java.util.Iterator;
 import java.util.List;
 
+/**
+ * Middleware chain of a route. Chains are built once when the server starts and shared by all requests,
+ * the position of a request in the chain is kept in its {@link HttpResponse}.
+ * For asynchronous routes {@link #next(HttpRequest, HttpResponse)} returns before the response was sent,
+ * work after it is chained to {@link HttpResponse#getCompletion()} and handed back with {@link HttpResponse#suspend}.
+ */
 public class Middleware {
-    private final Iterator<MiddlewareHandler> iterator;
+    private static final MiddlewareHandler[] EMPTY = new MiddlewareHandler[0];
+
+    private final MiddlewareHandler[] handlers;
     private final Route.RouteHandler finalHandler;
 
     public Middleware(List<MiddlewareHandler> middlewares, Route.RouteHandler finalHandler) {
-        this.iterator = middlewares.iterator();
+        this(middlewares.toArray(EMPTY), finalHandler);
+    }
+
+    Middleware(MiddlewareHandler[] handlers, Route.RouteHandler finalHandler) {
+        this.handlers = handlers;
         this.finalHandler = finalHandler;
     }
 
+    /**
+     * Runs the next middleware or, after the last one, the route handler. Calls past the route handler do nothing
+     */
     public void next(HttpRequest req, HttpResponse res) throws IOException {
-        if (iterator.hasNext()) {
-            MiddlewareHandler current = iterator.next();
-            current.handle(req, res, this);
-        } else {
+        int index = res.middlewareIndex++;
+        if (index < handlers.length) {
+            handlers[index].handle(req, res, this);
+        } else if (index == handlers.length) {
             finalHandler.handle(req, res);
         }
     }
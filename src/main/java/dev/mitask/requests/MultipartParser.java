@@ -0,0 +1,329 @@
+package dev.mitask.requests;
+
+import dev.mitask.server.PayloadTooLargeException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Streaming parser of multipart/form-data bodies (RFC 7578). The body is read through a fixed buffer and scanned for the
+ * boundary with Boyer-Moore-Horspool, so each part is copied to memory or a temporary file while it arrives
+ * and the body is never held as a whole.
+ */
+final class MultipartParser {
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_HEADER_SIZE = 8 * 1024;
+
+    private final InputStream in;
+    private final FormOptions options;
+    // CRLF "--" boundary, the line break before the boundary belongs to the delimiter and not to the part
+    private final byte[] delimiter;
+    private final int[] skip = new int[256];
+    private final byte[] buffer;
+    private int position, limit;
+    private long totalSize;
+    // Part being read, its temporary file is not owned by the form yet
+    private PartContent current;
+
+    /**
+     * @param boundary Boundary parameter of the Content-Type header
+     */
+    MultipartParser(InputStream in, String boundary, FormOptions options) {
+        this.in = in;
+        this.options = options;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.buffer = new byte[Math.max(BUFFER_SIZE, delimiter.length * 2)];
+
+        Arrays.fill(skip, delimiter.length);
+        for(int i = 0; i < delimiter.length - 1; i++) {
+            skip[delimiter[i] & 0xFF] = delimiter.length - 1 - i;
+        }
+
+        // The first boundary usually starts the body without a line break, assuming one before it makes every delimiter look alike
+        buffer[0] = '\r';
+        buffer[1] = '\n';
+        limit = 2;
+    }
+
+    /**
+     * @return the boundary parameter of a multipart Content-Type header
+     */
+    static String boundary(String contentType) throws MalformedFormException {
+        for(String parameter : contentType.split(";")) {
+            int equals = parameter.indexOf('=');
+            if(equals == -1 || !parameter.substring(0, equals).trim().equalsIgnoreCase("boundary")) continue;
+
+            String boundary = unquote(parameter.substring(equals + 1).trim());
+            if(boundary.isEmpty() || boundary.length() > 70) break;
+            return boundary;
+        }
+        throw new MalformedFormException("Multipart body without a valid boundary");
+    }
+
+    Form parse() throws IOException {
+        Form form = new Form();
+        try {
+            // Preamble
+            copyUntilDelimiter(null, null);
+
+            int parts = 0;
+            while(!isCloseDelimiter()) {
+                if(++parts > options.getMaxParts()) throw new PayloadTooLargeException("Form has more than " + options.getMaxParts() + " parts");
+                readPart(form);
+            }
+            // The epilogue after the closing delimiter is left unread, the server discards it
+        } catch(IOException | RuntimeException e) {
+            form.deleteFiles();
+            if(current != null) current.discard();
+            throw e;
+        }
+        return form;
+    }
+
+    private void readPart(Form form) throws IOException {
+        Map<String, String> headers = readHeaders();
+        Map<String, String> disposition = parseDisposition(headers.get("content-disposition"));
+        String name = disposition.get("name");
+        if(name == null) throw new MalformedFormException("Form part without a name");
+
+        String fileName = disposition.containsKey("filename*") ? decodeExtended(disposition.get("filename*")) : disposition.get("filename");
+        PartContent content = current = new PartContent(name, fileName != null);
+        copyUntilDelimiter(content, name);
+
+        if(fileName == null) {
+            form.addField(name, content.memory.toString(StandardCharsets.UTF_8));
+        } else {
+            content.close();
+            byte[] bytes = content.memory == null ? null : content.memory.toByteArray();
+            form.addFile(new FormPart(name, fileName, headers.get("content-type"), bytes, content.file, content.size));
+        }
+        current = null;
+    }
+
+    /**
+     * Copies everything up to the next delimiter into the part content and skips the delimiter
+     * @param content Content of the current part, null to discard the bytes
+     */
+    private void copyUntilDelimiter(PartContent content, String name) throws IOException {
+        while(true) {
+            int found = indexOfDelimiter();
+            if(found != -1) {
+                if(content != null) content.write(buffer, position, found - position);
+                position = found + delimiter.length;
+                return;
+            }
+
+            // Only the tail could still be the beginning of a delimiter
+            int safe = Math.max(position, limit - delimiter.length + 1);
+            if(content != null) content.write(buffer, position, safe - position);
+            position = safe;
+            if(!fill()) throw new MalformedFormException(name == null ? "Multipart body without a boundary" : "Multipart body ended inside of part " + name);
+        }
+    }
+
+    private int indexOfDelimiter() {
+        int last = delimiter.length - 1;
+        int offset = position;
+        while(offset + last < limit) {
+            int i = last;
+            while(buffer[offset + i] == delimiter[i]) {
+                if(i == 0) return offset;
+                i--;
+            }
+            offset += skip[buffer[offset + last] & 0xFF];
+        }
+        return -1;
+    }
+
+    /**
+     * Reads what follows a delimiter: "--" for the last one, otherwise optional whitespace and the line break before the part headers
+     */
+    private boolean isCloseDelimiter() throws IOException {
+        require(2);
+        if(buffer[position] == '-' && buffer[position + 1] == '-') return true;
+
+        if(!readLine().isBlank()) throw new MalformedFormException("Unexpected data after a multipart boundary");
+        return false;
+    }
+
+    /**
+     * @return headers of a part with lower case names
+     */
+    private Map<String, String> readHeaders() throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        int headerSize = 0;
+        String line;
+        while(!(line = readLine()).isEmpty()) {
+            headerSize += line.length();
+            if(headerSize > MAX_HEADER_SIZE) throw new MalformedFormException("Form part headers are larger than " + MAX_HEADER_SIZE + " bytes");
+
+            int colon = line.indexOf(':');
+            if(colon <= 0) throw new MalformedFormException("Invalid form part header");
+            headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+        }
+        return headers;
+    }
+
+    /**
+     * @return line up to a line break without it, decoded as UTF-8 since browsers send file names that way
+     */
+    private String readLine() throws IOException {
+        int scanned = position;
+        while(true) {
+            for(int i = scanned; i < limit; i++) {
+                if(buffer[i] != '\n') continue;
+
+                int end = i > position && buffer[i - 1] == '\r' ? i - 1 : i;
+                String line = new String(buffer, position, end - position, StandardCharsets.UTF_8);
+                position = i + 1;
+                return line;
+            }
+
+            if(limit - position >= MAX_HEADER_SIZE) throw new MalformedFormException("Form part header line is larger than " + MAX_HEADER_SIZE + " bytes");
+            scanned = limit - position;
+            if(!fill()) throw new MalformedFormException("Multipart body ended inside of part headers");
+            scanned += position;
+        }
+    }
+
+    private void require(int bytes) throws IOException {
+        while(limit - position < bytes) {
+            if(!fill()) throw new MalformedFormException("Multipart body ended without a closing boundary");
+        }
+    }
+
+    /**
+     * Moves the unread bytes to the start of the buffer and reads more after them
+     * @return false at the end of the body
+     */
+    private boolean fill() throws IOException {
+        if(position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if(read == -1) return false;
+        limit += read;
+        return true;
+    }
+
+    /**
+     * Parses form-data; name="field"; filename="a.txt" into its parameters with lower case names
+     */
+    private static Map<String, String> parseDisposition(String header) throws MalformedFormException {
+        if(header == null) throw new MalformedFormException("Form part without Content-Disposition");
+
+        Map<String, String> parameters = new HashMap<>();
+        int start = header.indexOf(';');
+        while(start != -1 && start < header.length()) {
+            int equals = header.indexOf('=', start);
+            if(equals == -1) break;
+
+            String name = header.substring(start + 1, equals).trim().toLowerCase(Locale.ROOT);
+            int end;
+            String value;
+            if(equals + 1 < header.length() && header.charAt(equals + 1) == '"') {
+                // Quoted values may contain ';', only escaped quotes do not end them
+                StringBuilder quoted = new StringBuilder();
+                end = equals + 2;
+                while(end < header.length() && header.charAt(end) != '"') {
+                    if(header.charAt(end) == '\\' && end + 1 < header.length()) end++;
+                    quoted.append(header.charAt(end++));
+                }
+                value = quoted.toString();
+                end = header.indexOf(';', end);
+            } else {
+                end = header.indexOf(';', equals);
+                value = header.substring(equals + 1, end == -1 ? header.length() : end).trim();
+            }
+
+            parameters.put(name, value);
+            start = end;
+        }
+        return parameters;
+    }
+
+    /**
+     * Decodes an RFC 5987 value (UTF-8''file%20name.txt)
+     */
+    private static String decodeExtended(String value) throws MalformedFormException {
+        int quote = value.indexOf("''");
+        if(quote == -1) throw new MalformedFormException("Invalid extended file name");
+
+        try {
+            return URLDecoder.decode(value.substring(quote + 2).replace("+", "%2B"), StandardCharsets.UTF_8);
+        } catch(IllegalArgumentException e) {
+            throw new MalformedFormException("Invalid extended file name");
+        }
+    }
+
+    private static String unquote(String value) {
+        return value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"") ? value.substring(1, value.length() - 1) : value;
+    }
+
+    /**
+     * Content of a part, kept in memory up to the threshold and continued in a temporary file for file parts
+     */
+    private final class PartContent {
+        private final String name;
+        private final boolean isFile;
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private Path file;
+        private OutputStream fileOut;
+        private long size;
+
+        PartContent(String name, boolean isFile) {
+            this.name = name;
+            this.isFile = isFile;
+        }
+
+        void write(byte[] bytes, int offset, int length) throws IOException {
+            if(length == 0) return;
+
+            size += length;
+            totalSize += length;
+            if(options.getMaxPartSize() > 0 && size > options.getMaxPartSize()) {
+                throw new PayloadTooLargeException("Form part " + name + " is larger than " + options.getMaxPartSize() + " bytes");
+            }
+            if(options.getMaxTotalSize() > 0 && totalSize > options.getMaxTotalSize()) {
+                throw new PayloadTooLargeException("Form is larger than " + options.getMaxTotalSize() + " bytes");
+            }
+
+            if(fileOut == null && size > options.getMemoryThreshold()) {
+                if(!isFile) throw new PayloadTooLargeException("Form field " + name + " is larger than " + options.getMemoryThreshold() + " bytes");
+
+                Path directory = options.getTempDirectory();
+                file = directory == null ? Files.createTempFile("kizuna-upload-", ".tmp") : Files.createTempFile(directory, "kizuna-upload-", ".tmp");
+                fileOut = Files.newOutputStream(file);
+                memory.writeTo(fileOut);
+                memory = null;
+            }
+
+            if(fileOut != null) fileOut.write(bytes, offset, length);
+            else memory.write(bytes, offset, length);
+        }
+
+        void close() throws IOException {
+            if(fileOut != null) fileOut.close();
+        }
+
+        void discard() {
+            try {
+                close();
+                if(file != null) Files.deleteIfExists(file);
+            } catch(IOException ignored) {}
+        }
+    }
+}
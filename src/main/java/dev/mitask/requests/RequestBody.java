@@ -0,0 +1,60 @@
+package dev.mitask.requests;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Body of a request. Routes marked with {@link Route#streamBody()} get the body straight from the connection,
+ * all other routes get it already read into memory.
+ * @since 1.0.0
+ * @author MiTask
+ */
+public final class RequestBody {
+    private final InputStream stream;
+    private byte[] bytes;
+    // Parsed by HttpRequest#form, null until then
+    Form form;
+
+    public RequestBody(byte[] bytes) {
+        this.stream = null;
+        this.bytes = bytes;
+    }
+
+    public RequestBody(InputStream stream) {
+        this.stream = stream;
+    }
+
+    /**
+     * @return whether the body is read from the connection instead of memory
+     */
+    public boolean isStreaming() {
+        return bytes == null;
+    }
+
+    /**
+     * Streamed bodies can only be read once, reading them also counts against the maximum body size of the route
+     */
+    public InputStream stream() {
+        return bytes != null ? new ByteArrayInputStream(bytes) : stream;
+    }
+
+    public ReadableByteChannel channel() {
+        return Channels.newChannel(stream());
+    }
+
+    /**
+     * Reads the whole body into memory, later calls return the same array
+     */
+    public byte[] bytes() throws IOException {
+        if(bytes == null) bytes = stream.readAllBytes();
+        return bytes;
+    }
+
+    public String text() throws IOException {
+        return new String(bytes(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,227 @@
+package dev.mitask.requests;
+
+import dev.mitask.server.ResponseSink;
+import dev.mitask.util.HttpMethod;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Byte bounded LRU cache of complete responses of a single route, see {@link CacheOptions}.
+ * The handler writes into a buffer instead of the connection, its status, headers and unframed body are stored and
+ * every request for the same key within the ttl is answered from those bytes. Concurrent misses of a key are
+ * coalesced, only the first request runs the handler and the others wait for its response up to the load timeout.
+ */
+final class ResponseCache implements Route.RouteHandler {
+    private static final long ENTRY_OVERHEAD = 256;
+
+    private final Route.RouteHandler handler;
+    private final CacheOptions options;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Responses currently produced by a handler, completed with null if the response can not be stored
+    private final Map<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+    private long size;
+
+    ResponseCache(Route.RouteHandler handler, CacheOptions options) {
+        this.handler = handler;
+        this.options = options;
+    }
+
+    @Override
+    public void handle(HttpRequest request, HttpResponse response) throws IOException {
+        if(!isCacheable(request, response)) {
+            handler.handle(request, response);
+            return;
+        }
+
+        String key = key(request, response);
+        if(sendStored(key, request, response)) return;
+
+        CompletableFuture<Entry> future = new CompletableFuture<>();
+        CompletableFuture<Entry> running = loading.putIfAbsent(key, future);
+        if(running != null) {
+            Entry entry;
+            try {
+                entry = running.get(options.getLoadTimeout(), TimeUnit.MILLISECONDS);
+            } catch(TimeoutException e) {
+                // A hanging handler would otherwise hold a worker for every request waiting for it
+                response.addHeader("Retry-After", "1");
+                response.sendCustom(503, "text/plain", "Service Unavailable");
+                return;
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a cached response", e);
+            } catch(ExecutionException e) {
+                entry = null;
+            }
+
+            if(entry != null) response.sendCached(entry.status, entry.headers, entry.body, 0);
+            else handler.handle(request, response);
+            return;
+        }
+
+        Captured captured = load(key, request, response, future);
+        response.sendCached(captured.status, captured.headers, captured.body, 0);
+    }
+
+    /**
+     * Sends a fresh or stale stored response for the request without running the handler.
+     * A stale response is revalidated by this request afterwards, after the response was flushed to the client
+     * @return false if nothing usable is stored, the request has to go through {@link #handle}
+     */
+    boolean sendStored(HttpRequest request, HttpResponse response) throws IOException {
+        return isCacheable(request, response) && sendStored(key(request, response), request, response);
+    }
+
+    private boolean sendStored(String key, HttpRequest request, HttpResponse response) throws IOException {
+        Entry entry;
+        synchronized(this) {
+            entry = entries.get(key);
+        }
+        if(entry == null) return false;
+
+        long now = System.currentTimeMillis();
+        if(now >= entry.staleUntil) return false;
+
+        response.sendCached(entry.status, entry.headers, entry.body, (now - entry.storedAt) / 1000);
+        if(now >= entry.freshUntil) {
+            CompletableFuture<Entry> future = new CompletableFuture<>();
+            if(loading.putIfAbsent(key, future) == null) {
+                response.flush();
+                try {
+                    load(key, request, response, future);
+                } catch(IOException | RuntimeException ignored) {
+                    // The client already got the stale response, the next request after the stale period runs the handler again
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs the handler into a buffer, stores the result if allowed and completes the future for waiting requests
+     */
+    private Captured load(String key, HttpRequest request, HttpResponse response, CompletableFuture<Entry> future) throws IOException {
+        Entry entry = null;
+        try {
+            Capture buffer = new Capture();
+            HttpResponse capture = response.capture(buffer);
+            handler.handle(request, capture);
+            capture.finishStream();
+
+            Captured captured = buffer.captured();
+            if(captured == null) throw new IOException("Cached handler of " + request.path + " did not send a response");
+
+            if(capture.isStorable()) entry = store(key, captured);
+            return captured;
+        } finally {
+            loading.remove(key);
+            future.complete(entry);
+        }
+    }
+
+    private Entry store(String key, Captured captured) {
+        long now = System.currentTimeMillis();
+        long freshUntil = now + options.getTtl();
+        Entry entry = new Entry(captured.status, captured.headers, captured.body, now, freshUntil, freshUntil + options.getStaleWhileRevalidate(),
+                ENTRY_OVERHEAD + key.length() + captured.headers.length + captured.body.length);
+        if(entry.weight > options.getMaxSize()) return entry;
+
+        synchronized(this) {
+            Entry previous = entries.put(key, entry);
+            if(previous != null) size -= previous.weight;
+            size += entry.weight;
+
+            Iterator<Entry> iterator = entries.values().iterator();
+            while(size > options.getMaxSize() && iterator.hasNext()) {
+                size -= iterator.next().weight;
+                iterator.remove();
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Only GET requests of clients understanding chunked responses are cached, HTTP/1.0 clients would get chunked bytes otherwise
+     */
+    private static boolean isCacheable(HttpRequest request, HttpResponse response) {
+        return request.method == HttpMethod.GET && response.isHttp11();
+    }
+
+    private String key(HttpRequest request, HttpResponse response) {
+        StringBuilder key = new StringBuilder(64).append(request.path);
+        for(String param : options.getQueryParams()) {
+            String value = request.queryParams.get(param);
+            key.append('\0').append(value == null ? "" : value);
+        }
+        for(String header : options.getHeaders()) {
+            String value = findHeader(request.headers, header);
+            key.append('\0').append(value == null ? "" : value);
+        }
+        // Compressed and uncompressed responses are different variants
+        return key.append('\0').append(response.getAcceptedEncoding() == null ? "" : response.getAcceptedEncoding().getName()).toString();
+    }
+
+    private static String findHeader(Map<String, String> headers, String name) {
+        String value = headers.get(name);
+        if(value != null) return value;
+
+        for(Map.Entry<String, String> header : headers.entrySet()) {
+            if(header.getKey().equalsIgnoreCase(name)) return header.getValue();
+        }
+        return null;
+    }
+
+    private record Entry(int status, byte[] headers, byte[] body, long storedAt, long freshUntil, long staleUntil, long weight) {}
+
+    /**
+     * Response written by the handler: status, the header lines without Date and the body
+     */
+    private record Captured(int status, byte[] headers, byte[] body) {}
+
+    /**
+     * Takes the response of the handler as status and fields, so streamed bodies arrive without chunked framing
+     */
+    private static final class Capture extends ByteArrayOutputStream implements ResponseSink {
+        private int status;
+        private List<String> fields;
+
+        @Override
+        public void head(int statusCode, List<String> fields) {
+            // Interim responses are not stored
+            if(statusCode < 200) return;
+            this.status = statusCode;
+            this.fields = List.copyOf(fields);
+        }
+
+        /**
+         * @return the captured response, null if the handler did not send one
+         */
+        Captured captured() {
+            if(fields == null) return null;
+
+            StringBuilder headers = new StringBuilder(256);
+            boolean hasLength = false;
+            for(int i = 0; i < fields.size(); i += 2) {
+                String name = fields.get(i);
+                // Date is written fresh for every request that is answered from the cache
+                if(name.equalsIgnoreCase("Date")) continue;
+                if(name.equalsIgnoreCase("Content-Length")) hasLength = true;
+                headers.append(name).append(": ").append(fields.get(i + 1)).append("\r\n");
+            }
+            // The length of a streamed body is known once it was captured
+            if(!hasLength && status != 204 && status != 304) headers.append("Content-Length: ").append(count).append("\r\n");
+            return new Captured(status, headers.toString().getBytes(StandardCharsets.UTF_8), toByteArray());
+        }
+    }
+}
@@ -7,32 +7,70 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionStage;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class Route {
-    final String pathPattern;
-    final Pattern compiledPattern;
+    private static final Pattern PARAM_PATTERN = Pattern.compile(":([a-zA-Z_][a-zA-Z0-9_]*)");
+
+    @Getter final String pathPattern;
+    // Compiled on first use, only routes RouteTree can not split into segments are matched with it
+    private volatile Pattern compiledPattern;
     @Getter final HttpMethod method;
     @Getter final RouteHandler handler;
     @Getter final List<Middleware.MiddlewareHandler> middlewares;
+    final String[] paramNames;
+    @Getter boolean streamingBody;
+    @Getter long maxBodySize;
+    @Getter CacheOptions cacheOptions;
+    @Getter boolean async;
+    @Getter long timeout;
+    // Created with the chain, null if the route is not cached
+    ResponseCache cache;
+    /**
+     * Router and route middlewares followed by the handler, null until the server is started
+     */
+    @Getter Middleware chain;
 
     public Route(HttpMethod method, String pathPattern, RouteHandler handler) {
+        this(method, pathPattern, handler, new ArrayList<>());
+    }
+
+    /**
+     * Creates a route whose response is complete once the stage returned by the handler completes, see {@link AsyncRouteHandler}.
+     * A factory instead of a constructor overload, lambdas passed to the constructor would otherwise be ambiguous
+     */
+    public static Route async(HttpMethod method, String pathPattern, AsyncRouteHandler handler) {
+        Route route = new Route(method, pathPattern, (request, response) -> response.suspend(handler.handle(request, response)), new ArrayList<>());
+        route.async = true;
+        return route;
+    }
+
+    /**
+     * Used when mounting routes of another router, the middleware list is shared with the original route
+     */
+    Route(HttpMethod method, String pathPattern, RouteHandler handler, List<Middleware.MiddlewareHandler> middlewares) {
         this.method = method;
         this.pathPattern = pathPattern;
         this.handler = handler;
-        this.compiledPattern = Pattern.compile(pathPattern.replaceAll(":([a-zA-Z_][a-zA-Z0-9_]*)", "(?<$1>[^/]+)").replace("*", ".*"));
-        this.middlewares = new ArrayList<>();
+        this.middlewares = middlewares;
+
+        List<String> names = new ArrayList<>();
+        Matcher paramMatcher = PARAM_PATTERN.matcher(pathPattern);
+        while(paramMatcher.find()) names.add(paramMatcher.group(1));
+        this.paramNames = names.toArray(new String[0]);
     }
 
     public boolean matches(String path, Map<String, String> urlParams) {
-        Matcher matcher = compiledPattern.matcher(path);
-        if (!matcher.matches()) return false;
+        Pattern pattern = compiledPattern;
+        // Compiling twice when two threads race here is harmless, both patterns are equal
+        if(pattern == null) compiledPattern = pattern = Pattern.compile(pathPattern.replaceAll(":([a-zA-Z_][a-zA-Z0-9_]*)", "(?<$1>[^/]+)").replace("*", ".*"));
 
-        for (String groupName : compiledPattern.pattern().split("/")) {
-            if(!groupName.startsWith("(?<")) continue;
+        Matcher matcher = pattern.matcher(path);
+        if (!matcher.matches()) return false;
 
-            String paramName = groupName.substring(3, groupName.length() - 3);
+        for (String paramName : paramNames) {
             urlParams.put(paramName, matcher.group(paramName));
         }
 
@@ -40,15 +78,97 @@ public class Route {
     }
 
     public Route use(Middleware.MiddlewareHandler middleware) {
+        checkNotCompiled();
         this.middlewares.add(middleware);
         return this;
     }
 
+    /**
+     * Hands the body to the handler as a stream ({@link HttpRequest#requestBody}) instead of reading it into {@link HttpRequest#body} first
+     */
+    public Route streamBody() {
+        checkNotCompiled();
+        this.streamingBody = true;
+        return this;
+    }
+
+    /**
+     * Overrides the maximum body size of the server for this route, larger bodies are rejected with 413
+     */
+    public Route maxBodySize(long maxBodySize) {
+        if(maxBodySize < 0) throw new IllegalArgumentException("Max body size can not be negative!");
+        checkNotCompiled();
+
+        this.maxBodySize = maxBodySize;
+        return this;
+    }
+
+    /**
+     * Stores complete responses of this GET route and answers identical requests from them, see {@link CacheOptions}
+     */
+    public Route cache(CacheOptions options) {
+        if(method != HttpMethod.GET) throw new IllegalStateException("Only GET routes can be cached!");
+        if(async) throw new IllegalStateException("Asynchronous routes can not be cached!");
+        checkNotCompiled();
+
+        this.cacheOptions = options;
+        return this;
+    }
+
+    /**
+     * Overrides the time in milliseconds the server waits for an asynchronous route to complete, slower responses are answered with 504
+     */
+    public Route timeout(long timeout) {
+        if(timeout < 0) throw new IllegalArgumentException("Timeout can not be negative!");
+        if(!async) throw new IllegalStateException("Only asynchronous routes have a timeout!");
+        checkNotCompiled();
+
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * Answers the request from the response cache of the route if it is configured to skip the middlewares
+     * @return true if the response was sent
+     */
+    public boolean sendCachedBeforeMiddleware(HttpRequest request, HttpResponse response) throws IOException {
+        return cache != null && cacheOptions.isSkipMiddleware() && cache.sendStored(request, response);
+    }
+
+    /**
+     * Flattens the applying router middlewares and the middlewares of this route into the chain
+     */
+    void compile(List<ScopedMiddleware> routerMiddlewares) {
+        List<Middleware.MiddlewareHandler> handlers = new ArrayList<>();
+        for(ScopedMiddleware middleware : routerMiddlewares) {
+            if(middleware.appliesTo(pathPattern)) handlers.add(middleware.handler());
+        }
+        handlers.addAll(middlewares);
+
+        this.cache = cacheOptions == null ? null : new ResponseCache(handler, cacheOptions);
+        this.chain = new Middleware(handlers.toArray(new Middleware.MiddlewareHandler[0]), cache == null ? handler : cache);
+    }
+
+    private void checkNotCompiled() {
+        if(chain != null) throw new IllegalStateException("Route can not be changed after the server was started!");
+    }
+
     @FunctionalInterface
     public interface RouteHandler {
         void handle(HttpRequest request, HttpResponse response) throws IOException;
     }
 
+    /**
+     * Handler that does not need a worker thread while it waits, e.g. for a call to another service.
+     * It sends the response like any other handler, possibly from another thread, and completes the returned stage afterwards.
+     * Exceptions completing the stage go to the error handler of the server, stages not completed within the timeout are answered with 504.
+     * Both engines free the thread while the stage is pending, a connection of the BLOCKING engine reads no further request in the meantime
+     */
+    @FunctionalInterface
+    public interface AsyncRouteHandler {
+        CompletionStage<?> handle(HttpRequest request, HttpResponse response) throws IOException;
+    }
+
     @FunctionalInterface
     public interface AdvancedRouteHandler {
         void handle(HttpRequest request, HttpResponse response, Object... data) throws IOException;
@@ -0,0 +1,246 @@
+package dev.mitask.requests;
+
+import dev.mitask.util.HttpMethod;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Radix tree of routes, one per {@link HttpMethod}. Static text is stored in compressed prefixes,
+ * <code>:param</code> segments and trailing <code>*</code> wildcards are separate children.
+ * Lookup walks the path once without regex. At every node static children are tried before
+ * the parameter and the parameter before the wildcard, so precedence does not depend on registration order.
+ * <p>
+ * Patterns the tree can not represent (parameters or wildcards sharing a segment with other text)
+ * are kept as regex routes and only tried when the tree has no match.
+ * @since 1.0.0
+ * @author MiTask
+ */
+public final class RouteTree {
+    private final Map<HttpMethod, Node> roots = new EnumMap<>(HttpMethod.class);
+    private final List<Route> regexRoutes = new ArrayList<>();
+    private int maxParams;
+
+    /**
+     * Adds a route to the tree. If a route with the same method and pattern already exists the first one is kept.
+     */
+    public void add(Route route) {
+        List<Segment> segments = Segment.parse(route.pathPattern);
+        if(segments == null) {
+            regexRoutes.add(route);
+            return;
+        }
+
+        Node node = roots.computeIfAbsent(route.method, method -> new Node(""));
+        int params = 0;
+        for(Segment segment : segments) {
+            switch(segment.type) {
+                case STATIC -> node = node.insertStatic(segment.text);
+                case PARAM -> {
+                    if(node.paramChild == null) node.paramChild = new Node("");
+                    node = node.paramChild;
+                    params++;
+                }
+                case WILDCARD -> {
+                    if(node.wildcardChild == null) node.wildcardChild = new Node("");
+                    node = node.wildcardChild;
+                }
+            }
+        }
+
+        if(node.route == null) node.route = route;
+        maxParams = Math.max(maxParams, params);
+    }
+
+    /**
+     * Finds the route matching the path
+     * @param urlParams Map the values of <code>:param</code> segments (and the part matched by <code>*</code> under the key "*") are put in
+     * @return matched route or null
+     */
+    public Route find(HttpMethod method, String path, Map<String, String> urlParams) {
+        Node root = roots.get(method);
+        if(root != null) {
+            String[] values = maxParams == 0 ? null : new String[maxParams];
+            Match match = new Match(values);
+            if(root.find(path, 0, 0, match)) {
+                Route route = match.route;
+                for(int i = 0; i < route.paramNames.length; i++) {
+                    urlParams.put(route.paramNames[i], values[i]);
+                }
+                if(match.wildcard != null) urlParams.put("*", match.wildcard);
+                return route;
+            }
+        }
+
+        for(Route route : regexRoutes) {
+            if(route.method == method && route.matches(path, urlParams)) return route;
+        }
+
+        return null;
+    }
+
+    private static final class Match {
+        final String[] values;
+        Route route;
+        String wildcard;
+
+        Match(String[] values) {
+            this.values = values;
+        }
+    }
+
+    private static final class Node {
+        String prefix;
+        char[] indices = new char[0];
+        Node[] children = new Node[0];
+        Node paramChild, wildcardChild;
+        Route route;
+
+        Node(String prefix) {
+            this.prefix = prefix;
+        }
+
+        Node staticChild(char first) {
+            for(int i = 0; i < indices.length; i++) {
+                if(indices[i] == first) return children[i];
+            }
+            return null;
+        }
+
+        Node insertStatic(String text) {
+            if(text.isEmpty()) return this;
+
+            for(int i = 0; i < indices.length; i++) {
+                if(indices[i] != text.charAt(0)) continue;
+
+                Node child = children[i];
+                int common = commonPrefixLength(child.prefix, text);
+                if(common < child.prefix.length()) {
+                    Node split = new Node(child.prefix.substring(0, common));
+                    child.prefix = child.prefix.substring(common);
+                    split.indices = new char[]{child.prefix.charAt(0)};
+                    split.children = new Node[]{child};
+                    children[i] = split;
+                    child = split;
+                }
+
+                return child.insertStatic(text.substring(common));
+            }
+
+            Node child = new Node(text);
+            indices = Arrays.copyOf(indices, indices.length + 1);
+            indices[indices.length - 1] = text.charAt(0);
+            children = Arrays.copyOf(children, children.length + 1);
+            children[children.length - 1] = child;
+            return child;
+        }
+
+        /**
+         * @param position Index in the path where the prefix of this node starts
+         * @param paramIndex Amount of parameters captured before this node
+         */
+        boolean find(String path, int position, int paramIndex, Match match) {
+            if(!path.startsWith(prefix, position)) return false;
+            position += prefix.length();
+
+            if(position == path.length()) {
+                if(route != null) {
+                    match.route = route;
+                    return true;
+                }
+            } else {
+                Node child = staticChild(path.charAt(position));
+                if(child != null && child.find(path, position, paramIndex, match)) return true;
+
+                if(paramChild != null) {
+                    int end = path.indexOf('/', position);
+                    if(end == -1) end = path.length();
+
+                    if(end > position && paramChild.find(path, end, paramIndex + 1, match)) {
+                        match.values[paramIndex] = path.substring(position, end);
+                        return true;
+                    }
+                }
+            }
+
+            if(wildcardChild != null && wildcardChild.route != null) {
+                match.route = wildcardChild.route;
+                match.wildcard = path.substring(position);
+                return true;
+            }
+
+            return false;
+        }
+
+        private static int commonPrefixLength(String a, String b) {
+            int max = Math.min(a.length(), b.length());
+            int i = 0;
+            while(i < max && a.charAt(i) == b.charAt(i)) i++;
+            return i;
+        }
+    }
+
+    private record Segment(SegmentType type, String text) {
+        /**
+         * Splits a route pattern into static text, parameters and wildcards
+         * @return segments of the pattern or null if it can only be matched with regex
+         */
+        static List<Segment> parse(String pattern) {
+            List<Segment> segments = new ArrayList<>();
+            StringBuilder text = new StringBuilder();
+
+            int i = 0;
+            while(i < pattern.length()) {
+                char c = pattern.charAt(i);
+                boolean segmentStart = i == 0 || pattern.charAt(i - 1) == '/';
+
+                if(c == ':' || c == '*') {
+                    if(!segmentStart) return null;
+
+                    int end = pattern.indexOf('/', i);
+                    if(end == -1) end = pattern.length();
+
+                    if(c == '*') {
+                        if(end != pattern.length() || end - i != 1) return null;
+                    } else if(!isParamName(pattern, i + 1, end)) {
+                        return null;
+                    }
+
+                    if(!text.isEmpty()) {
+                        segments.add(new Segment(SegmentType.STATIC, text.toString()));
+                        text.setLength(0);
+                    }
+
+                    segments.add(new Segment(c == ':' ? SegmentType.PARAM : SegmentType.WILDCARD, pattern.substring(i + 1, end)));
+                    i = end;
+                    continue;
+                }
+
+                text.append(c);
+                i++;
+            }
+
+            if(!text.isEmpty()) segments.add(new Segment(SegmentType.STATIC, text.toString()));
+            return segments;
+        }
+
+        private static boolean isParamName(String pattern, int start, int end) {
+            if(start >= end) return false;
+
+            for(int i = start; i < end; i++) {
+                char c = pattern.charAt(i);
+                boolean valid = c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (i > start && c >= '0' && c <= '9');
+                if(!valid) return false;
+            }
+
+            return true;
+        }
+    }
+
+    private enum SegmentType {
+        STATIC, PARAM, WILDCARD
+    }
+}
@@ -7,20 +7,88 @@ import java.util.List;
 
 public class Router {
     protected final List<Route> routes = new ArrayList<>();
+    protected final RouteTree routeTree = new RouteTree();
+    // In registration order, global and path scoped middlewares are interleaved
+    private final List<ScopedMiddleware> middlewares = new ArrayList<>();
+    private boolean frozen;
 
     public Route get(String path, Route.RouteHandler handler) {
-        Route route = new Route(HttpMethod.GET, path, handler);
-        routes.add(route);
-        return route;
+        return addRoute(new Route(HttpMethod.GET, path, handler));
     }
 
     public Route post(String path, Route.RouteHandler handler) {
-        Route route = new Route(HttpMethod.POST, path, handler);
+        return addRoute(new Route(HttpMethod.POST, path, handler));
+    }
+
+    /**
+     * Adds a GET route with an asynchronous handler, see {@link Route.AsyncRouteHandler}.
+     * No thread is held while the stage is pending, on either engine
+     */
+    public Route getAsync(String path, Route.AsyncRouteHandler handler) {
+        return addRoute(Route.async(HttpMethod.GET, path, handler));
+    }
+
+    /**
+     * Adds a POST route with an asynchronous handler, see {@link Route.AsyncRouteHandler}.
+     * No thread is held while the stage is pending, on either engine
+     */
+    public Route postAsync(String path, Route.AsyncRouteHandler handler) {
+        return addRoute(Route.async(HttpMethod.POST, path, handler));
+    }
+
+    /**
+     * Adds a middleware running for every route of this router, no matter whether the route was added before or after.
+     * Middlewares of the router run in registration order and before the middlewares of the route itself.
+     */
+    public void use(Middleware.MiddlewareHandler middleware) {
+        checkNotFrozen();
+        middlewares.add(new ScopedMiddleware(null, middleware));
+    }
+
+    /**
+     * Adds a middleware running only for routes whose pattern is the path or lies under it (e.g. "/api" applies to "/api/users/:id")
+     * @see #use(Middleware.MiddlewareHandler)
+     */
+    public void use(String path, Middleware.MiddlewareHandler middleware) {
+        checkNotFrozen();
+        middlewares.add(new ScopedMiddleware(path, middleware));
+    }
+
+    /**
+     * Mounts all routes of another router under the path. The routes are merged into the route tree of this router,
+     * middlewares of the other router apply to everything under the path.
+     */
+    public void use(String path, Router router) {
+        checkNotFrozen();
+        router.middlewares.forEach(middleware -> middlewares.add(new ScopedMiddleware(middleware.path() == null ? path : path + middleware.path(), middleware.handler())));
+        router.routes.forEach(route -> {
+            Route mounted = addRoute(new Route(route.method, path + route.pathPattern, route.handler, route.middlewares));
+            mounted.streamingBody = route.streamingBody;
+            mounted.maxBodySize = route.maxBodySize;
+            mounted.cacheOptions = route.cacheOptions;
+            mounted.async = route.async;
+            mounted.timeout = route.timeout;
+        });
+    }
+
+    protected Route addRoute(Route route) {
+        checkNotFrozen();
         routes.add(route);
+        routeTree.add(route);
         return route;
     }
 
-    public void use(String path, Router router) {
-        router.routes.forEach(route -> routes.add(new Route(route.method, path + route.pathPattern, route.handler)));
+    /**
+     * Builds the middleware chain of every route. Routes and middlewares can not be changed afterwards
+     */
+    protected void freeze() {
+        if(frozen) return;
+
+        frozen = true;
+        routes.forEach(route -> route.compile(middlewares));
+    }
+
+    private void checkNotFrozen() {
+        if(frozen) throw new IllegalStateException("Routes and middlewares can not be changed after the server was started!");
     }
 }
@@ -0,0 +1,12 @@
+package dev.mitask.requests;
+
+/**
+ * Middleware registered on a router, applied to all routes or only to those under a path
+ * @param path Path prefix of the routes the middleware applies to, null for all routes
+ */
+record ScopedMiddleware(String path, Middleware.MiddlewareHandler handler) {
+    boolean appliesTo(String pathPattern) {
+        if(path == null || path.equals("/") || pathPattern.equals(path)) return true;
+        return pathPattern.startsWith(path.endsWith("/") ? path : path + "/");
+    }
+}
@@ -0,0 +1,338 @@
+package dev.mitask.requests;
+
+import dev.mitask.server.CompressingOutputStream;
+import dev.mitask.server.FileTransferOutput;
+import dev.mitask.util.ContentEncoding;
+import dev.mitask.util.HttpDate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Byte bounded LRU cache of static files. Entries hold the precomputed content type, validators and
+ * encoded header block, small files also their content and large files optionally a shared memory mapping. Entries are invalidated by file system events,
+ * so cache hits never touch the disk. Gzip variants (".gz" siblings or content compressed in memory)
+ * are cached next to the files, including the fact that a file has none.
+ */
+class StaticFileCache {
+    private static final long ENTRY_OVERHEAD = 256;
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final Entry MISSING = new Entry(null, 0, 0, null, null, null, null, new byte[0], new byte[0]);
+
+    private final Path root;
+    private final StaticOptions options;
+    private final CompressionOptions compression;
+    private final List<Map.Entry<PathMatcher, String>> cacheControls = new ArrayList<>();
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private volatile boolean enabled;
+    private long size, generation;
+
+    /**
+     * @param compression Decides which content types get a Vary header and are compressed in memory
+     */
+    StaticFileCache(Path root, StaticOptions options, CompressionOptions compression) {
+        this.root = root;
+        this.options = options;
+        this.compression = compression;
+
+        FileSystem fileSystem = root.getFileSystem();
+        options.getCacheControls().forEach((glob, value) -> cacheControls.add(Map.entry(fileSystem.getPathMatcher("glob:" + glob), value)));
+
+        this.enabled = !options.isCacheDisabled() && startWatcher();
+        if(enabled && options.isPrecompress()) precompress();
+    }
+
+    /**
+     * @return cached or freshly loaded entry, null if the path is not a regular file
+     */
+    Entry get(Path path) throws IOException {
+        return lookup(new Key(path, false), () -> load(path));
+    }
+
+    /**
+     * @return gzip variant of the file, null if it has none
+     */
+    Entry getGzip(Entry entry) throws IOException {
+        Entry variant = lookup(new Key(entry.path, true), () -> loadGzip(entry));
+        return variant == MISSING ? null : variant;
+    }
+
+    private Entry lookup(Key key, Loader loader) throws IOException {
+        if(!enabled) return loader.load();
+
+        long loadGeneration;
+        synchronized(this) {
+            Entry entry = entries.get(key);
+            if(entry != null) return entry;
+            loadGeneration = generation;
+        }
+
+        Entry entry = loader.load();
+        if(entry == null) return null;
+
+        synchronized(this) {
+            // A change event during loading may have invalidated what was just read
+            if(loadGeneration != generation) return entry;
+
+            Entry previous = entries.put(key, entry);
+            if(previous != null) size -= previous.weight;
+            size += entry.weight;
+
+            Iterator<Entry> iterator = entries.values().iterator();
+            while(size > options.getMaxCacheSize() && iterator.hasNext()) {
+                size -= iterator.next().weight;
+                iterator.remove();
+            }
+        }
+
+        return entry;
+    }
+
+    private Entry load(Path path) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch(NoSuchFileException e) {
+            return null;
+        }
+        if(!attributes.isRegularFile()) return null;
+
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        String contentType = Files.probeContentType(path);
+        if(contentType == null) contentType = "application/octet-stream";
+        byte[] content = attributes.size() <= options.getMaxCachedFileSize() ? Files.readAllBytes(path) : null;
+        long fileSize = content == null ? attributes.size() : content.length;
+
+        return createEntry(path, path, fileSize, lastModified, etag(lastModified, fileSize), content, contentType, null);
+    }
+
+    /**
+     * @return strong entity tag derived from the modification time and size of a file
+     */
+    static String etag(long lastModified, long size) {
+        return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(size) + "\"";
+    }
+
+    /**
+     * Loads the ".gz" sibling of the file or, with precompression enabled, compresses the cached content
+     * @return the variant or {@link #MISSING}
+     */
+    private Entry loadGzip(Entry entry) throws IOException {
+        Path sibling = entry.path.resolveSibling(entry.path.getFileName() + GZIP_SUFFIX);
+
+        BasicFileAttributes attributes = null;
+        try {
+            attributes = Files.readAttributes(sibling, BasicFileAttributes.class);
+        } catch(NoSuchFileException ignored) {
+        }
+
+        if(attributes != null && attributes.isRegularFile()) {
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            byte[] content = attributes.size() <= options.getMaxCachedFileSize() ? Files.readAllBytes(sibling) : null;
+            long fileSize = content == null ? attributes.size() : content.length;
+
+            String etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(fileSize) + "-gz\"";
+            return createEntry(sibling, entry.path, fileSize, lastModified, etag, content, entry.contentType, ContentEncoding.GZIP);
+        }
+
+        if(!options.isPrecompress() || entry.content == null || !compression.isCompressible(entry.contentType)) return MISSING;
+
+        byte[] compressed = CompressingOutputStream.encode(entry.content, ContentEncoding.GZIP, compression.getDeflaterPool());
+        if(compressed.length >= entry.content.length) return MISSING;
+
+        String etag = entry.etag.substring(0, entry.etag.length() - 1) + "-gz\"";
+        return createEntry(entry.path, entry.path, compressed.length, entry.lastModified, etag, compressed, entry.contentType, ContentEncoding.GZIP);
+    }
+
+    /**
+     * @param file File the content is read from
+     * @param original File the variant belongs to, used for matching Cache-Control globs
+     */
+    private Entry createEntry(Path file, Path original, long fileSize, long lastModified, String etag, byte[] content, String contentType, ContentEncoding encoding) throws IOException {
+        StringBuilder validators = new StringBuilder()
+                .append("ETag: ").append(etag).append("\r\n")
+                .append("Last-Modified: ").append(HttpDate.format(lastModified)).append("\r\n");
+
+        String cacheControl = cacheControlFor(root.relativize(original));
+        if(cacheControl != null) validators.append("Cache-Control: ").append(cacheControl).append("\r\n");
+        if(encoding != null || compression.isCompressible(contentType)) validators.append("Vary: Accept-Encoding\r\n");
+
+        // Ranges are only served from the uncompressed file, see StaticFiles
+        String headers = "Content-Type: " + contentType + "\r\n"
+                + (encoding == null ? "Accept-Ranges: bytes\r\n" : "Content-Encoding: " + encoding.getName() + "\r\n")
+                + "Content-Length: " + fileSize + "\r\n"
+                + validators;
+
+        // Without the cache every request would map the file anew
+        MappedFile mapped = content == null && enabled && options.getMappedFileSize() > 0 && fileSize >= options.getMappedFileSize() ? MappedFile.map(file, fileSize) : null;
+
+        return new Entry(file, fileSize, lastModified, etag, content, mapped, contentType, headers.getBytes(StandardCharsets.ISO_8859_1), validators.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Loads all compressible files small enough to be cached together with their compressed variant
+     */
+    private void precompress() {
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                    if(attributes.size() > options.getMaxCachedFileSize() || file.getFileName().toString().endsWith(GZIP_SUFFIX)) return FileVisitResult.CONTINUE;
+
+                    Entry entry = get(file);
+                    if(entry != null && compression.isCompressible(entry.contentType)) getGzip(entry);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch(IOException e) {
+            System.err.println("Could not precompress static files in " + root + " (" + e.getMessage() + ")");
+        }
+    }
+
+    private String cacheControlFor(Path relativePath) {
+        for(Map.Entry<PathMatcher, String> cacheControl : cacheControls) {
+            if(cacheControl.getKey().matches(relativePath)) return cacheControl.getValue();
+        }
+        return options.getDefaultCacheControl();
+    }
+
+    private synchronized void invalidate(Path path) {
+        generation++;
+
+        // A changed ".gz" file only invalidates the variant of the file it belongs to
+        String name = path.getFileName().toString();
+        Path original = name.endsWith(GZIP_SUFFIX) ? path.resolveSibling(name.substring(0, name.length() - GZIP_SUFFIX.length())) : null;
+
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<Key, Entry> entry = iterator.next();
+            Key key = entry.getKey();
+            if(key.path.startsWith(path) || (key.gzip && key.path.equals(original))) {
+                size -= entry.getValue().weight;
+                iterator.remove();
+            }
+        }
+    }
+
+    private synchronized void clear() {
+        generation++;
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Watches the static directory and all subdirectories for changes
+     * @return false if changes can not be watched, files are not cached then
+     */
+    private boolean startWatcher() {
+        WatchService watchService;
+        try {
+            watchService = root.getFileSystem().newWatchService();
+            register(watchService, root);
+        } catch(IOException e) {
+            System.err.println("Could not watch " + root + " for changes, static files will not be cached! (" + e.getMessage() + ")");
+            return false;
+        }
+
+        Thread watcher = new Thread(() -> watch(watchService), "kizuna-static-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        return true;
+    }
+
+    private void register(WatchService watchService, Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException {
+                dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void watch(WatchService watchService) {
+        try(watchService) {
+            while(true) {
+                WatchKey key = watchService.take();
+                Path directory = (Path) key.watchable();
+
+                for(WatchEvent<?> event : key.pollEvents()) {
+                    if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        clear();
+                        continue;
+                    }
+
+                    Path changed = directory.resolve((Path) event.context());
+                    invalidate(changed);
+
+                    if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+                        try {
+                            register(watchService, changed);
+                        } catch(IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+
+                key.reset();
+            }
+        } catch(InterruptedException | IOException | ClosedWatchServiceException e) {
+            enabled = false;
+            clear();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Loader {
+        Entry load() throws IOException;
+    }
+
+    /**
+     * @param path File the entry belongs to, for gzip variants the uncompressed file
+     */
+    private record Key(Path path, boolean gzip) {}
+
+    static final class Entry {
+        final Path path;
+        final long size, lastModified;
+        final String etag;
+        final byte[] content;
+        final MappedFile mapped;
+        final String contentType;
+        final byte[] headers;
+        final byte[] validatorHeaders;
+        final long weight;
+
+        Entry(Path path, long size, long lastModified, String etag, byte[] content, MappedFile mapped, String contentType, byte[] headers, byte[] validatorHeaders) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.etag = etag;
+            this.content = content;
+            this.mapped = mapped;
+            this.contentType = contentType;
+            this.headers = headers;
+            this.validatorHeaders = validatorHeaders;
+            // Mapped files are not on the heap, so they do not count
+            this.weight = (content == null ? 0 : content.length) + headers.length + validatorHeaders.length + ENTRY_OVERHEAD;
+        }
+
+        /**
+         * Writes part of the file from the cached content, the mapping or the disk
+         */
+        void write(OutputStream out, long position, long count) throws IOException {
+            if(content != null) out.write(content, (int) position, (int) count);
+            else if(mapped != null) mapped.write(out, position, count);
+            else FileTransferOutput.transfer(FileChannel.open(path, StandardOpenOption.READ), position, count, out);
+        }
+    }
+}
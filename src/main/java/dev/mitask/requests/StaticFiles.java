@@ -0,0 +1,92 @@
+package dev.mitask.requests;
+
+import dev.mitask.util.ContentEncoding;
+import dev.mitask.util.HttpDate;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Route handler serving files of a directory. File metadata, encoded headers and small files are cached
+ * (see {@link StaticOptions}), conditional requests are answered with 304 Not Modified.
+ * Clients accepting gzip get the ".gz" sibling of a file (or its precompressed variant) when there is one.
+ * Range requests are answered with 206 Partial Content, several ranges as multipart/byteranges.
+ * @since 1.0.0
+ * @author MiTask
+ */
+public class StaticFiles implements Route.RouteHandler {
+    private final Path root;
+    private final int basePathLength;
+    private final StaticFileCache cache;
+    private final Route.RouteHandler notFoundHandler;
+
+    /**
+     * @param basePath Path the directory is mounted on
+     * @param staticDir Directory containing the files
+     * @param notFoundHandler Handler for missing files, null sends a default 404 page
+     */
+    public StaticFiles(String basePath, Path staticDir, StaticOptions options, Route.RouteHandler notFoundHandler) {
+        this(basePath, staticDir, options, null, notFoundHandler);
+    }
+
+    /**
+     * @param compression Content types to precompress, null uses the defaults of {@link CompressionOptions}
+     */
+    public StaticFiles(String basePath, Path staticDir, StaticOptions options, CompressionOptions compression, Route.RouteHandler notFoundHandler) {
+        this.root = staticDir.toAbsolutePath().normalize();
+        this.basePathLength = basePath.length() + 1;
+        this.cache = new StaticFileCache(root, options, compression == null ? CompressionOptions.builder().build() : compression);
+        this.notFoundHandler = notFoundHandler;
+    }
+
+    @Override
+    public void handle(HttpRequest request, HttpResponse response) throws IOException {
+        // Normalizing and checking the prefix keeps "../" segments from escaping the static directory
+        Path path = root.resolve(request.path.substring(basePathLength)).normalize();
+        StaticFileCache.Entry entry = path.startsWith(root) ? cache.get(path) : null;
+
+        if(entry == null) {
+            if(notFoundHandler == null) response.sendCustom(404, "text/html", "<html><body>File not found!</body></html>");
+            else notFoundHandler.handle(request, response);
+            return;
+        }
+
+        // Ranges are answered from the uncompressed file, compressed variants are only sent whole
+        long[] ranges = ByteRanges.requested(request, entry.size, entry.etag, entry.lastModified);
+        if(ranges != null && !isNotModified(request, entry)) {
+            if(ranges.length == 0) ByteRanges.sendUnsatisfiable(response, entry.validatorHeaders, entry.size);
+            else ByteRanges.send(response, entry.validatorHeaders, entry.contentType, entry.size, ranges, entry::write);
+            return;
+        }
+
+        if(ContentEncoding.GZIP.isAccepted(request.headers.get("Accept-Encoding"))) {
+            StaticFileCache.Entry variant = cache.getGzip(entry);
+            if(variant != null) entry = variant;
+        }
+
+        if(isNotModified(request, entry)) response.sendEncoded(304, entry.validatorHeaders, null);
+        else if(entry.content != null) response.sendEncoded(200, entry.headers, entry.content);
+        else if(entry.mapped != null) response.sendEncodedMapped(entry.headers, entry.mapped);
+        else response.sendEncodedFile(entry.headers, entry.path, entry.size);
+    }
+
+    private static boolean isNotModified(HttpRequest request, StaticFileCache.Entry entry) {
+        String ifNoneMatch = request.headers.get("If-None-Match");
+        if(ifNoneMatch != null) {
+            for(String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if(tag.startsWith("W/")) tag = tag.substring(2);
+                if(tag.equals("*") || tag.equals(entry.etag)) return true;
+            }
+
+            // If-Modified-Since is ignored when If-None-Match is present
+            return false;
+        }
+
+        String ifModifiedSince = request.headers.get("If-Modified-Since");
+        if(ifModifiedSince == null) return false;
+
+        long since = HttpDate.parse(ifModifiedSince);
+        return since != -1 && entry.lastModified / 1000 <= since / 1000;
+    }
+}
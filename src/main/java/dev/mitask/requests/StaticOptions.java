@@ -0,0 +1,51 @@
+package dev.mitask.requests;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+
+import java.util.Map;
+
+/**
+ * Settings of a static directory served by {@link StaticFiles}
+ * @since 1.0.0
+ * @author MiTask
+ */
+@Getter
+public class StaticOptions {
+    private static final long DEFAULT_MAX_CACHE_SIZE = 32 * 1024 * 1024;
+    private static final long DEFAULT_MAX_CACHED_FILE_SIZE = 256 * 1024;
+
+    private final long maxCacheSize, maxCachedFileSize, mappedFileSize;
+    private final boolean cacheDisabled, precompress;
+    private final Map<String, String> cacheControls;
+    private final String defaultCacheControl;
+
+    /**
+     * @param maxCacheSize Maximum amount of bytes kept in memory for this directory. 0 uses the default of 32 MiB
+     * @param maxCachedFileSize Files larger than this are streamed from disk, only their metadata is cached. 0 uses the default of 256 KiB
+     * @param mappedFileSize Files larger than maxCachedFileSize and at least this large are memory mapped once and served from the mapping by all requests,
+     *                       which saves opening and reading them per request (e.g. for many ranges of hot media or over TLS). Mappings take
+     *                       address space instead of heap and do not count towards maxCacheSize. Such files should be replaced by moving a new file
+     *                       in place, requests reading a mapped file that shrinks fail. 0 never maps files
+     * @param cacheDisabled Whether files and their metadata should be read from disk on every request
+     * @param cacheControls Cache-Control header values by glob relative to the static directory (e.g. "**.js"), the first matching glob wins
+     * @param defaultCacheControl Cache-Control header value for files not matching any glob, null sends no header
+     * @param precompress Whether compressible files small enough to be cached should be gzipped in memory at startup when they have no ".gz" sibling.
+     *                    ".gz" siblings are always served to clients accepting gzip
+     */
+    @Builder(setterPrefix = "set")
+    private StaticOptions(long maxCacheSize, long maxCachedFileSize, long mappedFileSize, boolean cacheDisabled, @Singular Map<String, String> cacheControls, String defaultCacheControl, boolean precompress) {
+        if(maxCacheSize < 0) throw new IllegalArgumentException("Max cache size can not be negative!");
+        if(maxCachedFileSize < 0) throw new IllegalArgumentException("Max cached file size can not be negative!");
+        if(mappedFileSize < 0) throw new IllegalArgumentException("Mapped file size can not be negative!");
+
+        this.maxCacheSize = maxCacheSize == 0 ? DEFAULT_MAX_CACHE_SIZE : maxCacheSize;
+        this.maxCachedFileSize = maxCachedFileSize == 0 ? DEFAULT_MAX_CACHED_FILE_SIZE : maxCachedFileSize;
+        this.mappedFileSize = mappedFileSize;
+        this.cacheDisabled = cacheDisabled;
+        this.cacheControls = cacheControls;
+        this.defaultCacheControl = defaultCacheControl;
+        this.precompress = precompress;
+    }
+}
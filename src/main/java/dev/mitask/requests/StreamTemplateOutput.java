@@ -0,0 +1,82 @@
+package dev.mitask.requests;
+
+import gg.jte.TemplateOutput;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Encodes rendered template content as UTF-8 straight into a stream, so a template never has to be rendered
+ * into an intermediate array first. Binary static content of precompiled templates is written as-is.
+ * jte does not allow checked exceptions here, so failed writes are thrown as {@link UncheckedIOException}
+ */
+final class StreamTemplateOutput implements TemplateOutput {
+    private static final int SCRATCH_SIZE = 1024;
+
+    private final OutputStream out;
+    // Leaves room for the longest encoded character (4 bytes)
+    private final byte[] scratch = new byte[SCRATCH_SIZE + 4];
+    private int count;
+
+    StreamTemplateOutput(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void writeContent(String value) {
+        writeContent(value, 0, value.length());
+    }
+
+    @Override
+    public void writeContent(String value, int beginIndex, int endIndex) {
+        for(int i = beginIndex; i < endIndex; i++) {
+            char c = value.charAt(i);
+            if(c < 0x80) {
+                scratch[count++] = (byte) c;
+            } else if(c < 0x800) {
+                scratch[count++] = (byte) (0xC0 | c >> 6);
+                scratch[count++] = (byte) (0x80 | c & 0x3F);
+            } else if(Character.isHighSurrogate(c) && i + 1 < endIndex && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                scratch[count++] = (byte) (0xF0 | codePoint >> 18);
+                scratch[count++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                scratch[count++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                scratch[count++] = (byte) (0x80 | codePoint & 0x3F);
+            } else if(Character.isSurrogate(c)) {
+                // Unpaired surrogates are replaced like String#getBytes does
+                scratch[count++] = '?';
+            } else {
+                scratch[count++] = (byte) (0xE0 | c >> 12);
+                scratch[count++] = (byte) (0x80 | c >> 6 & 0x3F);
+                scratch[count++] = (byte) (0x80 | c & 0x3F);
+            }
+
+            if(count >= SCRATCH_SIZE) drain();
+        }
+    }
+
+    @Override
+    public void writeBinaryContent(byte[] value) {
+        drain();
+        try {
+            out.write(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the encoded characters that are still held back to the stream
+     */
+    void drain() {
+        if(count == 0) return;
+
+        try {
+            out.write(scratch, 0, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        count = 0;
+    }
+}
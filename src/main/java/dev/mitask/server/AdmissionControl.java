@@ -0,0 +1,107 @@
+package dev.mitask.server;
+
+import dev.mitask.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits how much work a server accepts, so overload is answered with fast rejections instead of
+ * exhausting threads and memory. Connections over the limits are closed right after accepting them,
+ * requests over the queue limit are answered with 503 and a Retry-After header.
+ * @since 1.0.0
+ * @author MiTask
+ */
+public final class AdmissionControl {
+    /**
+     * Value of the Retry-After header of shed requests in seconds
+     */
+    static final int RETRY_AFTER_SECONDS = 1;
+
+    private final int maxConnections, maxConnectionsPerIp, maxQueuedRequests;
+    private final Metrics metrics;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Map<InetAddress, Integer> connectionsPerIp = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxConnections Maximum amount of open connections, 0 for no limit
+     * @param maxConnectionsPerIp Maximum amount of open connections of a single client address, 0 for no limit
+     * @param maxQueuedRequests Maximum amount of requests waiting for a worker thread, 0 for no limit
+     */
+    public AdmissionControl(int maxConnections, int maxConnectionsPerIp, int maxQueuedRequests, Metrics metrics) {
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerIp = maxConnectionsPerIp;
+        this.maxQueuedRequests = maxQueuedRequests;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Reserves a connection slot for a newly accepted connection. Every successful call has to be followed by
+     * {@link #connectionClosed(InetAddress)} once the connection is closed
+     * @return false if a connection limit is reached and the connection has to be closed
+     */
+    public boolean tryOpenConnection(InetAddress address) {
+        if(maxConnections > 0 && connections.incrementAndGet() > maxConnections) {
+            connections.decrementAndGet();
+            metrics.connectionRejected(false);
+            return false;
+        }
+
+        if(maxConnectionsPerIp > 0 && connectionsPerIp.merge(address, 1, Integer::sum) > maxConnectionsPerIp) {
+            releaseAddress(address);
+            if(maxConnections > 0) connections.decrementAndGet();
+            metrics.connectionRejected(true);
+            return false;
+        }
+        return true;
+    }
+
+    public void connectionClosed(InetAddress address) {
+        if(maxConnections > 0) connections.decrementAndGet();
+        if(maxConnectionsPerIp > 0) releaseAddress(address);
+    }
+
+    /**
+     * Reserves a place in the worker queue before a task is handed to the executor. Every successful call has to be
+     * followed by {@link #taskStarted()} once the task runs
+     * @return false if the queue is full and the request has to be answered with {@link #serviceUnavailable()}
+     */
+    public boolean tryEnqueue() {
+        if(maxQueuedRequests > 0 && queued.incrementAndGet() > maxQueuedRequests) {
+            queued.decrementAndGet();
+            metrics.requestShed();
+            return false;
+        }
+
+        metrics.taskQueued();
+        return true;
+    }
+
+    public void taskStarted() {
+        if(maxQueuedRequests > 0) queued.decrementAndGet();
+        metrics.taskStarted();
+    }
+
+    /**
+     * @return encoded 503 response closing the connection, asking the client to retry later
+     */
+    public static byte[] serviceUnavailable() {
+        return ErrorResponse.encode(503, RETRY_AFTER_SECONDS);
+    }
+
+    /**
+     * Writes the 503 response of {@link #serviceUnavailable()}
+     */
+    static void writeServiceUnavailable(OutputStream out) throws IOException {
+        ErrorResponse.write(out, 503, RETRY_AFTER_SECONDS);
+    }
+
+    private void releaseAddress(InetAddress address) {
+        connectionsPerIp.computeIfPresent(address, (key, count) -> count == 1 ? null : count - 1);
+    }
+}
@@ -0,0 +1,244 @@
+package dev.mitask.server;
+
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection served by a single thread blocking on the socket streams.
+ * Requests are parsed from one reused buffer, so pipelined requests are answered in order.
+ * While an asynchronous handler is pending the connection releases its thread and is continued on a worker afterwards.
+ * @since 1.0.0
+ * @author MiTask
+ */
+public class BlockingConnection implements Runnable {
+    /**
+     * Unread request bodies up to this size are skipped to keep the connection, larger ones close it
+     */
+    static final long MAX_DRAINED_BODY_SIZE = 64 * 1024;
+
+    private final Socket socket;
+    private final ConnectionSettings settings;
+    private final RequestHandler handler;
+    private final Executor workers;
+    // Set up by run, a connection waiting for an asynchronous handler is continued by another thread
+    private OutputStream out;
+    private ConnectionInput in;
+    private HttpRequestParser parser;
+    private String IP;
+    private int requestNumber;
+
+    /**
+     * @param workers Executor the streams of HTTP/2 connections are handled on and connections are continued on after asynchronous handlers
+     */
+    public BlockingConnection(Socket socket, ConnectionSettings settings, RequestHandler handler, Executor workers) {
+        this.socket = socket;
+        this.settings = settings;
+        this.handler = handler;
+        this.workers = workers;
+    }
+
+    /**
+     * Checks the limits of the admission control for a newly accepted socket. Rejected sockets are answered with 503
+     * (plain connections only, a TLS handshake would block the accepting thread) and closed
+     * @return true if the connection may be handed to the executor
+     */
+    public static boolean admit(Socket socket, AdmissionControl admission) {
+        InetAddress address = socket.getInetAddress();
+        if(admission.tryOpenConnection(address)) {
+            if(admission.tryEnqueue()) return true;
+            admission.connectionClosed(address);
+        }
+
+        try(socket) {
+            if(!(socket instanceof SSLSocket)) {
+                // Closing with unread bytes resets the connection, which could discard the response before the client reads it
+                InputStream in = socket.getInputStream();
+                in.skip(in.available());
+                socket.getOutputStream().write(AdmissionControl.serviceUnavailable());
+                socket.shutdownOutput();
+            }
+        } catch(IOException ignored) {}
+        return false;
+    }
+
+    /**
+     * Serves the connection, it has to be admitted with {@link #admit(Socket, AdmissionControl)} before
+     */
+    @Override
+    public void run() {
+        settings.getAdmission().taskStarted();
+        settings.getMetrics().connectionOpened();
+        boolean suspended = false;
+        try {
+            out = new SocketOutput(socket);
+            socket.setSoTimeout(settings.getKeepAliveTimeout());
+            if(socket instanceof SSLSocket sslSocket) {
+                long startMillis = System.currentTimeMillis(), start = System.nanoTime();
+                sslSocket.startHandshake();
+                // A resumed session keeps the creation time of the handshake that established it
+                settings.getMetrics().recordTlsHandshake(System.nanoTime() - start, sslSocket.getSession().getCreationTime() < startMillis);
+            }
+            IP = socket.getInetAddress().getHostAddress();
+            in = new ConnectionInput(socket.getInputStream());
+            if(settings.isHttp2() && isHttp2(in)) {
+                new Http2Connection(socket, in, out, settings, handler, workers).serve();
+                return;
+            }
+            parser = settings.newParser();
+
+            suspended = serveRequests();
+        } catch (SocketTimeoutException | SocketException | SSLHandshakeException ignored) {
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if(!suspended) close();
+        }
+    }
+
+    /**
+     * Answers requests until the connection has to be closed or an asynchronous handler is pending
+     * @return true if the connection waits for an asynchronous handler, it is continued on a worker once the handler completed
+     */
+    private boolean serveRequests() throws IOException {
+        while(true) {
+            HttpRequestParser.Result result = readHead(in, parser, out);
+            if(result == HttpRequestParser.Result.INCOMPLETE) return false;
+
+            if(result == HttpRequestParser.Result.ERROR) {
+                ErrorResponse.write(out, parser.getErrorStatus());
+                return false;
+            }
+
+            RequestHead head = parser.getHead();
+            parser.reset();
+
+            BodyInputStream body = new BodyInputStream(in, head, out);
+            body.setTimeout(settings.getBodyTimeout());
+            CompletableFuture<Boolean> response;
+            try {
+                response = handler.handle(head, body, out, IP, ++requestNumber).toCompletableFuture();
+            } catch(IOException | RuntimeException e) {
+                if(body.isTimedOut()) settings.getMetrics().bodyTimeout();
+                throw e;
+            }
+
+            if(!response.isDone()) {
+                // The thread is released while an asynchronous handler waits, nothing is read from the connection in between
+                response.whenCompleteAsync((keepAlive, error) -> resume(body, error == null && keepAlive), workers);
+                return true;
+            }
+            if(!finishRequest(body, response.join())) return false;
+        }
+    }
+
+    /**
+     * Continues the connection after an asynchronous handler completed
+     */
+    private void resume(BodyInputStream body, boolean keepAlive) {
+        boolean suspended = false;
+        try {
+            suspended = finishRequest(body, keepAlive) && serveRequests();
+        } catch (SocketTimeoutException | SocketException ignored) {
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if(!suspended) close();
+        }
+    }
+
+    /**
+     * @return true if the connection can be kept open for the next request
+     */
+    private boolean finishRequest(BodyInputStream body, boolean keepAlive) throws IOException {
+        try {
+            out.flush();
+            return keepAlive && body.drain(MAX_DRAINED_BODY_SIZE);
+        } finally {
+            if(body.isTimedOut()) settings.getMetrics().bodyTimeout();
+        }
+    }
+
+    private void close() {
+        try {
+            if(out != null) out.close();
+        } catch(IOException ignored) {}
+        try {
+            socket.close();
+        } catch(IOException ignored) {}
+
+        settings.getMetrics().connectionClosed();
+        settings.getAdmission().connectionClosed(socket.getInetAddress());
+    }
+
+    /**
+     * @return true if ALPN selected h2, or a plain connection starts with the HTTP/2 preface (h2c with prior knowledge)
+     */
+    private boolean isHttp2(ConnectionInput in) throws IOException {
+        if(socket instanceof SSLSocket sslSocket) return "h2".equals(sslSocket.getApplicationProtocol());
+
+        ByteBuffer buffer = in.buffer();
+        while(buffer.remaining() < Http2Connection.PREFACE.length && Http2Connection.couldBePreface(buffer)) {
+            try {
+                if(!in.fill()) return false;
+            } catch(SocketTimeoutException e) {
+                if(!buffer.hasRemaining()) settings.getMetrics().idleTimeout();
+                throw e;
+            }
+        }
+        return Http2Connection.startsWithPreface(buffer);
+    }
+
+    /**
+     * Reads until the parser finished or failed. Once the first byte of a head arrived the rest has to follow within the
+     * header timeout, a client trickling its headers (slow loris) gets 408 instead of holding the thread
+     * @return result of the parser, {@link HttpRequestParser.Result#INCOMPLETE} if the connection has to be closed
+     */
+    private HttpRequestParser.Result readHead(ConnectionInput in, HttpRequestParser parser, OutputStream out) throws IOException {
+        int keepAliveTimeout = settings.getKeepAliveTimeout();
+        int headerTimeout = settings.getHeaderTimeout();
+        long deadline = 0;
+        boolean limitedByDeadline = false;
+
+        HttpRequestParser.Result result;
+        while((result = parser.parse(in.buffer())) == HttpRequestParser.Result.INCOMPLETE) {
+            if(headerTimeout > 0 && !parser.isIdle()) {
+                long now = System.nanoTime();
+                if(deadline == 0) deadline = now + TimeUnit.MILLISECONDS.toNanos(headerTimeout);
+
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - now);
+                if(remaining <= 0) return rejectSlowHead(out);
+
+                limitedByDeadline = remaining < keepAliveTimeout;
+                socket.setSoTimeout((int) (limitedByDeadline ? remaining : keepAliveTimeout));
+            }
+
+            try {
+                if(!in.fill()) return result;
+            } catch(SocketTimeoutException e) {
+                if(limitedByDeadline) return rejectSlowHead(out);
+                if(parser.isIdle()) settings.getMetrics().idleTimeout();
+                return result;
+            }
+        }
+
+        if(deadline != 0) socket.setSoTimeout(keepAliveTimeout);
+        return result;
+    }
+
+    private HttpRequestParser.Result rejectSlowHead(OutputStream out) throws IOException {
+        settings.getMetrics().headerTimeout();
+        ErrorResponse.write(out, 408);
+        return HttpRequestParser.Result.INCOMPLETE;
+    }
+}
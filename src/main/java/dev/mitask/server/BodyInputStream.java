@@ -0,0 +1,245 @@
+package dev.mitask.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request body read lazily from the connection. Decodes <code>Transfer-Encoding: chunked</code>,
+ * sends <code>100 Continue</code> on the first read if the client expects it and enforces a maximum length.
+ * @since 1.0.0
+ * @author MiTask
+ */
+public final class BodyInputStream extends InputStream {
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final int MAX_CHUNK_LINE_LENGTH = 4096;
+    // 16 hex digits already cover every size a long can hold
+    private static final int MAX_CHUNK_SIZE_DIGITS = 16;
+    private static final int MAX_TRAILER_SIZE = 16 * 1024;
+
+    private final InputStream in;
+    private final boolean chunked, untilEnd;
+    private final byte[] single = new byte[1];
+    private OutputStream continueOut;
+    private long maxLength = Long.MAX_VALUE;
+    private long remaining, consumed;
+    private long timeoutMillis, deadline;
+    private boolean timedOut;
+    private boolean finished;
+
+    /**
+     * @param in Connection input positioned at the first byte of the body
+     * @param head Head of the request the body belongs to
+     * @param out Connection output, used for 100 Continue
+     */
+    public BodyInputStream(InputStream in, RequestHead head, OutputStream out) {
+        this.in = in;
+        this.chunked = head.isChunked();
+        this.untilEnd = head.isUntilEnd();
+        this.remaining = chunked ? 0 : untilEnd ? Long.MAX_VALUE : Math.max(head.getContentLength(), 0);
+        this.finished = !chunked && remaining == 0;
+        this.continueOut = head.isExpectContinue() && head.isHttp11() && !finished ? out : null;
+    }
+
+    /**
+     * Sets the maximum amount of body bytes, reading past it throws {@link PayloadTooLargeException}.
+     * Trailers of chunked bodies count towards it too
+     */
+    public void setMaxLength(long maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Limits the time between the first read and the end of the body, reading after it throws {@link RequestTimeoutException}.
+     * Single reads are still bounded by the socket timeout of the connection only
+     * @param timeoutMillis 0 for no limit
+     */
+    public void setTimeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @return true if reading failed because the body timeout passed
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @return amount of body bytes read so far, without chunk framing
+     */
+    public long getBytesRead() {
+        return consumed;
+    }
+
+    /**
+     * @return true if the whole body was read
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if(length == 0) return 0;
+        if(finished) return -1;
+        checkDeadline();
+
+        sendContinue();
+        if(remaining == 0 && !nextChunk()) return -1;
+
+        int read = readInput(bytes, offset, (int) Math.min(length, remaining));
+        if(read == -1 && untilEnd) {
+            finished = true;
+            return -1;
+        }
+        if(read == -1) throw new EOFException("Connection closed before the request body was received");
+
+        remaining -= read;
+        consumed += read;
+        if(consumed > maxLength) throw new PayloadTooLargeException(maxLength);
+
+        if(remaining == 0) {
+            if(chunked) expectLineEnd();
+            else finished = true;
+        }
+        return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return finished ? 0 : (int) Math.min(in.available(), remaining);
+    }
+
+    /**
+     * Reads and discards the rest of the body, so the next request on the connection starts at the right byte
+     * @param limit Maximum amount of bytes to discard
+     * @return true if the body ended, false if the connection has to be closed instead
+     */
+    public boolean drain(long limit) throws IOException {
+        // Without 100 Continue the client might never send the body
+        if(continueOut != null) return false;
+
+        byte[] skipBuffer = new byte[(int) Math.min(8192, Math.max(limit, 1))];
+        long discarded = 0;
+        while(!finished) {
+            if(discarded > limit) return false;
+
+            int read = read(skipBuffer, 0, skipBuffer.length);
+            if(read == -1) break;
+            discarded += read;
+        }
+        return true;
+    }
+
+    private void checkDeadline() throws RequestTimeoutException {
+        if(timeoutMillis == 0) return;
+
+        long now = System.nanoTime();
+        if(deadline == 0) deadline = now + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        else if(now - deadline > 0) {
+            timedOut = true;
+            throw new RequestTimeoutException(timeoutMillis);
+        }
+    }
+
+    /**
+     * Reads from the connection. A read that stalls until the socket timeout counts as a body timeout too, so both are answered with 408
+     */
+    private int readInput(byte[] bytes, int offset, int length) throws IOException {
+        try {
+            return in.read(bytes, offset, length);
+        } catch(SocketTimeoutException e) {
+            throw timeout(e);
+        }
+    }
+
+    private int readInput() throws IOException {
+        try {
+            return in.read();
+        } catch(SocketTimeoutException e) {
+            throw timeout(e);
+        }
+    }
+
+    private RequestTimeoutException timeout(SocketTimeoutException e) {
+        timedOut = true;
+        return e instanceof RequestTimeoutException timeout ? timeout : new RequestTimeoutException(e);
+    }
+
+    private void sendContinue() throws IOException {
+        if(continueOut == null) return;
+
+        if(continueOut instanceof ResponseSink sink) sink.head(100, List.of());
+        else continueOut.write(CONTINUE);
+        continueOut.flush();
+        continueOut = null;
+    }
+
+    /**
+     * Reads the next chunk size line, and the trailers after the last chunk
+     * @return false if the last chunk was reached
+     */
+    private boolean nextChunk() throws IOException {
+        remaining = parseChunkSize(readLine());
+        if(remaining == 0) {
+            // Trailers are ignored, but still limited like the body
+            long trailerSize = 0;
+            for(String line = readLine(); !line.isEmpty(); line = readLine()) {
+                trailerSize += line.length() + 2;
+                if(trailerSize > MAX_TRAILER_SIZE) throw new IOException("Trailers are larger than " + MAX_TRAILER_SIZE + " bytes");
+                if(consumed + trailerSize > maxLength) throw new PayloadTooLargeException(maxLength);
+            }
+            finished = true;
+            return false;
+        }
+
+        if(consumed + remaining > maxLength) throw new PayloadTooLargeException(maxLength);
+        return true;
+    }
+
+    /**
+     * Parses "1*HEXDIG [ BWS ";" chunk-ext ]", signs and whitespace in front of the size are not allowed
+     */
+    private static long parseChunkSize(String line) throws IOException {
+        long size = 0;
+        int digits = 0;
+        while(digits < line.length()) {
+            int digit = Character.digit(line.charAt(digits), 16);
+            if(digit == -1) break;
+            if(++digits > MAX_CHUNK_SIZE_DIGITS || (size >>> 59) != 0) throw new IOException("Chunk size is too large: " + line);
+            size = size << 4 | digit;
+        }
+        if(digits == 0) throw new IOException("Invalid chunk size: " + line);
+
+        int end = digits;
+        while(end < line.length() && (line.charAt(end) == ' ' || line.charAt(end) == '\t')) end++;
+        if(end < line.length() && line.charAt(end) != ';') throw new IOException("Invalid chunk size: " + line);
+        return size;
+    }
+
+    private void expectLineEnd() throws IOException {
+        if(!readLine().isEmpty()) throw new IOException("Chunk data is longer than its declared size");
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while((b = readInput()) != '\n') {
+            if(b == -1) throw new EOFException("Connection closed before the request body was received");
+            if(b != '\r') line.append((char) b);
+            if(line.length() > MAX_CHUNK_LINE_LENGTH) throw new IOException("Chunk line is too long");
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,123 @@
+package dev.mitask.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes a response body with <code>Transfer-Encoding: chunked</code>. Bytes are collected until the buffer is full
+ * or {@link #flush()} is called and then sent as a single chunk, {@link #close()} ends the body but keeps the connection open.
+ * @since 1.0.0
+ * @author MiTask
+ */
+public final class ChunkedOutputStream extends OutputStream {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.ISO_8859_1);
+    // Room for the size line in front of the data (8 hex digits and CRLF)
+    private static final int PREFIX = 10;
+    // Room for the CRLF after the data and the last chunk
+    private static final int SUFFIX = CRLF.length + LAST_CHUNK.length;
+
+    private final OutputStream out;
+    // Chunk data starts at PREFIX, so size line, data and CRLF go out with a single write
+    private final byte[] buffer;
+    private final int capacity;
+    private int count;
+    private boolean closed;
+
+    /**
+     * @param out Connection output, positioned after the response headers
+     * @param bufferSize Maximum size of a chunk
+     */
+    public ChunkedOutputStream(OutputStream out, int bufferSize) {
+        if(bufferSize <= 0) throw new IllegalArgumentException("Buffer size must be positive!");
+
+        this.out = out;
+        this.capacity = bufferSize;
+        this.buffer = new byte[PREFIX + bufferSize + SUFFIX];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if(count == capacity) writeChunk(false);
+        buffer[PREFIX + count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+        if(length >= capacity) {
+            // Large writes become a chunk of their own instead of being copied through the buffer
+            writeChunk(false);
+            writeSizeLine(length);
+            out.write(bytes, offset, length);
+            out.write(CRLF);
+            return;
+        }
+
+        if(length > capacity - count) writeChunk(false);
+        System.arraycopy(bytes, offset, buffer, PREFIX + count, length);
+        count += length;
+    }
+
+    /**
+     * Sends the buffered bytes as a chunk and flushes the connection
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        writeChunk(false);
+        out.flush();
+    }
+
+    /**
+     * Sends the remaining bytes and the last chunk. The connection itself stays open
+     */
+    @Override
+    public void close() throws IOException {
+        if(closed) return;
+
+        closed = true;
+        writeChunk(true);
+        out.flush();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @param last Whether the last chunk should be appended to the same write
+     */
+    private void writeChunk(boolean last) throws IOException {
+        int start = PREFIX, end = PREFIX + count;
+
+        // An empty chunk would end the body, so it is only written as the last one
+        if(count > 0) {
+            buffer[--start] = '\n';
+            buffer[--start] = '\r';
+            for(int size = count; size != 0; size >>>= 4) buffer[--start] = HEX[size & 0xF];
+
+            buffer[end++] = '\r';
+            buffer[end++] = '\n';
+        }
+
+        if(last) {
+            System.arraycopy(LAST_CHUNK, 0, buffer, end, LAST_CHUNK.length);
+            end += LAST_CHUNK.length;
+        }
+
+        if(end > start) out.write(buffer, start, end - start);
+        count = 0;
+    }
+
+    private void writeSizeLine(int size) throws IOException {
+        out.write((Integer.toHexString(size) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private void ensureOpen() throws IOException {
+        if(closed) throw new IOException("Response body was already completed");
+    }
+}
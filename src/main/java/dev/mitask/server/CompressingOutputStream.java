@@ -0,0 +1,127 @@
+package dev.mitask.server;
+
+import dev.mitask.util.ContentEncoding;
+import dev.mitask.util.DeflaterPool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses a response body with gzip or deflate using a pooled {@link Deflater}.
+ * {@link #flush()} sends everything written so far (sync flush), {@link #close()} writes the trailer,
+ * returns the deflater to the pool and closes the underlying stream.
+ * @since 1.0.0
+ * @author MiTask
+ */
+public final class CompressingOutputStream extends OutputStream {
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    // CMF/FLG of a zlib stream with a 32K window and default compression
+    private static final byte[] ZLIB_HEADER = {0x78, (byte) 0x9c};
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final OutputStream out;
+    private final ContentEncoding encoding;
+    private final DeflaterPool pool;
+    private final Checksum checksum;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final byte[] single = new byte[1];
+    private Deflater deflater;
+
+    public CompressingOutputStream(OutputStream out, ContentEncoding encoding, DeflaterPool pool) throws IOException {
+        this.out = out;
+        this.encoding = encoding;
+        this.pool = pool;
+        this.checksum = encoding == ContentEncoding.GZIP ? new CRC32() : new Adler32();
+        this.deflater = pool.acquire();
+
+        out.write(encoding == ContentEncoding.GZIP ? GZIP_HEADER : ZLIB_HEADER);
+    }
+
+    /**
+     * Compresses the whole array at once, used for responses with a known length
+     */
+    public static byte[] encode(byte[] data, ContentEncoding encoding, DeflaterPool pool) throws IOException {
+        return encode(data, 0, data.length, encoding, pool);
+    }
+
+    public static byte[] encode(byte[] data, int offset, int length, ContentEncoding encoding, DeflaterPool pool) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(length / 3, 64));
+        try(CompressingOutputStream out = new CompressingOutputStream(compressed, encoding, pool)) {
+            out.write(data, offset, length);
+        }
+        return compressed.toByteArray();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+        if(length == 0) return;
+
+        checksum.update(bytes, offset, length);
+        deflater.setInput(bytes, offset, length);
+        while(!deflater.needsInput()) deflate(Deflater.NO_FLUSH);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+
+        int count;
+        do {
+            count = deflate(Deflater.SYNC_FLUSH);
+        } while(count == buffer.length);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(deflater == null) return;
+
+        try {
+            deflater.finish();
+            while(!deflater.finished()) deflate(Deflater.NO_FLUSH);
+            writeTrailer();
+        } finally {
+            pool.release(deflater);
+            deflater = null;
+        }
+        out.close();
+    }
+
+    private int deflate(int flush) throws IOException {
+        int count = deflater.deflate(buffer, 0, buffer.length, flush);
+        if(count > 0) out.write(buffer, 0, count);
+        return count;
+    }
+
+    private void writeTrailer() throws IOException {
+        long value = checksum.getValue();
+        if(encoding == ContentEncoding.GZIP) {
+            // CRC32 and uncompressed size, both little endian
+            writeIntLE((int) value);
+            writeIntLE((int) deflater.getBytesRead());
+        } else {
+            // Adler32 is big endian
+            out.write(new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value});
+        }
+    }
+
+    private void writeIntLE(int value) throws IOException {
+        out.write(new byte[]{(byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24)});
+    }
+
+    private void ensureOpen() throws IOException {
+        if(deflater == null) throw new IOException("Stream was already closed");
+    }
+}
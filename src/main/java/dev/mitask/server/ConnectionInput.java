@@ -0,0 +1,67 @@
+package dev.mitask.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Buffered input of a blocking connection. The request parser works directly on the buffer,
+ * body streams read whatever the parser left in it before reading from the socket again.
+ */
+class ConnectionInput extends InputStream {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InputStream in;
+    // In read mode, bytes between position and limit were not consumed yet
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).flip();
+
+    ConnectionInput(InputStream in) {
+        this.in = in;
+    }
+
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * Reads more bytes from the socket into the buffer, keeping unconsumed ones
+     * @return false if the client closed the connection
+     */
+    boolean fill() throws IOException {
+        buffer.compact();
+        try {
+            int read = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if(read == -1) return false;
+            buffer.position(buffer.position() + read);
+            return true;
+        } finally {
+            buffer.flip();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(!buffer.hasRemaining() && !fill()) return -1;
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if(length == 0) return 0;
+
+        if(!buffer.hasRemaining()) {
+            // Large reads bypass the buffer
+            if(length >= buffer.capacity()) return in.read(bytes, offset, length);
+            if(!fill()) return -1;
+        }
+
+        int count = Math.min(length, buffer.remaining());
+        buffer.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return buffer.remaining();
+    }
+}
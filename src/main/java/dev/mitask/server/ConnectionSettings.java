@@ -0,0 +1,68 @@
+package dev.mitask.server;
+
+import dev.mitask.metrics.Metrics;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Limits and timeouts shared by all connections of a server
+ * @since 1.0.0
+ * @author MiTask
+ */
+@Getter
+public class ConnectionSettings {
+    /**
+     * Time in milliseconds after which idle persistent connections are closed
+     */
+    private final int keepAliveTimeout;
+    /**
+     * Maximum amount of bytes of the request line and headers
+     */
+    private final int maxHeaderSize;
+    /**
+     * Maximum amount of header lines of a request
+     */
+    private final int maxHeaderCount;
+    /**
+     * Time in milliseconds a client has to send the complete request head after its first byte, 0 for no limit
+     */
+    private final int headerTimeout;
+    /**
+     * Time in milliseconds a client has to send the complete request body after the head, 0 for no limit
+     */
+    private final int bodyTimeout;
+    /**
+     * Whether connections may speak HTTP/2, negotiated with ALPN over TLS or started with the preface on plain connections
+     */
+    private final boolean http2;
+    /**
+     * Metrics the connections report to
+     */
+    private final Metrics metrics;
+    /**
+     * Connection and queue limits, created from the settings
+     */
+    private final AdmissionControl admission;
+
+    /**
+     * @param maxConnections Maximum amount of open connections, 0 for no limit
+     * @param maxConnectionsPerIp Maximum amount of open connections per client address, 0 for no limit
+     * @param maxQueuedRequests Maximum amount of requests waiting for a worker thread, 0 for no limit
+     * @param metrics null creates metrics only used by these connections
+     */
+    @Builder(setterPrefix = "set")
+    private ConnectionSettings(int keepAliveTimeout, int maxHeaderSize, int maxHeaderCount, int headerTimeout, int bodyTimeout, int maxConnections, int maxConnectionsPerIp, int maxQueuedRequests, boolean http2, Metrics metrics) {
+        this.keepAliveTimeout = keepAliveTimeout;
+        this.maxHeaderSize = maxHeaderSize;
+        this.maxHeaderCount = maxHeaderCount;
+        this.headerTimeout = headerTimeout;
+        this.bodyTimeout = bodyTimeout;
+        this.http2 = http2;
+        this.metrics = metrics == null ? new Metrics() : metrics;
+        this.admission = new AdmissionControl(maxConnections, maxConnectionsPerIp, maxQueuedRequests, this.metrics);
+    }
+
+    public HttpRequestParser newParser() {
+        return new HttpRequestParser(maxHeaderSize, maxHeaderCount);
+    }
+}
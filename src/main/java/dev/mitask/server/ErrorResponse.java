@@ -0,0 +1,50 @@
+package dev.mitask.server;
+
+import dev.mitask.util.HttpStatusCode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Minimal responses for requests that never reach the router (malformed or over the limits)
+ * @since 1.0.0
+ * @author MiTask
+ */
+public final class ErrorResponse {
+    private ErrorResponse() {}
+
+    /**
+     * @return encoded response with the status, an empty body and "Connection: close"
+     */
+    public static byte[] encode(int statusCode) {
+        return encode(statusCode, 0);
+    }
+
+    /**
+     * @param retryAfter Seconds after which the client may retry, sent as Retry-After. 0 omits the header
+     * @return encoded response with the status, an empty body and "Connection: close"
+     */
+    public static byte[] encode(int statusCode, int retryAfter) {
+        String statusMessage = HttpStatusCode.STATUS_CODES.getOrDefault(statusCode, "");
+        String retry = retryAfter > 0 ? "Retry-After: " + retryAfter + "\r\n" : "";
+        return ("HTTP/1.1 " + statusCode + " " + statusMessage + "\r\nContent-Length: 0\r\n" + retry + "Connection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    public static void write(OutputStream out, int statusCode) throws IOException {
+        write(out, statusCode, 0);
+    }
+
+    /**
+     * Writes the response of {@link #encode(int, int)}. A {@link ResponseSink} gets it without "Connection: close"
+     */
+    public static void write(OutputStream out, int statusCode, int retryAfter) throws IOException {
+        if(out instanceof ResponseSink sink) {
+            sink.head(statusCode, retryAfter > 0 ? List.of("Content-Length", "0", "Retry-After", Integer.toString(retryAfter)) : List.of("Content-Length", "0"));
+        } else {
+            out.write(encode(statusCode, retryAfter));
+        }
+        out.flush();
+    }
+}
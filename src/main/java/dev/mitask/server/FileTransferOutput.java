@@ -0,0 +1,102 @@
+package dev.mitask.server;
+
+import dev.mitask.util.BufferPool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Implemented by connection output streams which can send files and memory mapped buffers without copying them through the heap.
+ * @since 1.0.0
+ * @author MiTask
+ */
+public interface FileTransferOutput {
+    /**
+     * Writes part of a file to the client after everything written to the stream before.
+     * The file channel is owned by the output afterwards and closed once the transfer finished or failed.
+     * @param file File to send
+     * @param position Index of the first byte to send
+     * @param count Amount of bytes to send
+     */
+    void transferFile(FileChannel file, long position, long count) throws IOException;
+
+    /**
+     * Writes the remaining bytes of a buffer, e.g. a slice of a memory mapped file, to the client after everything written to the stream before.
+     * The buffer is not copied where the connection can write it directly, so its content must not change afterwards
+     */
+    void transferBuffer(ByteBuffer buffer) throws IOException;
+
+    /**
+     * @return amount of bytes written to the connection so far, including transferred files
+     */
+    long getBytesWritten();
+
+    /**
+     * Sends part of a file through any output stream, using {@link #transferFile} when supported
+     * and a copy loop over pooled buffers otherwise. The file channel is closed afterwards.
+     */
+    static void transfer(FileChannel file, long position, long count, OutputStream out) throws IOException {
+        if(out instanceof FileTransferOutput transferOutput) {
+            transferOutput.transferFile(file, position, count);
+            return;
+        }
+
+        try(file) {
+            copy(file, position, count, out);
+        }
+    }
+
+    /**
+     * Sends the remaining bytes of a buffer through any output stream, using {@link #transferBuffer} when supported
+     */
+    static void transfer(ByteBuffer buffer, OutputStream out) throws IOException {
+        if(out instanceof FileTransferOutput transferOutput) transferOutput.transferBuffer(buffer);
+        else copy(buffer, out);
+    }
+
+    /**
+     * Copies the remaining bytes of a buffer into the stream through a pooled array
+     */
+    static void copy(ByteBuffer buffer, OutputStream out) throws IOException {
+        if(buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+
+        ByteBuffer chunk = BufferPool.DEFAULT.acquire();
+        try {
+            while(buffer.hasRemaining()) {
+                int length = Math.min(buffer.remaining(), chunk.capacity());
+                buffer.get(chunk.array(), chunk.arrayOffset(), length);
+                out.write(chunk.array(), chunk.arrayOffset(), length);
+            }
+        } finally {
+            BufferPool.DEFAULT.release(chunk);
+        }
+    }
+
+    /**
+     * Copies part of a file into the stream. Memory use is bounded by the pooled buffer size whatever the file size
+     */
+    static void copy(FileChannel file, long position, long count, OutputStream out) throws IOException {
+        ByteBuffer buffer = BufferPool.DEFAULT.acquire();
+        try {
+            long end = position + count;
+            while(position < end) {
+                buffer.clear();
+                if(end - position < buffer.capacity()) buffer.limit((int) (end - position));
+
+                int read = file.read(buffer, position);
+                if(read == -1) throw new IOException("File ended before " + count + " bytes could be sent");
+
+                out.write(buffer.array(), buffer.arrayOffset(), read);
+                position += read;
+            }
+        } finally {
+            BufferPool.DEFAULT.release(buffer);
+        }
+    }
+}
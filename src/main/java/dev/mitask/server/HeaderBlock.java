@@ -0,0 +1,201 @@
+package dev.mitask.server;
+
+import dev.mitask.util.BufferPool;
+import dev.mitask.util.HttpDate;
+import dev.mitask.util.HttpStatusCode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes a response head (and a small body) into a pooled buffer, so it reaches the connection with a single write.
+ * Status lines and common header names are encoded once, the Date header once per second.
+ * Outputs that are a {@link ResponseSink} get status and header fields as they are instead, body bytes are written to them directly.
+ * @since 1.0.0
+ * @author MiTask
+ */
+public final class HeaderBlock {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] SEPARATOR = {':', ' '};
+    private static final byte[] DATE = "Date: ".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[][] STATUS_LINES = new byte[600][];
+    private static final Map<String, byte[]> NAMES = new HashMap<>();
+
+    static {
+        HttpStatusCode.STATUS_CODES.forEach((code, message) -> {
+            if(code < STATUS_LINES.length) STATUS_LINES[code] = encodeStatusLine(code);
+        });
+
+        for(String name : new String[]{
+                "Accept-Ranges", "Cache-Control", "Connection", "Content-Disposition", "Content-Encoding", "Content-Language", "Content-Length", "Content-Range",
+                "Content-Type", "ETag", "Expires", "Last-Modified", "Location", "Retry-After", "Set-Cookie", "Transfer-Encoding", "Vary"
+        }) {
+            NAMES.put(name, (name + ": ").getBytes(StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    private final OutputStream out;
+    private final ResponseSink sink;
+    private ByteBuffer buffer;
+    private byte[] array;
+    private int position;
+    // Head collected for the sink
+    private int statusCode;
+    private List<String> fields;
+
+    /**
+     * @param out Connection output the block is written to by {@link #send()}
+     */
+    public HeaderBlock(OutputStream out) {
+        this.out = out;
+        if(out instanceof ResponseSink responseSink) {
+            this.sink = responseSink;
+            this.fields = new ArrayList<>();
+        } else {
+            this.sink = null;
+            this.buffer = BufferPool.DEFAULT.acquire();
+            this.array = buffer.array();
+        }
+    }
+
+    /**
+     * Starts the block with the status line and the Date header
+     */
+    public HeaderBlock status(int statusCode) throws IOException {
+        if(sink != null) {
+            this.statusCode = statusCode;
+            return field("Date", HttpDate.current());
+        }
+
+        byte[] statusLine = statusCode >= 0 && statusCode < STATUS_LINES.length ? STATUS_LINES[statusCode] : null;
+        write(statusLine == null ? encodeStatusLine(statusCode) : statusLine);
+        write(DATE);
+        write(HttpDate.currentBytes());
+        return write(CRLF);
+    }
+
+    public HeaderBlock header(String name, String value) throws IOException {
+        if(sink != null) return field(name, value);
+
+        byte[] encodedName = NAMES.get(name);
+        if(encodedName != null) {
+            write(encodedName);
+        } else {
+            writeText(name);
+            write(SEPARATOR);
+        }
+
+        writeText(value);
+        return write(CRLF);
+    }
+
+    /**
+     * Adds header lines that were already encoded, each ending with CRLF
+     */
+    public HeaderBlock headers(byte[] encoded) throws IOException {
+        if(sink == null) return write(encoded);
+
+        // Blocks encoded by the server itself ("Name: value" lines), kept encoded for HTTP/1.1
+        String lines = new String(encoded, StandardCharsets.UTF_8);
+        for(int start = 0, end; (end = lines.indexOf("\r\n", start)) != -1; start = end + 2) {
+            int colon = lines.indexOf(':', start);
+            if(colon != -1 && colon < end) field(lines.substring(start, colon), lines.substring(colon + 1, end).trim());
+        }
+        return this;
+    }
+
+    /**
+     * Ends the header block with an empty line
+     */
+    public HeaderBlock end() throws IOException {
+        if(sink == null) return write(CRLF);
+
+        sink.head(statusCode, fields);
+        return this;
+    }
+
+    /**
+     * Appends body bytes. Bytes that do not fit in the buffer are written to the connection directly
+     */
+    public HeaderBlock body(byte[] bytes, int offset, int length) throws IOException {
+        if(sink == null) return write(bytes, offset, length);
+
+        out.write(bytes, offset, length);
+        return this;
+    }
+
+    /**
+     * Writes everything collected so far to the connection and returns the buffer to the pool.
+     * The block can not be used afterwards
+     */
+    public void send() throws IOException {
+        if(sink != null) return;
+
+        try {
+            if(position > 0) out.write(array, 0, position);
+        } finally {
+            BufferPool.DEFAULT.release(buffer);
+            buffer = null;
+            array = null;
+        }
+    }
+
+    private HeaderBlock field(String name, String value) {
+        fields.add(name);
+        fields.add(value);
+        return this;
+    }
+
+    private HeaderBlock write(byte[] bytes) throws IOException {
+        return write(bytes, 0, bytes.length);
+    }
+
+    private HeaderBlock write(byte[] bytes, int offset, int length) throws IOException {
+        if(length > array.length - position) {
+            out.write(array, 0, position);
+            position = 0;
+
+            if(length > array.length) {
+                out.write(bytes, offset, length);
+                return this;
+            }
+        }
+
+        System.arraycopy(bytes, offset, array, position, length);
+        position += length;
+        return this;
+    }
+
+    /**
+     * Header text is almost always ASCII and copied char by char, anything else is encoded as UTF-8
+     */
+    private void writeText(String text) throws IOException {
+        int length = text.length();
+        if(length > array.length - position) {
+            write(text.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+
+        int start = position;
+        for(int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if(c >= 0x80) {
+                position = start;
+                write(text.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            array[position++] = (byte) c;
+        }
+    }
+
+    private static byte[] encodeStatusLine(int statusCode) {
+        String statusMessage = HttpStatusCode.STATUS_CODES.getOrDefault(statusCode, "");
+        return ("HTTP/1.1 " + statusCode + " " + statusMessage + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,102 @@
+package dev.mitask.server;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Table of well known header names. Received names are matched case-insensitively against it,
+ * so common headers are stored under one canonical String instance without allocating a new one per request.
+ * Other names are capitalised word by word ("x-request-id" becomes "X-Request-Id"), so handlers find every header
+ * under the same name whether it arrived over HTTP/1.1 as sent by the client or lowercase over HTTP/2.
+ * @since 1.0.0
+ * @author MiTask
+ */
+public final class HeaderNames {
+    private static final String[] NAMES = {
+            "Accept", "Accept-Charset", "Accept-Encoding", "Accept-Language", "Authorization", "Cache-Control",
+            "Connection", "Content-Encoding", "Content-Length", "Content-Type", "Cookie", "Date", "DNT", "Expect",
+            "Forwarded", "Host", "HTTP2-Settings", "If-Match", "If-Modified-Since", "If-None-Match", "If-Range",
+            "If-Unmodified-Since", "Keep-Alive", "Origin", "Pragma", "Priority", "Range", "Referer",
+            "Sec-CH-UA", "Sec-CH-UA-Mobile", "Sec-CH-UA-Platform", "Sec-Fetch-Dest", "Sec-Fetch-Mode",
+            "Sec-Fetch-Site", "Sec-Fetch-User", "TE", "Transfer-Encoding", "Upgrade", "Upgrade-Insecure-Requests",
+            "User-Agent", "Via", "X-Forwarded-For", "X-Forwarded-Host", "X-Forwarded-Proto", "X-Real-IP",
+            "X-Requested-With"
+    };
+    private static final int TABLE_SIZE = 256;
+    private static final String[] TABLE = new String[TABLE_SIZE];
+    private static final byte[][] TABLE_BYTES = new byte[TABLE_SIZE][];
+
+    static {
+        for(String name : NAMES) {
+            byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+            int slot = hash(bytes, 0, bytes.length) & (TABLE_SIZE - 1);
+            while(TABLE[slot] != null) slot = (slot + 1) & (TABLE_SIZE - 1);
+            TABLE[slot] = name;
+            TABLE_BYTES[slot] = bytes;
+        }
+    }
+
+    private HeaderNames() {}
+
+    /**
+     * @return canonical name of a well known header or null if the name is not in the table
+     */
+    public static String lookup(byte[] bytes, int offset, int length) {
+        int slot = hash(bytes, offset, length) & (TABLE_SIZE - 1);
+        String name;
+        while((name = TABLE[slot]) != null) {
+            if(equalsIgnoreCase(TABLE_BYTES[slot], bytes, offset, length)) return name;
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        return null;
+    }
+
+    /**
+     * @return canonical name of a well known header or a new String with the capitalised received name
+     */
+    public static String intern(byte[] bytes, int offset, int length) {
+        String name = lookup(bytes, offset, length);
+        return name != null ? name : capitalise(bytes, offset, length);
+    }
+
+    /**
+     * @return canonical name of a well known header or the capitalised given name
+     */
+    public static String intern(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.ISO_8859_1);
+        String known = lookup(bytes, 0, bytes.length);
+        return known != null ? known : capitalise(bytes, 0, bytes.length);
+    }
+
+    private static String capitalise(byte[] bytes, int offset, int length) {
+        byte[] name = new byte[length];
+        boolean wordStart = true;
+        for(int i = 0; i < length; i++) {
+            byte b = bytes[offset + i];
+            if(wordStart && b >= 'a' && b <= 'z') b -= 32;
+            else if(!wordStart && b >= 'A' && b <= 'Z') b += 32;
+            name[i] = b;
+            wordStart = b == '-';
+        }
+        return new String(name, StandardCharsets.ISO_8859_1);
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = length;
+        for(int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + toLowerCase(bytes[i]);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equalsIgnoreCase(byte[] name, byte[] bytes, int offset, int length) {
+        if(name.length != length) return false;
+        for(int i = 0; i < length; i++) {
+            if(toLowerCase(name[i]) != toLowerCase(bytes[offset + i])) return false;
+        }
+        return true;
+    }
+
+    static int toLowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + 32 : b;
+    }
+}
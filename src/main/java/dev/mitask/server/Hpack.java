@@ -0,0 +1,125 @@
+package dev.mitask.server;
+
+/**
+ * Header tables shared by {@link HpackDecoder} and {@link HpackEncoder} (RFC 7541)
+ */
+final class Hpack {
+    /**
+     * Default size of the dynamic table, the server neither announces nor accepts a larger one
+     */
+    static final int DEFAULT_TABLE_SIZE = 4096;
+    /**
+     * Overhead counted for every entry on top of the octets of its name and value
+     */
+    static final int ENTRY_OVERHEAD = 32;
+
+    /**
+     * Static table, entry i has index i + 1
+     */
+    static final String[][] STATIC_TABLE = {
+            {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"}, {":path", "/index.html"},
+            {":scheme", "http"}, {":scheme", "https"}, {":status", "200"}, {":status", "204"}, {":status", "206"},
+            {":status", "304"}, {":status", "400"}, {":status", "404"}, {":status", "500"}, {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"}, {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""},
+            {"access-control-allow-origin", ""}, {"age", ""}, {"allow", ""}, {"authorization", ""}, {"cache-control", ""},
+            {"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""}, {"content-length", ""},
+            {"content-location", ""}, {"content-range", ""}, {"content-type", ""}, {"cookie", ""}, {"date", ""},
+            {"etag", ""}, {"expect", ""}, {"expires", ""}, {"from", ""}, {"host", ""}, {"if-match", ""},
+            {"if-modified-since", ""}, {"if-none-match", ""}, {"if-range", ""}, {"if-unmodified-since", ""},
+            {"last-modified", ""}, {"link", ""}, {"location", ""}, {"max-forwards", ""}, {"proxy-authenticate", ""},
+            {"proxy-authorization", ""}, {"range", ""}, {"referer", ""}, {"refresh", ""}, {"retry-after", ""},
+            {"server", ""}, {"set-cookie", ""}, {"strict-transport-security", ""}, {"transfer-encoding", ""},
+            {"user-agent", ""}, {"vary", ""}, {"via", ""}, {"www-authenticate", ""}
+    };
+
+    private Hpack() {}
+
+    /**
+     * Dynamic table kept in a ring buffer. Entry 0 is the most recently added one and has index 62
+     */
+    static final class DynamicTable {
+        private String[] names = new String[16];
+        private String[] values = new String[16];
+        private int[] sizes = new int[16];
+        // Slot the next entry is added to
+        private int next;
+        private int length, size, maxSize;
+
+        DynamicTable(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        int length() {
+            return length;
+        }
+
+        int maxSize() {
+            return maxSize;
+        }
+
+        String name(int entry) {
+            return names[slot(entry)];
+        }
+
+        String value(int entry) {
+            return values[slot(entry)];
+        }
+
+        /**
+         * @param entrySize Octets of name and value plus {@link #ENTRY_OVERHEAD}
+         */
+        void add(String name, String value, int entrySize) {
+            // An entry larger than the table empties it and is not added
+            evict(maxSize - entrySize);
+            if(entrySize > maxSize) return;
+
+            if(length == names.length) grow();
+            names[next] = name;
+            values[next] = value;
+            sizes[next] = entrySize;
+            next = (next + 1) & (names.length - 1);
+            length++;
+            size += entrySize;
+        }
+
+        void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            evict(maxSize);
+        }
+
+        private int slot(int entry) {
+            return (next - 1 - entry) & (names.length - 1);
+        }
+
+        /**
+         * Removes the oldest entries until the table takes at most the given size
+         */
+        private void evict(int targetSize) {
+            while(length > 0 && size > targetSize) {
+                int oldest = slot(length - 1);
+                size -= sizes[oldest];
+                names[oldest] = null;
+                values[oldest] = null;
+                length--;
+            }
+        }
+
+        private void grow() {
+            int capacity = names.length;
+            String[] grownNames = new String[capacity * 2], grownValues = new String[capacity * 2];
+            int[] grownSizes = new int[capacity * 2];
+            // Oldest entry first, so the ring starts at slot 0 again
+            for(int i = 0; i < length; i++) {
+                int slot = slot(length - 1 - i);
+                grownNames[i] = names[slot];
+                grownValues[i] = values[slot];
+                grownSizes[i] = sizes[slot];
+            }
+
+            names = grownNames;
+            values = grownValues;
+            sizes = grownSizes;
+            next = length;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package dev.mitask.server;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes HPACK header blocks (RFC 7541) of one connection. The dynamic table lives as long as the connection,
+ * so every block has to be decoded in the order it was received, even if its stream is refused
+ */
+final class HpackDecoder {
+    @FunctionalInterface
+    interface HeaderListener {
+        /**
+         * @param name Name as sent (lowercase for valid HTTP/2 requests)
+         * @param value Value decoded as UTF-8
+         */
+        void header(String name, String value);
+    }
+
+    private final Hpack.DynamicTable table = new Hpack.DynamicTable(Hpack.DEFAULT_TABLE_SIZE);
+    private byte[] block;
+    private int position, end;
+    // Octets of the last string read, the table counts octets rather than chars
+    private int stringLength;
+
+    /**
+     * Decodes a complete header block (HEADERS and CONTINUATION fragments joined)
+     */
+    void decode(byte[] block, int offset, int length, HeaderListener listener) throws Http2Exception {
+        this.block = block;
+        this.position = offset;
+        this.end = offset + length;
+        boolean headerSeen = false;
+
+        try {
+            while(position < end) {
+                int b = block[position] & 0xFF;
+                if((b & 0x80) != 0) {
+                    int index = readInt(7);
+                    if(index == 0) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Invalid header index 0");
+                    listener.header(name(index), value(index));
+                } else if((b & 0x40) != 0) {
+                    // Literal with incremental indexing
+                    int index = readInt(6);
+                    String name = index == 0 ? readString(false) : name(index);
+                    int nameLength = index == 0 ? stringLength : name.length();
+                    String value = readString(true);
+                    table.add(name, value, Hpack.ENTRY_OVERHEAD + nameLength + stringLength);
+                    listener.header(name, value);
+                } else if((b & 0x20) != 0) {
+                    if(headerSeen) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Table size update after a header");
+
+                    int maxSize = readInt(5);
+                    if(maxSize > Hpack.DEFAULT_TABLE_SIZE) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Table size " + maxSize + " is over the limit");
+                    table.setMaxSize(maxSize);
+                    continue;
+                } else {
+                    // Literal without indexing or never indexed, both are only passed on
+                    int index = readInt(4);
+                    String name = index == 0 ? readString(false) : name(index);
+                    listener.header(name, readString(true));
+                }
+                headerSeen = true;
+            }
+        } finally {
+            this.block = null;
+        }
+    }
+
+    private String name(int index) throws Http2Exception {
+        if(index <= Hpack.STATIC_TABLE.length) return Hpack.STATIC_TABLE[index - 1][0];
+        return table.name(dynamicEntry(index));
+    }
+
+    private String value(int index) throws Http2Exception {
+        if(index <= Hpack.STATIC_TABLE.length) return Hpack.STATIC_TABLE[index - 1][1];
+        return table.value(dynamicEntry(index));
+    }
+
+    private int dynamicEntry(int index) throws Http2Exception {
+        int entry = index - Hpack.STATIC_TABLE.length - 1;
+        if(entry >= table.length()) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Header index " + index + " is not in the table");
+        return entry;
+    }
+
+    /**
+     * Reads an integer with an N-bit prefix, the current byte holds the prefix
+     */
+    private int readInt(int prefixBits) throws Http2Exception {
+        int mask = (1 << prefixBits) - 1;
+        int value = block[position++] & mask;
+        if(value < mask) return value;
+
+        int shift = 0;
+        while(true) {
+            if(position == end) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Header block ends inside an integer");
+
+            int b = block[position++] & 0xFF;
+            value += (b & 0x7F) << shift;
+            if(value < 0 || shift > 21) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Integer is too large");
+            if((b & 0x80) == 0) return value;
+            shift += 7;
+        }
+    }
+
+    /**
+     * @param utf8 Whether the octets are decoded as UTF-8 (values) or ISO-8859-1 (names)
+     */
+    private String readString(boolean utf8) throws Http2Exception {
+        if(position == end) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Header block ends before a string");
+
+        boolean huffman = (block[position] & 0x80) != 0;
+        int length = readInt(7);
+        if(length > end - position) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "String is longer than the header block");
+
+        byte[] bytes = block;
+        int offset = position;
+        position += length;
+        if(huffman) {
+            bytes = Huffman.decode(block, offset, length);
+            offset = 0;
+            length = bytes.length;
+        }
+
+        stringLength = length;
+        return new String(bytes, offset, length, utf8 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+    }
+}
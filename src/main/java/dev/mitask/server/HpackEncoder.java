@@ -0,0 +1,161 @@
+package dev.mitask.server;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Encodes response header blocks with HPACK (RFC 7541). Headers repeated across responses of a connection
+ * (content type, cache and security headers, the date within the same second) are sent as a single table index.
+ * Header blocks have to reach the client in the order they were encoded, which the connection guarantees by
+ * encoding them while holding its write lock
+ */
+final class HpackEncoder {
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+    private static final Map<String, Integer> STATIC_ENTRIES = new HashMap<>();
+    // Values are unique per response, indexing them would only evict useful entries
+    private static final Set<String> NOT_INDEXED = Set.of("content-length", "content-range", "etag", "last-modified", "age", "location");
+    // Never indexed, not even by intermediaries (RFC 7541, section 7.1.3)
+    private static final Set<String> NEVER_INDEXED = Set.of("set-cookie");
+
+    static {
+        for(int i = Hpack.STATIC_TABLE.length - 1; i >= 0; i--) {
+            String[] entry = Hpack.STATIC_TABLE[i];
+            STATIC_NAMES.put(entry[0], i + 1);
+            if(!entry[1].isEmpty()) STATIC_ENTRIES.put(entry[0] + '\n' + entry[1], i + 1);
+        }
+    }
+
+    private final Hpack.DynamicTable table = new Hpack.DynamicTable(Hpack.DEFAULT_TABLE_SIZE);
+    // Smallest and last table size set by the client since the previous block, -1 if unchanged
+    private int smallestMaxSize = -1, lastMaxSize = -1;
+    private byte[] buffer = new byte[512];
+    private int length;
+
+    /**
+     * Applies SETTINGS_HEADER_TABLE_SIZE of the client, the change is announced at the start of the next block
+     */
+    void setMaxTableSize(int maxSize) {
+        maxSize = Math.min(maxSize, Hpack.DEFAULT_TABLE_SIZE);
+        smallestMaxSize = smallestMaxSize == -1 ? maxSize : Math.min(smallestMaxSize, maxSize);
+        lastMaxSize = maxSize;
+    }
+
+    /**
+     * Starts a new header block, discarding the previous one
+     */
+    void begin() {
+        length = 0;
+        if(lastMaxSize == -1) return;
+
+        // A size lowered and raised again has to be announced twice, so the client evicts the same entries
+        if(smallestMaxSize < lastMaxSize) writeSizeUpdate(smallestMaxSize);
+        writeSizeUpdate(lastMaxSize);
+        smallestMaxSize = lastMaxSize = -1;
+    }
+
+    /**
+     * @param name Lowercase name
+     * @param value Value, each char is one octet (ISO-8859-1)
+     */
+    void header(String name, String value) {
+        int index = find(name, value);
+        if(index != 0) {
+            writeInt(0x80, 7, index);
+            return;
+        }
+
+        int nameIndex = findName(name);
+        int entrySize = Hpack.ENTRY_OVERHEAD + name.length() + value.length();
+        if(NEVER_INDEXED.contains(name)) {
+            writeInt(0x10, 4, nameIndex);
+        } else if(NOT_INDEXED.contains(name) || entrySize > table.maxSize() / 2) {
+            writeInt(0x00, 4, nameIndex);
+        } else {
+            writeInt(0x40, 6, nameIndex);
+            table.add(name, value, entrySize);
+        }
+
+        if(nameIndex == 0) writeString(name);
+        writeString(value);
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * @return index of the entry with the name and value, 0 if neither table has it
+     */
+    private int find(String name, String value) {
+        for(int i = 0; i < table.length(); i++) {
+            if(table.value(i).equals(value) && table.name(i).equals(name)) return Hpack.STATIC_TABLE.length + 1 + i;
+        }
+
+        Integer index = STATIC_ENTRIES.get(name + '\n' + value);
+        return index == null ? 0 : index;
+    }
+
+    private int findName(String name) {
+        Integer index = STATIC_NAMES.get(name);
+        if(index != null) return index;
+
+        for(int i = 0; i < table.length(); i++) {
+            if(table.name(i).equals(name)) return Hpack.STATIC_TABLE.length + 1 + i;
+        }
+        return 0;
+    }
+
+    private void writeSizeUpdate(int maxSize) {
+        table.setMaxSize(maxSize);
+        writeInt(0x20, 5, maxSize);
+    }
+
+    /**
+     * Writes an integer with an N-bit prefix, the bits above the prefix are taken from the flags
+     */
+    private void writeInt(int flags, int prefixBits, int value) {
+        ensureCapacity(6);
+        int mask = (1 << prefixBits) - 1;
+        if(value < mask) {
+            buffer[length++] = (byte) (flags | value);
+            return;
+        }
+
+        buffer[length++] = (byte) (flags | mask);
+        value -= mask;
+        while(value >= 0x80) {
+            buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[length++] = (byte) value;
+    }
+
+    /**
+     * Writes the string Huffman encoded if that makes it shorter
+     */
+    private void writeString(String text) {
+        int huffmanLength = Huffman.encodedLength(text);
+        if(huffmanLength < text.length()) {
+            writeInt(0x80, 7, huffmanLength);
+            ensureCapacity(huffmanLength);
+            length = Huffman.encode(text, buffer, length);
+            return;
+        }
+
+        writeInt(0x00, 7, text.length());
+        ensureCapacity(text.length());
+        for(int i = 0; i < text.length(); i++) {
+            buffer[length++] = (byte) text.charAt(i);
+        }
+    }
+
+    private void ensureCapacity(int needed) {
+        if(buffer.length - length < needed) buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + needed));
+    }
+}
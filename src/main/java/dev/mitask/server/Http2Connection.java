@@ -0,0 +1,819 @@
+package dev.mitask.server;
+
+import dev.mitask.util.HttpMethod;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * HTTP/2 connection (RFC 9113), used for h2 negotiated with ALPN on TLS connections and for h2c with prior knowledge
+ * on plain ones. One thread reads frames, every stream is handled on the executor like a request of an HTTP/1.1
+ * connection, so routes, middlewares and responses work unchanged (see {@link Http2Stream}).
+ * Response frames of all streams share one buffered output guarded by a lock, their DATA frames are bounded
+ * by the flow control windows of the client.
+ */
+final class Http2Connection {
+    static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    static final int DEFAULT_WINDOW_SIZE = 65535;
+    /**
+     * Largest frame accepted and sent by the server
+     */
+    static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+
+    private static final int DATA = 0x0, HEADERS = 0x1, PRIORITY = 0x2, RST_STREAM = 0x3, SETTINGS = 0x4, PUSH_PROMISE = 0x5,
+            PING = 0x6, GOAWAY = 0x7, WINDOW_UPDATE = 0x8, CONTINUATION = 0x9;
+    private static final int FLAG_END_STREAM = 0x1, FLAG_ACK = 0x1, FLAG_END_HEADERS = 0x4, FLAG_PADDED = 0x8, FLAG_PRIORITY = 0x20;
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1, SETTINGS_ENABLE_PUSH = 0x2, SETTINGS_MAX_CONCURRENT_STREAMS = 0x3,
+            SETTINGS_INITIAL_WINDOW_SIZE = 0x4, SETTINGS_MAX_FRAME_SIZE = 0x5, SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+    private static final int FRAME_HEADER_SIZE = 9;
+    private static final int MAX_CONCURRENT_STREAMS = 100;
+    // Window for request bodies of all streams together, opened right after the preface
+    private static final int CONNECTION_WINDOW_SIZE = 1024 * 1024;
+    private static final int MAX_HEADER_BLOCK_SIZE = 256 * 1024;
+    private static final HttpMethod[] METHODS = HttpMethod.values();
+
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final ConnectionSettings settings;
+    private final RequestHandler handler;
+    private final Executor workers;
+    private final String IP;
+    private final Map<Integer, Http2Stream> streams = new ConcurrentHashMap<>();
+
+    // Owned by the reading thread
+    private final byte[] frameHeader = new byte[FRAME_HEADER_SIZE];
+    private final byte[] payload = new byte[DEFAULT_MAX_FRAME_SIZE];
+    private final HpackDecoder decoder = new HpackDecoder();
+    private byte[] headerBlock = new byte[1024];
+    private int headerBlockLength, headerStreamId, headerFlags;
+    private boolean expectContinuation;
+    private int lastStreamId, requestCount;
+
+    // Guarded by writeLock, the encoder state depends on the order header blocks are sent in
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final byte[] writeHeader = new byte[FRAME_HEADER_SIZE];
+    private final HpackEncoder encoder = new HpackEncoder();
+
+    // Guarded by flowLock
+    private final ReentrantLock flowLock = new ReentrantLock();
+    private final Condition windowOpened = flowLock.newCondition();
+    private final Condition streamClosed = flowLock.newCondition();
+    private int connectionSendWindow = DEFAULT_WINDOW_SIZE;
+    private int initialStreamWindow = DEFAULT_WINDOW_SIZE;
+    private volatile boolean closed;
+
+    private final AtomicInteger connectionReceiveWindow = new AtomicInteger(CONNECTION_WINDOW_SIZE);
+    private final AtomicInteger connectionUnacknowledged = new AtomicInteger();
+
+    /**
+     * @param in Input positioned at the client connection preface
+     * @param out Connection output, buffered by the connection itself
+     * @param workers Executor the streams are handled on
+     */
+    Http2Connection(Socket socket, InputStream in, OutputStream out, ConnectionSettings settings, RequestHandler handler, Executor workers) {
+        this.socket = socket;
+        this.in = in;
+        this.out = new BufferedOutputStream(out, FRAME_HEADER_SIZE + DEFAULT_MAX_FRAME_SIZE);
+        this.settings = settings;
+        this.handler = handler;
+        this.workers = workers;
+        this.IP = socket.getInetAddress().getHostAddress();
+    }
+
+    /**
+     * @return true if the buffer (between position and limit) starts with the complete client connection preface
+     */
+    static boolean startsWithPreface(ByteBuffer buffer) {
+        return buffer.remaining() >= PREFACE.length && couldBePreface(buffer);
+    }
+
+    /**
+     * @return true if the bytes received so far match the start of the client connection preface
+     */
+    static boolean couldBePreface(ByteBuffer buffer) {
+        int length = Math.min(buffer.remaining(), PREFACE.length);
+        int start = buffer.arrayOffset() + buffer.position();
+        return Arrays.equals(buffer.array(), start, start + length, PREFACE, 0, length);
+    }
+
+    ConnectionSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Serves the connection until the client closes it, violates the protocol or stays idle for the keep-alive timeout.
+     * The socket is closed by the caller afterwards
+     */
+    void serve() throws IOException {
+        socket.setSoTimeout(settings.getKeepAliveTimeout());
+        byte[] preface = in.readNBytes(PREFACE.length);
+        if(!Arrays.equals(preface, PREFACE)) return;
+
+        writeSettings();
+        boolean graceful = false;
+        try {
+            graceful = readFrames();
+        } catch(Http2Exception e) {
+            goAway(e.errorCode);
+        } finally {
+            if(graceful) awaitStreams();
+            closed = true;
+            for(Http2Stream stream : streams.values()) {
+                stream.reset();
+            }
+
+            flowLock.lock();
+            try {
+                windowOpened.signalAll();
+            } finally {
+                flowLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return true if the connection ended gracefully (GOAWAY of the client or idle) and started streams may still be completed
+     */
+    private boolean readFrames() throws IOException {
+        while(true) {
+            try {
+                if(!readFrameHeader()) return false;
+            } catch(SocketTimeoutException e) {
+                settings.getMetrics().idleTimeout();
+                goAway(Http2Exception.NO_ERROR);
+                return true;
+            }
+
+            int length = (frameHeader[0] & 0xFF) << 16 | (frameHeader[1] & 0xFF) << 8 | (frameHeader[2] & 0xFF);
+            int type = frameHeader[3] & 0xFF;
+            int flags = frameHeader[4] & 0xFF;
+            int streamId = readInt(frameHeader, 5) & 0x7FFFFFFF;
+
+            if(length > DEFAULT_MAX_FRAME_SIZE) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Frame of " + length + " bytes is too large");
+            if(in.readNBytes(payload, 0, length) < length) return false;
+            if(expectContinuation && (type != CONTINUATION || streamId != headerStreamId)) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Header block was not continued");
+            }
+
+            try {
+                switch(type) {
+                    case DATA -> onData(streamId, flags, length);
+                    case HEADERS -> onHeaders(streamId, flags, length);
+                    case PRIORITY -> {
+                        if(streamId == 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "PRIORITY on stream 0");
+                        if(length != 5) throw new Http2Exception(streamId, Http2Exception.FRAME_SIZE_ERROR, "Invalid PRIORITY frame");
+                    }
+                    case RST_STREAM -> onReset(streamId, length);
+                    case SETTINGS -> onSettings(streamId, flags, length);
+                    case PUSH_PROMISE -> throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Clients can not push");
+                    case PING -> onPing(streamId, flags, length);
+                    case GOAWAY -> {
+                        if(streamId != 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "GOAWAY on a stream");
+                        return true;
+                    }
+                    case WINDOW_UPDATE -> onWindowUpdate(streamId, length);
+                    case CONTINUATION -> onContinuation(streamId, flags, length);
+                    // Unknown frame types are ignored
+                    default -> {}
+                }
+            } catch(Http2Exception e) {
+                if(e.streamId == 0) throw e;
+                resetStream(e.streamId, e.errorCode);
+            }
+        }
+    }
+
+    /**
+     * Reads the next frame header. Running into the socket timeout between frames is only an idle connection
+     * if no stream is in progress, a long running response keeps it open
+     * @return false if the client closed the connection
+     */
+    private boolean readFrameHeader() throws IOException {
+        int read = 0;
+        while(read < FRAME_HEADER_SIZE) {
+            try {
+                int n = in.read(frameHeader, read, FRAME_HEADER_SIZE - read);
+                if(n == -1) return false;
+                read += n;
+            } catch(SocketTimeoutException e) {
+                if(read == 0 && streams.isEmpty()) throw e;
+            }
+        }
+        return true;
+    }
+
+    private void onData(int streamId, int flags, int length) throws IOException {
+        if(streamId == 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "DATA on stream 0");
+        if(streamId > lastStreamId) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "DATA on an idle stream");
+        if(connectionReceiveWindow.addAndGet(-length) < 0) throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Connection window exceeded");
+
+        int offset = 0, end = length;
+        if((flags & FLAG_PADDED) != 0) {
+            if(length == 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Missing pad length");
+            offset = 1;
+            end -= payload[0] & 0xFF;
+            if(end < offset) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Padding is longer than the frame");
+        }
+
+        Http2Stream stream = streams.get(streamId);
+        if(stream == null || stream.input.isEnded()) {
+            // Body of a stream that was answered or reset already, only the connection window is given back
+            bodyConsumed(null, length, 0);
+            if(stream != null) throw new Http2Exception(streamId, Http2Exception.STREAM_CLOSED, "DATA after END_STREAM");
+            return;
+        }
+
+        if(stream.receiveWindow.addAndGet(-length) < 0) throw new Http2Exception(streamId, Http2Exception.FLOW_CONTROL_ERROR, "Stream window exceeded");
+        if(end > offset) stream.input.offer(Arrays.copyOfRange(payload, offset, end));
+        if((flags & FLAG_END_STREAM) != 0) stream.input.end();
+
+        // Padding is never read by the handler
+        int padding = length - (end - offset);
+        if(padding > 0) {
+            stream.receiveWindow.addAndGet(padding);
+            bodyConsumed(null, padding, 0);
+            windowUpdate(streamId, padding);
+        }
+    }
+
+    private void onHeaders(int streamId, int flags, int length) throws IOException {
+        if(streamId == 0 || (streamId & 1) == 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid stream id " + streamId);
+
+        int offset = 0, end = length;
+        if((flags & FLAG_PADDED) != 0) {
+            if(length == 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Missing pad length");
+            offset = 1;
+            end -= payload[0] & 0xFF;
+        }
+        // Priorities are not used for scheduling
+        if((flags & FLAG_PRIORITY) != 0) offset += 5;
+        if(end < offset) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Padding is longer than the frame");
+
+        headerBlockLength = 0;
+        headerStreamId = streamId;
+        headerFlags = flags;
+        appendHeaderBlock(offset, end - offset);
+
+        if((flags & FLAG_END_HEADERS) != 0) endHeaders();
+        else expectContinuation = true;
+    }
+
+    private void onContinuation(int streamId, int flags, int length) throws IOException {
+        if(!expectContinuation) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Unexpected CONTINUATION");
+
+        appendHeaderBlock(0, length);
+        if((flags & FLAG_END_HEADERS) != 0) {
+            expectContinuation = false;
+            endHeaders();
+        }
+    }
+
+    private void appendHeaderBlock(int offset, int length) throws Http2Exception {
+        if(headerBlockLength + length > MAX_HEADER_BLOCK_SIZE) throw new Http2Exception(Http2Exception.ENHANCE_YOUR_CALM, "Header block is too large");
+        if(headerBlockLength + length > headerBlock.length) headerBlock = Arrays.copyOf(headerBlock, Math.max(headerBlock.length * 2, headerBlockLength + length));
+
+        System.arraycopy(payload, offset, headerBlock, headerBlockLength, length);
+        headerBlockLength += length;
+    }
+
+    /**
+     * Decodes a complete header block and starts the request, or ends the body of a running one (trailers)
+     */
+    private void endHeaders() throws IOException {
+        int streamId = headerStreamId;
+        boolean endStream = (headerFlags & FLAG_END_STREAM) != 0;
+
+        if(streamId <= lastStreamId) {
+            // Decoded anyway, the table of the decoder has to stay in sync with the client
+            decoder.decode(headerBlock, 0, headerBlockLength, (name, value) -> {});
+
+            Http2Stream stream = streams.get(streamId);
+            if(stream == null) throw new Http2Exception(streamId, Http2Exception.STREAM_CLOSED, "HEADERS on a closed stream");
+            if(!endStream) throw new Http2Exception(streamId, Http2Exception.PROTOCOL_ERROR, "Trailers without END_STREAM");
+
+            // Trailers are ignored like those of chunked HTTP/1.1 bodies
+            stream.input.end();
+            return;
+        }
+        lastStreamId = streamId;
+
+        HeadBuilder builder = new HeadBuilder();
+        decoder.decode(headerBlock, 0, headerBlockLength, builder);
+        RequestHead head = builder.build(endStream);
+
+        if(head == null) throw new Http2Exception(streamId, Http2Exception.PROTOCOL_ERROR, builder.error);
+        if(streams.size() >= MAX_CONCURRENT_STREAMS) throw new Http2Exception(streamId, Http2Exception.REFUSED_STREAM, "Too many concurrent streams");
+
+        Http2Stream stream;
+        flowLock.lock();
+        try {
+            stream = new Http2Stream(this, streamId, initialStreamWindow);
+        } finally {
+            flowLock.unlock();
+        }
+        if(endStream) stream.input.end();
+
+        if(builder.errorStatus != 0) {
+            // Requests that never reach the handler get a response without body, which needs no flow control window
+            ErrorResponse.write(stream.output, builder.errorStatus);
+            // The client does not have to send a body nobody reads
+            if(!endStream) resetStream(streamId, Http2Exception.NO_ERROR);
+            return;
+        }
+        if(!settings.getAdmission().tryEnqueue()) {
+            AdmissionControl.writeServiceUnavailable(stream.output);
+            if(!endStream) resetStream(streamId, Http2Exception.NO_ERROR);
+            return;
+        }
+
+        streams.put(streamId, stream);
+        int requestNumber = ++requestCount;
+        workers.execute(() -> process(stream, head, requestNumber));
+    }
+
+    private void process(Http2Stream stream, RequestHead head, int requestNumber) {
+        settings.getAdmission().taskStarted();
+        BodyInputStream body = new BodyInputStream(stream.input, head, stream.output);
+        body.setTimeout(settings.getBodyTimeout());
+        CompletionStage<Boolean> response;
+        try {
+            response = handler.handle(head, body, stream.output, IP, requestNumber);
+        } catch(IOException e) {
+            response = null;
+        } catch(Exception e) {
+            e.printStackTrace();
+            response = null;
+        }
+
+        if(response == null) finishStream(stream, body, false);
+        // The worker is free again while an asynchronous handler waits. Ending the stream may wait for flow control window,
+        // so the rest runs on a worker again instead of on whichever thread completed the stage
+        else if(response.toCompletableFuture().isDone()) finishStream(stream, body, true);
+        else response.thenAcceptAsync(keepAlive -> finishStream(stream, body, true), workers);
+    }
+
+    /**
+     * @param handled Whether the handler returned normally, otherwise the stream is reset with INTERNAL_ERROR
+     */
+    private void finishStream(Http2Stream stream, BodyInputStream body, boolean handled) {
+        int errorCode = Http2Exception.INTERNAL_ERROR;
+        try {
+            if(handled && stream.output.finish()) errorCode = stream.input.isEnded() ? -1 : Http2Exception.NO_ERROR;
+        } catch(IOException ignored) {
+        } catch(Exception e) {
+            e.printStackTrace();
+        } finally {
+            if(body.isTimedOut()) settings.getMetrics().bodyTimeout();
+
+            streams.remove(stream.id);
+            // NO_ERROR tells the client to stop sending a body the handler did not read
+            if(errorCode != -1 && !stream.reset && !closed) {
+                try {
+                    resetStream(stream.id, errorCode);
+                } catch(IOException ignored) {}
+            }
+            try {
+                bodyConsumed(null, stream.input.discard(), 0);
+            } catch(IOException ignored) {}
+
+            flowLock.lock();
+            try {
+                streamClosed.signalAll();
+            } finally {
+                flowLock.unlock();
+            }
+        }
+    }
+
+    private void onReset(int streamId, int length) throws IOException {
+        if(length != 4) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Invalid RST_STREAM frame");
+        if(streamId == 0 || streamId > lastStreamId) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "RST_STREAM on an idle stream");
+
+        Http2Stream stream = streams.get(streamId);
+        if(stream == null) return;
+
+        stream.reset();
+        flowLock.lock();
+        try {
+            windowOpened.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    private void onSettings(int streamId, int flags, int length) throws IOException {
+        if(streamId != 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "SETTINGS on a stream");
+        if((flags & FLAG_ACK) != 0) {
+            if(length != 0) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "SETTINGS acknowledgement with a payload");
+            return;
+        }
+        if(length % 6 != 0) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Invalid SETTINGS frame");
+
+        for(int offset = 0; offset < length; offset += 6) {
+            int id = (payload[offset] & 0xFF) << 8 | (payload[offset + 1] & 0xFF);
+            int value = readInt(payload, offset + 2);
+            switch(id) {
+                case SETTINGS_HEADER_TABLE_SIZE -> {
+                    writeLock.lock();
+                    try {
+                        encoder.setMaxTableSize(value < 0 ? Integer.MAX_VALUE : value);
+                    } finally {
+                        writeLock.unlock();
+                    }
+                }
+                case SETTINGS_ENABLE_PUSH -> {
+                    if(value != 0 && value != 1) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid SETTINGS_ENABLE_PUSH");
+                }
+                case SETTINGS_INITIAL_WINDOW_SIZE -> {
+                    if(value < 0) throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Invalid SETTINGS_INITIAL_WINDOW_SIZE");
+                    changeInitialWindow(value);
+                }
+                case SETTINGS_MAX_FRAME_SIZE -> {
+                    // Frames are never larger than the default, which every client accepts
+                    if(value < DEFAULT_MAX_FRAME_SIZE || value > 0xFFFFFF) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid SETTINGS_MAX_FRAME_SIZE");
+                }
+                // Concurrent streams are only started by the client, header lists of responses are not limited
+                default -> {}
+            }
+        }
+
+        writeFrame(SETTINGS, FLAG_ACK, 0, payload, 0, 0);
+    }
+
+    /**
+     * Applies a new SETTINGS_INITIAL_WINDOW_SIZE, which changes the send window of every open stream by the difference
+     */
+    private void changeInitialWindow(int size) throws Http2Exception {
+        flowLock.lock();
+        try {
+            int delta = size - initialStreamWindow;
+            initialStreamWindow = size;
+            for(Http2Stream stream : streams.values()) {
+                if((long) stream.sendWindow + delta > Integer.MAX_VALUE) throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Stream window overflow");
+                stream.sendWindow += delta;
+            }
+            windowOpened.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    private void onPing(int streamId, int flags, int length) throws IOException {
+        if(streamId != 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "PING on a stream");
+        if(length != 8) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Invalid PING frame");
+        if((flags & FLAG_ACK) == 0) writeFrame(PING, FLAG_ACK, 0, payload, 0, 8);
+    }
+
+    private void onWindowUpdate(int streamId, int length) throws IOException {
+        if(length != 4) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Invalid WINDOW_UPDATE frame");
+
+        int increment = readInt(payload, 0) & 0x7FFFFFFF;
+        if(increment == 0) throw new Http2Exception(streamId, Http2Exception.PROTOCOL_ERROR, "Window increment of 0");
+
+        flowLock.lock();
+        try {
+            if(streamId == 0) {
+                if((long) connectionSendWindow + increment > Integer.MAX_VALUE) throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Connection window overflow");
+                connectionSendWindow += increment;
+            } else {
+                Http2Stream stream = streams.get(streamId);
+                if(stream == null) return;
+                if((long) stream.sendWindow + increment > Integer.MAX_VALUE) throw new Http2Exception(streamId, Http2Exception.FLOW_CONTROL_ERROR, "Stream window overflow");
+                stream.sendWindow += increment;
+            }
+            windowOpened.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    /**
+     * Called once body bytes were read by a handler (or dropped), gives them back to the client
+     * once half of a window is used up
+     * @param stream Stream to send the credit for, null to only update the connection window
+     * @param streamCredit Bytes to announce for the stream, 0 for none
+     */
+    void bodyConsumed(Http2Stream stream, int count, int streamCredit) throws IOException {
+        if(count > 0 && connectionUnacknowledged.addAndGet(count) >= CONNECTION_WINDOW_SIZE / 2) {
+            int credit = connectionUnacknowledged.getAndSet(0);
+            if(credit > 0) {
+                connectionReceiveWindow.addAndGet(credit);
+                windowUpdate(0, credit);
+            }
+        }
+
+        if(stream != null && streamCredit > 0 && !stream.reset) windowUpdate(stream.id, streamCredit);
+    }
+
+    /**
+     * Sends the status and headers of a response. Blocks of any size are split into HEADERS and CONTINUATION frames
+     * @param fields Lowercase names and values alternating
+     */
+    void writeHeaders(Http2Stream stream, int status, List<String> fields, boolean endStream) throws IOException {
+        writeLock.lock();
+        try {
+            if(stream.reset) throw new IOException("Stream was reset");
+
+            encoder.begin();
+            encoder.header(":status", Integer.toString(status));
+            for(int i = 0; i < fields.size(); i += 2) {
+                encoder.header(fields.get(i), fields.get(i + 1));
+            }
+
+            byte[] block = encoder.buffer();
+            int length = encoder.length(), offset = 0, type = HEADERS;
+            do {
+                int n = Math.min(length - offset, DEFAULT_MAX_FRAME_SIZE);
+                int flags = (offset + n == length ? FLAG_END_HEADERS : 0) | (type == HEADERS && endStream ? FLAG_END_STREAM : 0);
+                writeFrameHeader(type, flags, stream.id, n);
+                out.write(block, offset, n);
+                offset += n;
+                type = CONTINUATION;
+            } while(offset < length);
+
+            // A body following right away goes out in the same write
+            if(endStream) out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Sends body bytes in DATA frames, waiting for the client to open the flow control windows where needed
+     */
+    void writeData(Http2Stream stream, byte[] bytes, int offset, int length, boolean endStream) throws IOException {
+        do {
+            int n = length == 0 ? 0 : reserveWindow(stream, length);
+            boolean last = n == length;
+
+            writeLock.lock();
+            try {
+                if(stream.reset) throw new IOException("Stream was reset");
+                writeFrameHeader(DATA, last && endStream ? FLAG_END_STREAM : 0, stream.id, n);
+                out.write(bytes, offset, n);
+                if(last && endStream) out.flush();
+            } finally {
+                writeLock.unlock();
+            }
+
+            offset += n;
+            length -= n;
+        } while(length > 0);
+    }
+
+    /**
+     * Takes up to one frame worth of bytes from the send windows of the connection and the stream
+     * @return amount of bytes that may be sent
+     */
+    private int reserveWindow(Http2Stream stream, int wanted) throws IOException {
+        boolean flushed = false;
+        long timeout = TimeUnit.MILLISECONDS.toNanos(settings.getKeepAliveTimeout());
+        while(true) {
+            flowLock.lock();
+            try {
+                if(closed || stream.reset) throw new IOException("Stream was reset");
+
+                int available = Math.min(connectionSendWindow, stream.sendWindow);
+                if(available > 0) {
+                    int n = Math.min(Math.min(wanted, available), DEFAULT_MAX_FRAME_SIZE);
+                    connectionSendWindow -= n;
+                    stream.sendWindow -= n;
+                    return n;
+                }
+
+                if(flushed) {
+                    if(timeout <= 0) throw new SocketTimeoutException("Timed out waiting for the client to open the flow control window");
+                    try {
+                        timeout = windowOpened.awaitNanos(timeout);
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for the flow control window", e);
+                    }
+                    continue;
+                }
+            } finally {
+                flowLock.unlock();
+            }
+
+            // The client only opens the window for frames it received, so nothing may be left in the buffer while waiting
+            flush();
+            flushed = true;
+        }
+    }
+
+    void flush() throws IOException {
+        writeLock.lock();
+        try {
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void writeSettings() throws IOException {
+        byte[] settingsPayload = new byte[18];
+        putSetting(settingsPayload, 0, SETTINGS_MAX_CONCURRENT_STREAMS, MAX_CONCURRENT_STREAMS);
+        putSetting(settingsPayload, 6, SETTINGS_ENABLE_PUSH, 0);
+        putSetting(settingsPayload, 12, SETTINGS_MAX_HEADER_LIST_SIZE, settings.getMaxHeaderSize());
+        writeFrame(SETTINGS, 0, 0, settingsPayload, 0, settingsPayload.length);
+        windowUpdate(0, CONNECTION_WINDOW_SIZE - DEFAULT_WINDOW_SIZE);
+    }
+
+    private void windowUpdate(int streamId, int increment) throws IOException {
+        byte[] increment4 = new byte[4];
+        putInt(increment4, 0, increment);
+        writeFrame(WINDOW_UPDATE, 0, streamId, increment4, 0, 4);
+    }
+
+    private void resetStream(int streamId, int errorCode) throws IOException {
+        Http2Stream stream = streams.get(streamId);
+        if(stream != null) stream.reset();
+
+        byte[] code = new byte[4];
+        putInt(code, 0, errorCode);
+        writeFrame(RST_STREAM, 0, streamId, code, 0, 4);
+    }
+
+    private void goAway(int errorCode) {
+        byte[] goAway = new byte[8];
+        putInt(goAway, 0, lastStreamId);
+        putInt(goAway, 4, errorCode);
+        try {
+            writeFrame(GOAWAY, 0, 0, goAway, 0, 8);
+        } catch(IOException ignored) {}
+    }
+
+    /**
+     * Waits until the handlers of all started streams returned
+     */
+    private void awaitStreams() {
+        flowLock.lock();
+        try {
+            while(!streams.isEmpty()) {
+                streamClosed.await();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    /**
+     * Writes and flushes a control frame
+     */
+    private void writeFrame(int type, int flags, int streamId, byte[] bytes, int offset, int length) throws IOException {
+        writeLock.lock();
+        try {
+            writeFrameHeader(type, flags, streamId, length);
+            out.write(bytes, offset, length);
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void writeFrameHeader(int type, int flags, int streamId, int length) throws IOException {
+        writeHeader[0] = (byte) (length >>> 16);
+        writeHeader[1] = (byte) (length >>> 8);
+        writeHeader[2] = (byte) length;
+        writeHeader[3] = (byte) type;
+        writeHeader[4] = (byte) flags;
+        putInt(writeHeader, 5, streamId);
+        out.write(writeHeader, 0, FRAME_HEADER_SIZE);
+    }
+
+    private static void putSetting(byte[] bytes, int offset, int id, int value) {
+        bytes[offset] = (byte) (id >>> 8);
+        bytes[offset + 1] = (byte) id;
+        putInt(bytes, offset + 2, value);
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Collects the decoded header fields of a request into the same {@link RequestHead} an HTTP/1.1 request produces
+     */
+    private final class HeadBuilder implements HpackDecoder.HeaderListener {
+        private final RequestHead head = new RequestHead();
+        private String method, scheme, path, authority;
+        private boolean regularSeen;
+        private int size, count;
+        // Malformed requests are reset, requests over the limits or with unknown methods get a response
+        private String error;
+        private int errorStatus;
+
+        @Override
+        public void header(String name, String value) {
+            size += name.length() + value.length() + Hpack.ENTRY_OVERHEAD;
+
+            if(name.startsWith(":")) {
+                if(regularSeen) malformed("Pseudo header " + name + " after a regular one");
+                switch(name) {
+                    case ":method" -> method = pseudo(method, value);
+                    case ":scheme" -> scheme = pseudo(scheme, value);
+                    case ":path" -> path = pseudo(path, value);
+                    case ":authority" -> authority = pseudo(authority, value);
+                    default -> malformed("Unknown pseudo header " + name);
+                }
+                return;
+            }
+
+            regularSeen = true;
+            if(++count > settings.getMaxHeaderCount()) errorStatus = 431;
+            for(int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if(c >= 'A' && c <= 'Z') malformed("Header name " + name + " is not lowercase");
+            }
+
+            switch(name) {
+                case "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade" -> {
+                    malformed("Connection-specific header " + name);
+                    return;
+                }
+                case "te" -> {
+                    if(!value.equals("trailers")) malformed("TE other than trailers");
+                }
+                case "content-length" -> {
+                    try {
+                        long length = Long.parseLong(value);
+                        if(length < 0 || (head.contentLength != -1 && head.contentLength != length)) malformed("Invalid Content-Length");
+                        head.contentLength = length;
+                    } catch(NumberFormatException e) {
+                        malformed("Invalid Content-Length");
+                    }
+                }
+                case "expect" -> head.expectContinue = value.equalsIgnoreCase("100-continue");
+            }
+
+            String canonical = HeaderNames.intern(name);
+            String previous = head.headers.get(canonical);
+            if(previous == null) head.headers.put(canonical, value);
+            else head.headers.put(canonical, previous + (canonical == "Cookie" ? "; " : ", ") + value);
+        }
+
+        /**
+         * @return the request head, null if the request is malformed
+         */
+        RequestHead build(boolean endStream) {
+            if(error != null) return null;
+            if(method == null || scheme == null || path == null || path.isEmpty()) {
+                malformed("Missing pseudo header");
+                return null;
+            }
+
+            if(size > settings.getMaxHeaderSize()) errorStatus = 431;
+            for(HttpMethod known : METHODS) {
+                if(known.name().equals(method)) head.method = known;
+            }
+            if(head.method == null && errorStatus == 0) errorStatus = 501;
+
+            int query = path.indexOf('?');
+            head.path = query == -1 ? path : path.substring(0, query);
+            head.query = query == -1 ? null : path.substring(query + 1);
+            if(authority != null) head.headers.putIfAbsent("Host", authority);
+
+            // Handlers see a persistent HTTP/1.1 request, the body ends with the stream unless its length is known
+            head.http11 = true;
+            head.untilEnd = !endStream && head.contentLength == -1;
+            if(endStream) head.expectContinue = false;
+            head.headSize = size;
+            return head;
+        }
+
+        private String pseudo(String previous, String value) {
+            if(previous != null) malformed("Duplicate pseudo header");
+            return value;
+        }
+
+        private void malformed(String reason) {
+            if(error == null) error = reason;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package dev.mitask.server;
+
+import java.io.IOException;
+
+/**
+ * Violation of HTTP/2 (RFC 9113) by the client. Errors of stream 0 end the connection with GOAWAY,
+ * errors of other streams only reset that stream
+ */
+final class Http2Exception extends IOException {
+    static final int NO_ERROR = 0x0, PROTOCOL_ERROR = 0x1, INTERNAL_ERROR = 0x2, FLOW_CONTROL_ERROR = 0x3,
+            STREAM_CLOSED = 0x5, FRAME_SIZE_ERROR = 0x6, REFUSED_STREAM = 0x7, COMPRESSION_ERROR = 0x9, ENHANCE_YOUR_CALM = 0xb;
+    private static final long serialVersionUID = 1L;
+
+    final int streamId;
+    final int errorCode;
+
+    /**
+     * Connection error
+     */
+    Http2Exception(int errorCode, String message) {
+        this(0, errorCode, message);
+    }
+
+    Http2Exception(int streamId, int errorCode, String message) {
+        super(message);
+        this.streamId = streamId;
+        this.errorCode = errorCode;
+    }
+}
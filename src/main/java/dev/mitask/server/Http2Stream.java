@@ -0,0 +1,379 @@
+package dev.mitask.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Single request of an {@link Http2Connection}. The body arrives in DATA frames and is read by the handler through
+ * {@link Input}. The response is written to {@link Output}, which is a {@link ResponseSink}: the head arrives as status and
+ * fields and becomes a HEADERS frame, the body (Content-Length or until the handler returns) becomes DATA frames.
+ */
+final class Http2Stream {
+    final int id;
+    final Input input = new Input();
+    final Output output = new Output();
+    private final Http2Connection connection;
+    // Guarded by the flow lock of the connection
+    int sendWindow;
+    // Bytes the client may still send before it needs a WINDOW_UPDATE
+    final AtomicInteger receiveWindow = new AtomicInteger(Http2Connection.DEFAULT_WINDOW_SIZE);
+    volatile boolean reset;
+    // Consumed body bytes not announced to the client yet, only touched by the handler thread
+    private int unacknowledged;
+
+    Http2Stream(Http2Connection connection, int id, int sendWindow) {
+        this.connection = connection;
+        this.id = id;
+        this.sendWindow = sendWindow;
+    }
+
+    /**
+     * Marks the stream as reset, further reads and writes fail
+     */
+    void reset() {
+        reset = true;
+        input.fail();
+    }
+
+    /**
+     * @return bytes to announce with a WINDOW_UPDATE once half of the window was consumed, 0 otherwise
+     */
+    private int consumed(int count) {
+        unacknowledged += count;
+        if(unacknowledged < Http2Connection.DEFAULT_WINDOW_SIZE / 2 || input.isEnded()) return 0;
+
+        int credit = unacknowledged;
+        unacknowledged = 0;
+        receiveWindow.addAndGet(credit);
+        return credit;
+    }
+
+    /**
+     * Request body, filled by the reading thread of the connection
+     */
+    final class Input extends InputStream {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition readable = lock.newCondition();
+        private final Queue<byte[]> chunks = new ArrayDeque<>();
+        private final byte[] single = new byte[1];
+        // Read position in the first chunk
+        private int position, buffered;
+        private boolean ended, failed;
+
+        void offer(byte[] chunk) {
+            lock.lock();
+            try {
+                if(ended) return;
+                chunks.add(chunk);
+                buffered += chunk.length;
+                readable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void end() {
+            lock.lock();
+            try {
+                ended = true;
+                readable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean isEnded() {
+            lock.lock();
+            try {
+                return ended;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void fail() {
+            lock.lock();
+            try {
+                failed = true;
+                readable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Drops unread bytes and ignores further ones, once the handler is done with the request
+         * @return amount of dropped bytes, they still count towards the window of the connection
+         */
+        int discard() {
+            lock.lock();
+            try {
+                int dropped = buffered;
+                chunks.clear();
+                buffered = 0;
+                ended = true;
+                return dropped;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if(length == 0) return 0;
+
+            int count = 0;
+            lock.lock();
+            try {
+                long timeout = TimeUnit.MILLISECONDS.toNanos(connection.getSettings().getKeepAliveTimeout());
+                while(chunks.isEmpty()) {
+                    if(failed) throw new IOException("Stream was reset");
+                    if(ended) return -1;
+                    if(timeout <= 0) throw new SocketTimeoutException("Timed out waiting for the request body");
+
+                    try {
+                        timeout = readable.awaitNanos(timeout);
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for the request body", e);
+                    }
+                }
+
+                while(count < length && !chunks.isEmpty()) {
+                    byte[] chunk = chunks.peek();
+                    int n = Math.min(length - count, chunk.length - position);
+                    System.arraycopy(chunk, position, bytes, offset + count, n);
+                    count += n;
+                    position += n;
+                    if(position == chunk.length) {
+                        chunks.poll();
+                        position = 0;
+                    }
+                }
+                buffered -= count;
+            } finally {
+                lock.unlock();
+            }
+
+            connection.bodyConsumed(Http2Stream.this, count, consumed(count));
+            return count;
+        }
+
+        @Override
+        public int available() {
+            lock.lock();
+            try {
+                return buffered;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Response stream handed to the handler. The head arrives as fields through {@link #head(int, List)}, the body
+     * (with Content-Length or until the handler returns) is collected into DATA frames
+     */
+    final class Output extends OutputStream implements FileTransferOutput, ResponseSink {
+        private static final int HEAD = 0, BODY_LENGTH = 1, BODY_UNTIL_END = 2, ENDED = 3;
+
+        private final byte[] single = new byte[1];
+        // Body bytes collected into a frame
+        private final byte[] data = new byte[Http2Connection.DEFAULT_MAX_FRAME_SIZE];
+        private int dataLength;
+        private int state = HEAD;
+        // Body bytes left of a response with Content-Length
+        private long remaining;
+        private long bytesWritten;
+
+        @Override
+        public void head(int statusCode, List<String> fields) throws IOException {
+            if(reset) throw new IOException("Stream was reset");
+            if(state != HEAD) throw new IOException("Response head was already sent");
+
+            List<String> frameFields = new ArrayList<>(fields.size());
+            long contentLength = -1;
+            for(int i = 0; i < fields.size(); i += 2) {
+                // Field names are lowercase in HTTP/2
+                String name = fields.get(i).toLowerCase(Locale.ROOT);
+                String value = fields.get(i + 1);
+                switch(name) {
+                    // Connection-specific headers make the response malformed, a handler may still have added them
+                    case "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade" -> {
+                        continue;
+                    }
+                    case "content-length" -> {
+                        try {
+                            contentLength = Long.parseLong(value);
+                        } catch(NumberFormatException e) {
+                            throw new IOException("Invalid Content-Length: " + value);
+                        }
+                    }
+                }
+                frameFields.add(name);
+                frameFields.add(value);
+            }
+
+            // Interim responses (100 Continue) are followed by the final one
+            if(statusCode < 200) {
+                connection.writeHeaders(Http2Stream.this, statusCode, frameFields, false);
+                return;
+            }
+
+            boolean noBody = statusCode == 204 || statusCode == 304 || contentLength == 0;
+            connection.writeHeaders(Http2Stream.this, statusCode, frameFields, noBody);
+            if(noBody) {
+                state = ENDED;
+            } else if(contentLength > 0) {
+                state = BODY_LENGTH;
+                remaining = contentLength;
+            } else {
+                state = BODY_UNTIL_END;
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            single[0] = (byte) b;
+            write(single, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if(reset) throw new IOException("Stream was reset");
+            if(length == 0) return;
+            bytesWritten += length;
+
+            switch(state) {
+                case HEAD -> throw new IOException("Response body written before its head");
+                case BODY_LENGTH -> {
+                    int n = (int) Math.min(length, remaining);
+                    remaining -= n;
+                    if(remaining == 0) {
+                        send(bytes, offset, n, true);
+                        state = ENDED;
+                    } else {
+                        collect(bytes, offset, n);
+                    }
+                }
+                case BODY_UNTIL_END -> collect(bytes, offset, length);
+                // Bytes past the end of the response (a body of 304 or 204) have nowhere to go
+                default -> {}
+            }
+        }
+
+        /**
+         * Sends collected body bytes, the stream stays open
+         */
+        @Override
+        public void flush() throws IOException {
+            if(dataLength > 0 && state != HEAD && state != ENDED) {
+                connection.writeData(Http2Stream.this, data, 0, dataLength, false);
+                dataLength = 0;
+            }
+            connection.flush();
+        }
+
+        /**
+         * The stream is ended by {@link #finish()} once the handler returned, wrapping streams closing it must not end it early
+         */
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        /**
+         * Ends the stream after the handler returned
+         * @return false if the response is incomplete (nothing or only part of it was written) and the stream has to be reset,
+         * ending it normally would make a truncated body look complete
+         */
+        boolean finish() throws IOException {
+            if(state == BODY_UNTIL_END) {
+                send(data, 0, 0, true);
+                state = ENDED;
+            }
+            return state == ENDED;
+        }
+
+        @Override
+        public void transferFile(FileChannel file, long position, long count) throws IOException {
+            try(file) {
+                FileTransferOutput.copy(file, position, count, this);
+            }
+        }
+
+        @Override
+        public void transferBuffer(ByteBuffer buffer) throws IOException {
+            // Body bytes are framed, so they are copied whatever their source
+            FileTransferOutput.copy(buffer, this);
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        /**
+         * Adds body bytes to the current frame, full frames are sent right away
+         */
+        private void collect(byte[] bytes, int offset, int length) throws IOException {
+            while(length > 0) {
+                // Whole frames are sent without copying them
+                if(dataLength == 0 && length >= data.length) {
+                    int whole = length - length % data.length;
+                    connection.writeData(Http2Stream.this, bytes, offset, whole, false);
+                    offset += whole;
+                    length -= whole;
+                    continue;
+                }
+
+                int n = Math.min(length, data.length - dataLength);
+                System.arraycopy(bytes, offset, data, dataLength, n);
+                dataLength += n;
+                offset += n;
+                length -= n;
+                if(dataLength == data.length) {
+                    connection.writeData(Http2Stream.this, data, 0, dataLength, false);
+                    dataLength = 0;
+                }
+            }
+        }
+
+        /**
+         * Sends collected bytes followed by the given ones, the last frame ends the stream if requested
+         */
+        private void send(byte[] bytes, int offset, int length, boolean endStream) throws IOException {
+            if(dataLength > 0 && length <= data.length - dataLength) {
+                System.arraycopy(bytes, offset, data, dataLength, length);
+                dataLength += length;
+                connection.writeData(Http2Stream.this, data, 0, dataLength, endStream);
+                dataLength = 0;
+                return;
+            }
+
+            if(dataLength > 0) {
+                connection.writeData(Http2Stream.this, data, 0, dataLength, false);
+                dataLength = 0;
+            }
+            connection.writeData(Http2Stream.this, bytes, offset, length, endStream);
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package dev.mitask.server;
+
+import dev.mitask.util.HttpMethod;
+
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Incremental HTTP/1.x request line and header parser working directly on bytes.
+ * {@link #parse(ByteBuffer)} can be called with whatever bytes arrived so far, the parser keeps its state between calls,
+ * so the same instance serves the blocking engine (reading from a stream into a reused buffer) and the NIO event loops.
+ * Only the bytes of the request head are consumed, the body is left in the buffer.
+ * @since 1.0.0
+ * @author MiTask
+ */
+public final class HttpRequestParser {
+    public enum Result {
+        /**
+         * More bytes are needed
+         */
+        INCOMPLETE,
+        /**
+         * Request head is complete and available through {@link #getHead()}
+         */
+        COMPLETE,
+        /**
+         * Request is malformed or over the limits, see {@link #getErrorStatus()}
+         */
+        ERROR
+    }
+
+    private static final int METHOD = 0, TARGET = 1, VERSION = 2, REQUEST_LINE_LF = 3, HEADER_START = 4,
+            HEADER_NAME = 5, HEADER_VALUE_START = 6, HEADER_VALUE = 7, HEADER_LF = 8, FINAL_LF = 9, DONE = 10, FAILED = 11;
+    private static final HttpMethod[] METHODS = HttpMethod.values();
+    private static final byte[][] METHOD_NAMES = new byte[METHODS.length][];
+    private static final byte[] HTTP_1_1 = "HTTP/1.1".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HTTP_1_0 = "HTTP/1.0".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HTTP_PREFIX = "HTTP/".getBytes(StandardCharsets.US_ASCII);
+    private static final int INITIAL_TOKEN_SIZE = 128;
+    private static final int RETAINED_TOKEN_SIZE = 4096;
+
+    static {
+        for(int i = 0; i < METHODS.length; i++) {
+            METHOD_NAMES[i] = METHODS[i].name().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final int maxHeaderSize, maxHeaderCount;
+    private byte[] token = new byte[INITIAL_TOKEN_SIZE];
+    private int tokenLength, queryIndex, headSize, headerCount;
+    private int state, errorStatus;
+    private String headerName;
+    private RequestHead head = new RequestHead();
+
+    /**
+     * @param maxHeaderSize Maximum amount of bytes of the request line and all headers together
+     * @param maxHeaderCount Maximum amount of header lines
+     */
+    public HttpRequestParser(int maxHeaderSize, int maxHeaderCount) {
+        this.maxHeaderSize = maxHeaderSize;
+        this.maxHeaderCount = maxHeaderCount;
+        reset();
+    }
+
+    /**
+     * Prepares the parser for the next request on the connection
+     */
+    public void reset() {
+        head = new RequestHead();
+        state = METHOD;
+        tokenLength = 0;
+        queryIndex = -1;
+        headSize = 0;
+        headerCount = 0;
+        errorStatus = 0;
+        headerName = null;
+        if(token.length > RETAINED_TOKEN_SIZE) token = new byte[INITIAL_TOKEN_SIZE];
+    }
+
+    /**
+     * @return true if no byte of the next request was consumed yet
+     */
+    public boolean isIdle() {
+        return state == METHOD && tokenLength == 0;
+    }
+
+    public RequestHead getHead() {
+        return head;
+    }
+
+    /**
+     * @return HTTP status code describing why parsing failed
+     */
+    public int getErrorStatus() {
+        return errorStatus;
+    }
+
+    /**
+     * Consumes bytes of the request head from the buffer (between position and limit)
+     */
+    public Result parse(ByteBuffer buffer) {
+        if(state == DONE) return Result.COMPLETE;
+        if(state == FAILED) return Result.ERROR;
+
+        byte[] data = buffer.array();
+        int offset = buffer.arrayOffset();
+        int position = offset + buffer.position();
+        int end = offset + buffer.limit();
+
+        while(position < end) {
+            byte b = data[position++];
+            if(++headSize > maxHeaderSize) {
+                fail(state == TARGET ? 414 : 431);
+                break;
+            }
+
+            switch(state) {
+                case METHOD -> {
+                    if(b == ' ') {
+                        head.method = decodeMethod();
+                        if(head.method == null) fail(tokenLength == 0 ? 400 : 501);
+                        else nextToken(TARGET);
+                    } else if((b == '\r' || b == '\n') && tokenLength == 0) {
+                        // Empty lines before the request line are ignored
+                        headSize--;
+                    } else if(isTokenChar(b)) {
+                        append(b);
+                    } else {
+                        fail(400);
+                    }
+                }
+                case TARGET -> {
+                    if(b == ' ') {
+                        if(tokenLength == 0) {
+                            fail(400);
+                            break;
+                        }
+
+                        int pathLength = queryIndex == -1 ? tokenLength : queryIndex;
+                        head.path = new String(token, 0, pathLength, StandardCharsets.UTF_8);
+                        if(queryIndex != -1) head.query = new String(token, queryIndex + 1, tokenLength - queryIndex - 1, StandardCharsets.UTF_8);
+                        nextToken(VERSION);
+                    } else if(b == '\r' || b == '\n' || (b >= 0 && b < ' ') || b == 127) {
+                        fail(400);
+                    } else {
+                        if(b == '?' && queryIndex == -1) queryIndex = tokenLength;
+                        append(b);
+                    }
+                }
+                case VERSION -> {
+                    if(b == '\r' || b == '\n') {
+                        if(matchesToken(HTTP_1_1)) head.http11 = true;
+                        else if(!matchesToken(HTTP_1_0)) {
+                            fail(startsWithToken(HTTP_PREFIX) ? 505 : 400);
+                            break;
+                        }
+                        nextToken(b == '\r' ? REQUEST_LINE_LF : HEADER_START);
+                    } else {
+                        append(b);
+                    }
+                }
+                case REQUEST_LINE_LF, HEADER_LF -> {
+                    if(b == '\n') state = HEADER_START;
+                    else fail(400);
+                }
+                case HEADER_START -> {
+                    if(b == '\r') state = FINAL_LF;
+                    else if(b == '\n') finish();
+                    else if(!isTokenChar(b)) fail(400);
+                    else if(++headerCount > maxHeaderCount) fail(431);
+                    else {
+                        append(b);
+                        state = HEADER_NAME;
+                    }
+                }
+                case HEADER_NAME -> {
+                    if(b == ':') {
+                        headerName = HeaderNames.intern(token, 0, tokenLength);
+                        nextToken(HEADER_VALUE_START);
+                    } else if(isTokenChar(b)) {
+                        append(b);
+                    } else {
+                        fail(400);
+                    }
+                }
+                case HEADER_VALUE_START, HEADER_VALUE -> {
+                    if(b == '\r' || b == '\n') {
+                        if(!endHeader()) break;
+                        nextToken(b == '\r' ? HEADER_LF : HEADER_START);
+                    } else if(state == HEADER_VALUE_START && (b == ' ' || b == '\t')) {
+                        // Leading whitespace is not part of the value
+                    } else {
+                        append(b);
+                        state = HEADER_VALUE;
+                    }
+                }
+                case FINAL_LF -> {
+                    if(b == '\n') finish();
+                    else fail(400);
+                }
+            }
+
+            if(state == DONE || state == FAILED) break;
+        }
+
+        buffer.position(position - offset);
+        if(state == DONE) return Result.COMPLETE;
+        if(state == FAILED) return Result.ERROR;
+        return Result.INCOMPLETE;
+    }
+
+    private void append(byte b) {
+        if(tokenLength == token.length) token = Arrays.copyOf(token, Math.min(token.length * 2, Math.max(maxHeaderSize, INITIAL_TOKEN_SIZE)));
+        token[tokenLength++] = b;
+    }
+
+    private void nextToken(int nextState) {
+        tokenLength = 0;
+        state = nextState;
+    }
+
+    private void fail(int status) {
+        errorStatus = status;
+        state = FAILED;
+    }
+
+    private void finish() {
+        String transferEncoding = head.headers.get("Transfer-Encoding");
+        if(transferEncoding != null) {
+            int status = checkTransferEncoding(transferEncoding);
+            if(status != 0) {
+                fail(status);
+                return;
+            }
+
+            // Transfer-Encoding overrides Content-Length, honoring both would allow request smuggling.
+            // A request with both may have been framed differently by a proxy in front, so the connection is not reused
+            head.chunked = true;
+            if(head.contentLength != -1) {
+                head.contentLength = -1;
+                head.connectionClose = true;
+                head.connectionKeepAlive = false;
+            }
+        }
+        head.headSize = headSize;
+        state = DONE;
+    }
+
+    /**
+     * Checks the list of transfer codings of all Transfer-Encoding lines, only a body whose final coding is chunked
+     * has a length the server can determine. The server decodes no other coding
+     * @return 0 for a chunked body, otherwise the status to reject the request with
+     */
+    private static int checkTransferEncoding(String value) {
+        String[] codings = value.split(",");
+        int last = codings.length - 1;
+        while(last >= 0 && codings[last].isBlank()) last--;
+        if(last == -1 || !codings[last].trim().equalsIgnoreCase("chunked")) return 400;
+
+        boolean unsupported = false;
+        for(int i = 0; i < last; i++) {
+            String coding = codings[i].trim();
+            // Chunked must be applied exactly once, as the last coding
+            if(coding.equalsIgnoreCase("chunked")) return 400;
+            if(!coding.isEmpty()) unsupported = true;
+        }
+        return unsupported ? 501 : 0;
+    }
+
+    private HttpMethod decodeMethod() {
+        for(int i = 0; i < METHODS.length; i++) {
+            if(matchesToken(METHOD_NAMES[i])) return METHODS[i];
+        }
+        return null;
+    }
+
+    private boolean matchesToken(byte[] expected) {
+        return tokenLength == expected.length && Arrays.equals(token, 0, tokenLength, expected, 0, expected.length);
+    }
+
+    private boolean startsWithToken(byte[] prefix) {
+        return tokenLength >= prefix.length && Arrays.equals(token, 0, prefix.length, prefix, 0, prefix.length);
+    }
+
+    /**
+     * Stores the finished header and extracts the values the server itself needs
+     * @return false if the header value is invalid
+     */
+    private boolean endHeader() {
+        while(tokenLength > 0 && (token[tokenLength - 1] == ' ' || token[tokenLength - 1] == '\t')) tokenLength--;
+
+        // Well known names are interned by HeaderNames, so they can be compared by reference
+        String name = headerName;
+
+        if(name == "Content-Length") {
+            long length = parseContentLength();
+            if(length == -1 || (head.contentLength != -1 && head.contentLength != length)) {
+                fail(400);
+                return false;
+            }
+            head.contentLength = length;
+        }
+
+        String value = new String(token, 0, tokenLength, StandardCharsets.UTF_8);
+        // Transfer-Encoding is checked once all of its lines were joined, see finish()
+        if(name == "Connection") {
+            for(String option : value.split(",")) {
+                option = option.trim();
+                if(option.equalsIgnoreCase("close")) head.connectionClose = true;
+                else if(option.equalsIgnoreCase("keep-alive")) head.connectionKeepAlive = true;
+            }
+        } else if(name == "Expect") {
+            head.expectContinue = value.equalsIgnoreCase("100-continue");
+        }
+
+        String previous = head.headers.get(name);
+        if(previous == null) head.headers.put(name, value);
+        else head.headers.put(name, previous + (name == "Cookie" ? "; " : ", ") + value);
+
+        return true;
+    }
+
+    private long parseContentLength() {
+        if(tokenLength == 0 || tokenLength > 18) return -1;
+
+        long length = 0;
+        for(int i = 0; i < tokenLength; i++) {
+            byte b = token[i];
+            if(b < '0' || b > '9') return -1;
+            length = length * 10 + (b - '0');
+        }
+        return length;
+    }
+
+    private static boolean isTokenChar(byte b) {
+        if(b <= ' ' || b >= 127) return false;
+        return switch(b) {
+            case '(', ')', ',', '/', ':', ';', '<', '=', '>', '?', '@', '[', '\\', ']', '{', '}', '"' -> false;
+            default -> true;
+        };
+    }
+
+    /**
+     * Decodes "a=1&amp;b=2" into the map. Pairs without '=' are skipped
+     */
+    public static void parseQuery(String query, Map<String, String> into) {
+        if(query == null || query.isEmpty()) return;
+
+        int start = 0;
+        while(start <= query.length()) {
+            int end = query.indexOf('&', start);
+            if(end == -1) end = query.length();
+
+            int equals = query.indexOf('=', start);
+            if(equals != -1 && equals < end && equals > start) {
+                into.put(URLDecoder.decode(query.substring(start, equals), StandardCharsets.UTF_8), URLDecoder.decode(query.substring(equals + 1, end), StandardCharsets.UTF_8));
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Decodes a Cookie header ("a=1; b=2") into the map. Pairs without '=' are skipped
+     */
+    public static void parseCookies(String header, Map<String, String> into) {
+        if(header == null) return;
+
+        int start = 0;
+        while(start < header.length()) {
+            int end = header.indexOf(';', start);
+            if(end == -1) end = header.length();
+
+            int equals = header.indexOf('=', start);
+            if(equals != -1 && equals < end) {
+                String name = header.substring(start, equals).trim();
+                if(!name.isEmpty()) into.put(name, header.substring(equals + 1, end).trim());
+            }
+            start = end + 1;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package dev.mitask.server;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings of the listening sockets and the connections accepted from them.
+ * Passed to the listen option of the Kizuna builder, defaults are used without it
+ * @since 1.0.0
+ * @author MiTask
+ */
+@Getter
+public class ListenOptions {
+    private static final int DEFAULT_BACKLOG = 1024;
+
+    private final int acceptors, backlog;
+    private final boolean disableTcpNoDelay;
+    private final int receiveBufferSize, sendBufferSize;
+
+    /**
+     * @param acceptors Amount of accepting threads per port (event loops accepting for the NIO engine). Each one gets its own socket bound with
+     *                  SO_REUSEPORT, so the kernel spreads new connections over them. Without SO_REUSEPORT support they share one socket. 0 uses 1
+     * @param backlog Maximum amount of connections waiting to be accepted, per socket. 0 uses the default of 1024, the OS may limit it further (somaxconn)
+     * @param disableTcpNoDelay Whether small responses may be delayed by Nagle's algorithm to be sent together with following ones
+     * @param receiveBufferSize Size in bytes of the socket receive buffers, set on the listening socket so it applies from the handshake on. 0 keeps the OS default
+     * @param sendBufferSize Size in bytes of the socket send buffers. 0 keeps the OS default
+     */
+    @Builder(setterPrefix = "set")
+    private ListenOptions(int acceptors, int backlog, boolean disableTcpNoDelay, int receiveBufferSize, int sendBufferSize) {
+        if(acceptors < 0) throw new IllegalArgumentException("Acceptor count can not be negative!");
+        if(backlog < 0) throw new IllegalArgumentException("Backlog can not be negative!");
+        if(receiveBufferSize < 0) throw new IllegalArgumentException("Receive buffer size can not be negative!");
+        if(sendBufferSize < 0) throw new IllegalArgumentException("Send buffer size can not be negative!");
+
+        this.acceptors = acceptors == 0 ? 1 : acceptors;
+        this.backlog = backlog == 0 ? DEFAULT_BACKLOG : backlog;
+        this.disableTcpNoDelay = disableTcpNoDelay;
+        this.receiveBufferSize = receiveBufferSize;
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    /**
+     * @return true if several sockets can be bound to the same port with SO_REUSEPORT on this platform
+     */
+    public static boolean isReusePortSupported() {
+        try(ServerSocketChannel channel = ServerSocketChannel.open()) {
+            return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch(IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Binds the listening sockets of a port, one per acceptor if SO_REUSEPORT is supported and a single one otherwise
+     */
+    public List<ServerSocketChannel> bind(int port) throws IOException {
+        return bind(port, acceptors);
+    }
+
+    /**
+     * @param acceptors Amount of acceptors actually started, e.g. limited to the amount of event loops
+     * @see #bind(int)
+     */
+    public List<ServerSocketChannel> bind(int port, int acceptors) throws IOException {
+        boolean reusePort = acceptors > 1 && isReusePortSupported();
+        List<ServerSocketChannel> channels = new ArrayList<>();
+        try {
+            for(int i = 0; i < (reusePort ? acceptors : 1); i++) {
+                ServerSocketChannel channel = ServerSocketChannel.open();
+                channels.add(channel);
+                if(reusePort) channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                // Window scaling is negotiated in the handshake, so larger buffers have to be set before the socket listens
+                if(receiveBufferSize > 0) channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+                channel.bind(new InetSocketAddress(port), backlog);
+            }
+        } catch(IOException e) {
+            for(ServerSocketChannel channel : channels) channel.close();
+            throw e;
+        }
+        return channels;
+    }
+
+    /**
+     * Applies the options to an accepted connection of the NIO engine
+     */
+    public void configure(SocketChannel channel) throws IOException {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, !disableTcpNoDelay);
+        if(sendBufferSize > 0) channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+    }
+
+    /**
+     * Applies the options to an accepted connection of the blocking engine
+     */
+    public void configure(Socket socket) throws IOException {
+        socket.setTcpNoDelay(!disableTcpNoDelay);
+        if(sendBufferSize > 0) socket.setSendBufferSize(sendBufferSize);
+    }
+}
@@ -0,0 +1,681 @@
+package dev.mitask.server;
+
+import dev.mitask.util.BufferPool;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * State of a single connection handled by {@link NioServer}.
+ * Reading and parsing happen on the event loop, the request itself is handled on a worker.
+ * While a request is handled only its body is read, so pipelined requests are answered in order.
+ */
+class NioConnection {
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final int BODY_HIGH_WATER_MARK = 256 * 1024;
+    private static final int OUTPUT_BUFFER_SIZE = 8192;
+    private static final long WRITE_HIGH_WATER_MARK = 1024 * 1024;
+    // Connections only hold buffers while they have bytes in them, idle keep-alive connections hold none
+    private static final BufferPool READ_BUFFERS = new BufferPool(INITIAL_BUFFER_SIZE, 1024, false);
+    private static final BufferPool OUTPUT_BUFFERS = new BufferPool(OUTPUT_BUFFER_SIZE, 1024, false);
+
+    private final NioServer server;
+    private final NioServer.EventLoop eventLoop;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final InetAddress address;
+    private final String IP;
+    private final ChannelInputStream input = new ChannelInputStream();
+    private final ChannelOutputStream output = new ChannelOutputStream();
+    private final HttpRequestParser parser;
+
+    // Owned by the event loop, in write mode. Borrowed from the pool while bytes are received, null otherwise
+    private ByteBuffer readBuffer;
+    private int requestCount;
+    private boolean processing, streamingBody, endOfInput, closeAfterWrite;
+    private long lastActivity = System.currentTimeMillis();
+    // Time the first byte of the head currently parsed arrived, 0 while waiting for a request
+    private long headStartedAt;
+
+    // Guarded by writeLock, written by workers and drained by the event loop.
+    // A ReentrantLock instead of synchronized keeps virtual thread workers from pinning their carrier while waiting
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Condition writable = writeLock.newCondition();
+    // Holds ByteBuffers and FileRegions, only buffers count towards pendingBytes
+    private final Queue<Object> writeQueue = new ArrayDeque<>();
+    private long pendingBytes;
+    private volatile boolean closed;
+
+    /**
+     * @param address Client address, already admitted by {@link AdmissionControl#tryOpenConnection}
+     */
+    NioConnection(NioServer server, NioServer.EventLoop eventLoop, SocketChannel channel, SelectionKey key, InetAddress address) {
+        this.server = server;
+        this.eventLoop = eventLoop;
+        this.channel = channel;
+        this.key = key;
+        this.address = address;
+        this.IP = address.getHostAddress();
+        this.parser = server.settings.newParser();
+    }
+
+    boolean isIdleSince(long time) {
+        return !processing && lastActivity < time;
+    }
+
+    /**
+     * @return true if a request head is being received since before the time
+     */
+    boolean isHeadStartedBefore(long time) {
+        return !processing && !closeAfterWrite && headStartedAt != 0 && headStartedAt < time;
+    }
+
+    void rejectSlowHead() {
+        headStartedAt = 0;
+        rejectRequest(408);
+    }
+
+    void onReadable() {
+        try {
+            if(readBuffer == null) readBuffer = READ_BUFFERS.acquire();
+            int read = channel.read(readBuffer);
+            if(read == -1) {
+                endOfInput = true;
+                input.endOfInput();
+                releaseReadBuffer();
+                if(!processing) close();
+                else updateInterest();
+                return;
+            }
+
+            lastActivity = System.currentTimeMillis();
+            if(streamingBody) {
+                readBuffer.flip();
+                input.offer(readBuffer);
+                readBuffer.clear();
+                updateInterest();
+            } else {
+                dispatchNextRequest();
+            }
+        } catch(IOException e) {
+            close();
+        }
+    }
+
+    void onWritable() {
+        try {
+            writeLock.lock();
+            try {
+                Object pending;
+                while((pending = writeQueue.peek()) != null) {
+                    if(pending instanceof ByteBuffer buffer) {
+                        pendingBytes -= channel.write(buffer);
+                        if(buffer.hasRemaining()) break;
+                    } else if(!((FileRegion) pending).transferTo(channel)) {
+                        break;
+                    }
+                    writeQueue.poll();
+                }
+                writable.signalAll();
+            } finally {
+                writeLock.unlock();
+            }
+
+            lastActivity = System.currentTimeMillis();
+            if(closeAfterWrite && !hasPendingWrites()) close();
+            else updateInterest();
+        } catch(IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * Parses buffered bytes and hands the next request to a worker once its head is complete
+     * and no other request of this connection is in progress. The body is streamed to the worker afterwards.
+     */
+    private void dispatchNextRequest() {
+        if(processing || closed || closeAfterWrite) return;
+        if(readBuffer == null) {
+            if(endOfInput) close();
+            else updateInterest();
+            return;
+        }
+
+        readBuffer.flip();
+        if(requestCount == 0 && server.settings.isHttp2() && readBuffer.hasRemaining() && Http2Connection.couldBePreface(readBuffer)) {
+            if(Http2Connection.startsWithPreface(readBuffer)) {
+                handOffHttp2();
+                return;
+            }
+
+            readBuffer.compact();
+            if(endOfInput) close();
+            else updateInterest();
+            return;
+        }
+
+        HttpRequestParser.Result result = parser.parse(readBuffer);
+        if(result != HttpRequestParser.Result.COMPLETE) {
+            readBuffer.compact();
+            releaseReadBuffer();
+            if(headStartedAt == 0 && !parser.isIdle()) headStartedAt = System.currentTimeMillis();
+
+            if(result == HttpRequestParser.Result.ERROR) rejectRequest(parser.getErrorStatus());
+            else if(endOfInput) close();
+            else updateInterest();
+            return;
+        }
+
+        RequestHead head = parser.getHead();
+        parser.reset();
+        headStartedAt = 0;
+
+        if(!server.settings.getAdmission().tryEnqueue()) {
+            rejectRequest(AdmissionControl.serviceUnavailable());
+            return;
+        }
+
+        if(head.hasBody()) {
+            // Everything after the head goes to the worker, bytes past the body come back in onRequestComplete
+            input.offer(readBuffer);
+            readBuffer.clear();
+            streamingBody = true;
+        } else {
+            readBuffer.compact();
+            releaseReadBuffer();
+        }
+
+        processing = true;
+        requestCount++;
+        updateInterest();
+
+        int requestNumber = requestCount;
+        server.workers.execute(() -> process(head, requestNumber));
+    }
+
+    /**
+     * Returns the read buffer to the pool once all bytes in it were consumed, the next read borrows one again
+     */
+    private void releaseReadBuffer() {
+        if(readBuffer == null || readBuffer.position() > 0 || streamingBody) return;
+
+        READ_BUFFERS.release(readBuffer);
+        readBuffer = null;
+    }
+
+    /**
+     * Moves a connection that started with the HTTP/2 preface (h2c with prior knowledge) to a worker, which serves it
+     * with blocking socket streams. The task runs after the next select, which deregisters the cancelled key
+     * so the channel can be switched to blocking mode
+     */
+    private void handOffHttp2() {
+        closed = true;
+        eventLoop.unregister(this);
+        key.cancel();
+
+        byte[] received = new byte[readBuffer.remaining()];
+        readBuffer.get(received);
+        eventLoop.execute(() -> server.workers.execute(() -> serveHttp2(received)));
+    }
+
+    private void serveHttp2(byte[] received) {
+        try(channel) {
+            channel.configureBlocking(true);
+            Socket socket = channel.socket();
+            InputStream in = new BufferedInputStream(new SequenceInputStream(new ByteArrayInputStream(received), socket.getInputStream()));
+            new Http2Connection(socket, in, new SocketOutput(socket), server.settings, server.handler, server.workers).serve();
+        } catch(IOException ignored) {
+        } catch(Exception e) {
+            e.printStackTrace();
+        } finally {
+            server.settings.getMetrics().connectionClosed();
+            server.settings.getAdmission().connectionClosed(address);
+        }
+    }
+
+    /**
+     * Answers a request that can not be handled with an empty error response and closes the connection afterwards
+     */
+    private void rejectRequest(int statusCode) {
+        rejectRequest(ErrorResponse.encode(statusCode));
+    }
+
+    private void rejectRequest(byte[] response) {
+        closeAfterWrite = true;
+        try {
+            write(ByteBuffer.wrap(response), false);
+        } catch(IOException e) {
+            close();
+            return;
+        }
+
+        if(!hasPendingWrites()) close();
+        else updateInterest();
+    }
+
+    private void process(RequestHead head, int requestNumber) {
+        server.settings.getAdmission().taskStarted();
+        BodyInputStream body = new BodyInputStream(input, head, output);
+        body.setTimeout(server.settings.getBodyTimeout());
+        CompletionStage<Boolean> response;
+        try {
+            response = server.handler.handle(head, body, output, IP, requestNumber);
+        } catch(IOException e) {
+            response = CompletableFuture.completedFuture(false);
+        } catch(Exception e) {
+            e.printStackTrace();
+            response = CompletableFuture.completedFuture(false);
+        }
+        // The worker is free again while an asynchronous handler waits. Flushing and draining the body block, so the rest runs on a worker again
+        // instead of on whichever thread completed the stage
+        if(response.toCompletableFuture().isDone()) response.thenAccept(keepAlive -> finishRequest(body, keepAlive));
+        else response.thenAcceptAsync(keepAlive -> finishRequest(body, keepAlive), server.workers);
+    }
+
+    private void finishRequest(BodyInputStream body, boolean keepAlive) {
+        try {
+            output.flush();
+            keepAlive = keepAlive && body.drain(BlockingConnection.MAX_DRAINED_BODY_SIZE);
+        } catch(IOException e) {
+            keepAlive = false;
+        } catch(Exception e) {
+            e.printStackTrace();
+            keepAlive = false;
+        }
+        if(body.isTimedOut()) server.settings.getMetrics().bodyTimeout();
+
+        boolean reuse = keepAlive;
+        eventLoop.execute(() -> onRequestComplete(reuse));
+    }
+
+    private void onRequestComplete(boolean keepAlive) {
+        processing = false;
+        lastActivity = System.currentTimeMillis();
+        if(closed) return;
+
+        if(streamingBody) {
+            streamingBody = false;
+
+            // Pipelined bytes read together with the body belong to the next request
+            ByteBuffer leftover = input.remaining();
+            if(readBuffer.remaining() < leftover.remaining()) {
+                ByteBuffer grown = ByteBuffer.allocate(readBuffer.position() + leftover.remaining());
+                readBuffer.flip();
+                grown.put(readBuffer);
+                readBuffer = grown;
+            }
+            readBuffer.put(leftover);
+            input.clear();
+        }
+
+        if(!keepAlive) {
+            closeAfterWrite = true;
+            if(!hasPendingWrites()) close();
+            else updateInterest();
+            return;
+        }
+
+        dispatchNextRequest();
+    }
+
+    private boolean hasPendingWrites() {
+        writeLock.lock();
+        try {
+            return !writeQueue.isEmpty();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void updateInterest() {
+        if(closed || !key.isValid()) return;
+
+        boolean reading = !endOfInput && !closeAfterWrite && (!processing || (streamingBody && input.wantsMore()));
+        int ops = reading ? SelectionKey.OP_READ : 0;
+        if(hasPendingWrites()) ops |= SelectionKey.OP_WRITE;
+        key.interestOps(ops);
+    }
+
+    /**
+     * Called from worker threads. Writes directly to the channel when possible and queues the rest for the event loop.
+     * Blocks the worker while too much data is waiting to be written to the client.
+     * @param borrowed Whether the caller reuses the buffer afterwards, the rest is copied before it is queued then
+     * @return true if the buffer was queued and must not be reused by the caller
+     */
+    private boolean write(ByteBuffer buffer, boolean borrowed) throws IOException {
+        writeLock.lock();
+        try {
+            while(pendingBytes > WRITE_HIGH_WATER_MARK && !closed) {
+                try {
+                    writable.await();
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the client to read the response", e);
+                }
+            }
+
+            if(closed) throw new IOException("Connection closed");
+            if(writeQueue.isEmpty()) channel.write(buffer);
+            if(!buffer.hasRemaining()) return false;
+
+            if(borrowed) {
+                ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+                buffer = copy.put(buffer).flip();
+            }
+            writeQueue.add(buffer);
+            pendingBytes += buffer.remaining();
+        } finally {
+            writeLock.unlock();
+        }
+
+        eventLoop.execute(this::updateInterest);
+        return true;
+    }
+
+    void close() {
+        if(closed) return;
+        closed = true;
+
+        eventLoop.unregister(this);
+        server.settings.getMetrics().connectionClosed();
+        server.settings.getAdmission().connectionClosed(address);
+        key.cancel();
+        input.endOfInput();
+        try {
+            channel.close();
+        } catch(IOException ignored) {}
+
+        writeLock.lock();
+        try {
+            for(Object pending : writeQueue) {
+                if(pending instanceof FileRegion region) region.close();
+            }
+            writeQueue.clear();
+            writable.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Called from worker threads. Sends the file directly with {@link FileChannel#transferTo} and lets the event loop
+     * continue the transfer if the socket buffer fills up, the worker does not wait for the file to be sent.
+     */
+    private void transferFile(FileRegion region) throws IOException {
+        writeLock.lock();
+        try {
+            if(closed) throw new IOException("Connection closed");
+            if(writeQueue.isEmpty() && region.transferTo(channel)) return;
+
+            writeQueue.add(region);
+        } catch(IOException e) {
+            region.close();
+            throw e;
+        } finally {
+            writeLock.unlock();
+        }
+
+        eventLoop.execute(this::updateInterest);
+    }
+
+    /**
+     * Part of a file waiting to be sent
+     */
+    private static final class FileRegion {
+        private final FileChannel file;
+        private final long end;
+        private long position;
+
+        FileRegion(FileChannel file, long position, long count) {
+            this.file = file;
+            this.position = position;
+            this.end = position + count;
+        }
+
+        /**
+         * @return true if the whole region was sent, the file is closed then
+         */
+        boolean transferTo(SocketChannel channel) throws IOException {
+            while(position < end) {
+                long transferred = file.transferTo(position, end - position, channel);
+                if(transferred == 0) {
+                    if(position >= file.size()) throw new IOException("File ended before it could be sent completely");
+                    return false;
+                }
+                position += transferred;
+            }
+
+            close();
+            return true;
+        }
+
+        void close() {
+            try {
+                file.close();
+            } catch(IOException ignored) {}
+        }
+    }
+
+    /**
+     * Response stream handed to the request handler. Its buffer is borrowed from the pool on the first write and
+     * returned once it was flushed, so connections waiting for the next request hold none
+     */
+    private class ChannelOutputStream extends OutputStream implements FileTransferOutput {
+        private ByteBuffer buffer;
+        private int count;
+        private long bytesWritten;
+
+        @Override
+        public void write(int b) throws IOException {
+            if(buffer == null) buffer = OUTPUT_BUFFERS.acquire();
+            else if(count == OUTPUT_BUFFER_SIZE) flush(buffer);
+            buffer.array()[count++] = (byte) b;
+            bytesWritten++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            bytesWritten += length;
+            if(length >= OUTPUT_BUFFER_SIZE) {
+                flush();
+                NioConnection.this.write(ByteBuffer.wrap(bytes, offset, length), true);
+                return;
+            }
+
+            if(buffer == null) buffer = OUTPUT_BUFFERS.acquire();
+            else if(length > OUTPUT_BUFFER_SIZE - count) flush(buffer);
+            System.arraycopy(bytes, offset, buffer.array(), count, length);
+            count += length;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if(buffer == null) return;
+
+            ByteBuffer flushed = buffer;
+            buffer = null;
+            try {
+                flush(flushed);
+            } finally {
+                OUTPUT_BUFFERS.release(flushed);
+            }
+        }
+
+        /**
+         * Writes the buffered bytes, the buffer can be filled again afterwards
+         */
+        private void flush(ByteBuffer pending) throws IOException {
+            int length = count;
+            count = 0;
+            if(length > 0) NioConnection.this.write(ByteBuffer.wrap(pending.array(), 0, length), true);
+        }
+
+        @Override
+        public void transferFile(FileChannel file, long position, long count) throws IOException {
+            try {
+                flush();
+            } catch(IOException e) {
+                file.close();
+                throw e;
+            }
+
+            NioConnection.this.transferFile(new FileRegion(file, position, count));
+            bytesWritten += count;
+        }
+
+        @Override
+        public void transferBuffer(ByteBuffer buffer) throws IOException {
+            flush();
+            bytesWritten += buffer.remaining();
+            // Queued as it is, the event loop writes the rest of the buffer without it ever being copied
+            NioConnection.this.write(buffer, false);
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+    }
+
+    /**
+     * Request body stream handed to the worker. Filled by the event loop, which stops reading
+     * while too many bytes wait to be consumed by the handler.
+     */
+    private final class ChannelInputStream extends InputStream {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition readable = lock.newCondition();
+        private final byte[] single = new byte[1];
+        // In read mode
+        private ByteBuffer buffer = ByteBuffer.allocate(0);
+        private boolean endOfInput, paused;
+
+        /**
+         * Called by the event loop with newly read bytes
+         */
+        void offer(ByteBuffer bytes) {
+            lock.lock();
+            try {
+                if(buffer.capacity() - buffer.remaining() < bytes.remaining()) {
+                    ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.remaining() + bytes.remaining(), Math.max(buffer.capacity() * 2, INITIAL_BUFFER_SIZE)));
+                    grown.put(buffer);
+                    buffer = grown.flip();
+                }
+
+                buffer.compact();
+                buffer.put(bytes);
+                buffer.flip();
+                readable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean wantsMore() {
+            lock.lock();
+            try {
+                paused = buffer.remaining() >= BODY_HIGH_WATER_MARK;
+                return !paused;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void endOfInput() {
+            lock.lock();
+            try {
+                endOfInput = true;
+                readable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return bytes not consumed by the worker, only valid until {@link #clear()}
+         */
+        ByteBuffer remaining() {
+            lock.lock();
+            try {
+                return buffer;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                buffer.clear().flip();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if(length == 0) return 0;
+
+            int count;
+            boolean resume;
+            lock.lock();
+            try {
+                long timeout = TimeUnit.MILLISECONDS.toNanos(server.settings.getKeepAliveTimeout());
+                while(!buffer.hasRemaining()) {
+                    if(endOfInput) return -1;
+                    if(timeout <= 0) throw new SocketTimeoutException("Timed out waiting for the request body");
+
+                    try {
+                        timeout = readable.awaitNanos(timeout);
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for the request body", e);
+                    }
+                }
+
+                count = Math.min(length, buffer.remaining());
+                buffer.get(bytes, offset, count);
+
+                resume = paused && buffer.remaining() < BODY_HIGH_WATER_MARK / 2;
+                if(resume) paused = false;
+            } finally {
+                lock.unlock();
+            }
+
+            if(resume) eventLoop.execute(NioConnection.this::updateInterest);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            lock.lock();
+            try {
+                return buffer.remaining();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
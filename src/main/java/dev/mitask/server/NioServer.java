@@ -0,0 +1,261 @@
+package dev.mitask.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking HTTP server. Connections are spread over event loop threads which read requests
+ * into {@link java.nio.ByteBuffer}s and only hand complete requests to the worker pool, so idle
+ * and slow clients do not occupy a thread each.
+ * @since 1.0.0
+ * @author MiTask
+ */
+public class NioServer {
+    private static final long IDLE_CHECK_INTERVAL = 1000;
+
+    private final int port;
+    private final EventLoop[] eventLoops;
+    final ExecutorService workers;
+    final RequestHandler handler;
+    final ConnectionSettings settings;
+    private final ListenOptions listen;
+    private List<ServerSocketChannel> serverChannels;
+    private final AtomicInteger nextEventLoop = new AtomicInteger();
+    private int acceptors;
+
+    /**
+     * @param port Port to listen on
+     * @param eventLoops Amount of selector threads, 0 uses one per available processor
+     * @param workers Executor that runs request handlers
+     * @param handler Handler invoked for every complete request
+     * @param settings Limits and timeouts of the connections
+     * @param listen Acceptors and socket options of the port
+     */
+    public NioServer(int port, int eventLoops, ExecutorService workers, RequestHandler handler, ConnectionSettings settings, ListenOptions listen) throws IOException {
+        this.port = port;
+        this.workers = workers;
+        this.handler = handler;
+        this.settings = settings;
+        this.listen = listen;
+        this.eventLoops = new EventLoop[eventLoops == 0 ? Runtime.getRuntime().availableProcessors() : eventLoops];
+        for(int i = 0; i < this.eventLoops.length; i++) {
+            this.eventLoops[i] = new EventLoop();
+        }
+    }
+
+    public void start() throws IOException {
+        // Acceptors beyond the amount of event loops would only share their selectors
+        serverChannels = listen.bind(port, Math.min(listen.getAcceptors(), eventLoops.length));
+        for(ServerSocketChannel serverChannel : serverChannels) {
+            serverChannel.configureBlocking(false);
+        }
+
+        for(int i = 0; i < eventLoops.length; i++) {
+            Thread thread = new Thread(eventLoops[i], "kizuna-nio-" + i);
+            thread.start();
+        }
+
+        acceptors = Math.min(listen.getAcceptors(), eventLoops.length);
+        for(int i = 0; i < acceptors; i++) {
+            ServerSocketChannel serverChannel = serverChannels.get(i % serverChannels.size());
+            EventLoop acceptLoop = eventLoops[i % eventLoops.length];
+            acceptLoop.execute(() -> {
+                try {
+                    serverChannel.register(acceptLoop.selector, SelectionKey.OP_ACCEPT);
+                } catch(IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+
+        System.out.println("HTTP (NIO) server listening on port " + serverChannels.get(0).socket().getLocalPort() + " with " + eventLoops.length + " event loops and "
+                + acceptors + " acceptors" + (serverChannels.size() > 1 ? " (SO_REUSEPORT)" : ""));
+    }
+
+    public void stop() {
+        for(ServerSocketChannel serverChannel : serverChannels) {
+            try {
+                serverChannel.close();
+            } catch(IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        for(EventLoop eventLoop : eventLoops) {
+            eventLoop.running = false;
+            eventLoop.selector.wakeup();
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel, EventLoop acceptLoop) {
+        try {
+            SocketChannel channel;
+            while((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                listen.configure(channel);
+
+                InetAddress address = ((InetSocketAddress) channel.getRemoteAddress()).getAddress();
+                if(!settings.getAdmission().tryOpenConnection(address)) {
+                    reject(channel);
+                    continue;
+                }
+
+                // With an acceptor on every event loop the kernel already spreads the connections, so they stay on the accepting one
+                EventLoop eventLoop = acceptors >= eventLoops.length
+                        ? acceptLoop
+                        : eventLoops[Math.floorMod(nextEventLoop.getAndIncrement(), eventLoops.length)];
+
+                SocketChannel accepted = channel;
+                if(eventLoop == acceptLoop) eventLoop.register(accepted, address);
+                else eventLoop.execute(() -> eventLoop.register(accepted, address));
+            }
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Answers a connection over the limits with 503. A fresh socket has an empty send buffer,
+     * so the single non-blocking write does not have to be retried
+     */
+    private static void reject(SocketChannel channel) {
+        try(channel) {
+            // Closing with unread bytes resets the connection, which could discard the response before the client reads it
+            ByteBuffer discard = ByteBuffer.allocate(4096);
+            while(channel.read(discard) > 0) discard.clear();
+
+            channel.write(ByteBuffer.wrap(AdmissionControl.serviceUnavailable()));
+            channel.shutdownOutput();
+        } catch(IOException ignored) {}
+    }
+
+    /**
+     * Single selector thread. All connection state changes happen on this thread,
+     * workers communicate with it through {@link #execute(Runnable)}.
+     */
+    final class EventLoop implements Runnable {
+        final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Set<NioConnection> connections = new HashSet<>();
+        private volatile boolean running = true;
+        private long lastIdleCheck = System.currentTimeMillis();
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        private void register(SocketChannel channel, InetAddress address) {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                NioConnection connection = new NioConnection(NioServer.this, this, channel, key, address);
+                key.attach(connection);
+                connections.add(connection);
+                settings.getMetrics().connectionOpened();
+            } catch(IOException e) {
+                settings.getAdmission().connectionClosed(address);
+                try {
+                    channel.close();
+                } catch(IOException ignored) {}
+            }
+        }
+
+        void unregister(NioConnection connection) {
+            connections.remove(connection);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while(running) {
+                    selector.select(IDLE_CHECK_INTERVAL);
+
+                    Runnable task;
+                    while((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while(iterator.hasNext()) {
+                        SelectionKey key = iterator.next();
+                        iterator.remove();
+                        if(!key.isValid()) continue;
+
+                        if(key.isAcceptable()) {
+                            accept((ServerSocketChannel) key.channel(), this);
+                            continue;
+                        }
+
+                        NioConnection connection = (NioConnection) key.attachment();
+                        if(key.isWritable()) connection.onWritable();
+                        if(key.isValid() && key.isReadable()) connection.onReadable();
+                    }
+
+                    closeIdleConnections();
+                }
+            } catch(IOException | ClosedSelectorException e) {
+                e.printStackTrace();
+            } finally {
+                for(NioConnection connection : new ArrayList<>(connections)) {
+                    connection.close();
+                }
+
+                try {
+                    selector.close();
+                } catch(IOException ignored) {}
+            }
+        }
+
+        private void closeIdleConnections() {
+            long now = System.currentTimeMillis();
+            if(now - lastIdleCheck < IDLE_CHECK_INTERVAL) return;
+            lastIdleCheck = now;
+
+            List<NioConnection> idle = null, slow = null;
+            int headerTimeout = settings.getHeaderTimeout();
+            for(NioConnection connection : connections) {
+                if(headerTimeout > 0 && connection.isHeadStartedBefore(now - headerTimeout)) {
+                    if(slow == null) slow = new ArrayList<>();
+                    slow.add(connection);
+                } else if(connection.isIdleSince(now - settings.getKeepAliveTimeout())) {
+                    if(idle == null) idle = new ArrayList<>();
+                    idle.add(connection);
+                }
+            }
+
+            // Closing removes the connection from the set, so it can not happen while iterating it
+            if(slow != null) {
+                for(NioConnection connection : slow) {
+                    settings.getMetrics().headerTimeout();
+                    connection.rejectSlowHead();
+                }
+            }
+            if(idle != null) {
+                for(NioConnection connection : idle) {
+                    settings.getMetrics().idleTimeout();
+                    connection.close();
+                }
+            }
+        }
+    }
+}
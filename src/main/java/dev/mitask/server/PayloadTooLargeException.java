@@ -0,0 +1,20 @@
+package dev.mitask.server;
+
+import java.io.IOException;
+
+/**
+ * Thrown while reading a request body which is larger than the configured maximum
+ * @since 1.0.0
+ * @author MiTask
+ */
+public class PayloadTooLargeException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public PayloadTooLargeException(long maxLength) {
+        super("Request body is larger than " + maxLength + " bytes");
+    }
+
+    public PayloadTooLargeException(String message) {
+        super(message);
+    }
+}
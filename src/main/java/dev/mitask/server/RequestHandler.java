@@ -0,0 +1,24 @@
+package dev.mitask.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Handles a single parsed request.
+ * @since 1.0.0
+ * @author MiTask
+ */
+@FunctionalInterface
+public interface RequestHandler {
+    /**
+     * @param head Request line and headers
+     * @param body Stream of the request body, empty if the request has none. Unread bytes are discarded by the engine afterwards
+     * @param out Stream the response is written to
+     * @param IP Address of the client
+     * @param requestNumber Number of this request on its connection, starting from 1
+     * @return stage completing once the response was written, with true if the connection should be kept open for the next request.
+     * It completes after the method returned for asynchronous handlers and never completes exceptionally
+     */
+    CompletionStage<Boolean> handle(RequestHead head, BodyInputStream body, OutputStream out, String IP, int requestNumber) throws IOException;
+}
@@ -0,0 +1,53 @@
+package dev.mitask.server;
+
+import dev.mitask.util.HttpMethod;
+import lombok.Getter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Request line and headers of a request, as produced by {@link HttpRequestParser}
+ * @since 1.0.0
+ * @author MiTask
+ */
+@Getter
+public final class RequestHead {
+    HttpMethod method;
+    String path;
+    /**
+     * Raw query string without the leading '?', null if the target had none
+     */
+    String query;
+    boolean http11;
+    final Map<String, String> headers = new HashMap<>();
+    /**
+     * Value of Content-Length, -1 if not sent
+     */
+    long contentLength = -1;
+    boolean chunked, expectContinue;
+    /**
+     * Body without a length that ends with its stream, used for HTTP/2 where DATA frames delimit the body
+     */
+    boolean untilEnd;
+    boolean connectionClose, connectionKeepAlive;
+    /**
+     * Amount of bytes of the request line and headers
+     */
+    int headSize;
+
+    /**
+     * @return true if the client wants to keep the connection open, HTTP/1.1 connections are persistent unless
+     * the client asks to close, HTTP/1.0 ones only if the client asks to keep them
+     */
+    public boolean isKeepAlive() {
+        return http11 ? !connectionClose : connectionKeepAlive;
+    }
+
+    /**
+     * @return true if the request has a body
+     */
+    public boolean hasBody() {
+        return chunked || untilEnd || contentLength > 0;
+    }
+}
@@ -0,0 +1,24 @@
+package dev.mitask.server;
+
+import java.net.SocketTimeoutException;
+
+/**
+ * Thrown while reading a request body which was not received within the configured body timeout
+ * @since 1.0.0
+ * @author MiTask
+ */
+public class RequestTimeoutException extends SocketTimeoutException {
+    private static final long serialVersionUID = 1L;
+
+    public RequestTimeoutException(long timeoutMillis) {
+        super("Request body was not received within " + timeoutMillis + " ms");
+    }
+
+    /**
+     * @param cause Timeout of a single read from the connection
+     */
+    public RequestTimeoutException(SocketTimeoutException cause) {
+        super("Request body was not received in time: " + cause.getMessage());
+        initCause(cause);
+    }
+}
@@ -0,0 +1,19 @@
+package dev.mitask.server;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Response output that takes the head of a response as status and header fields instead of encoded HTTP/1.1 lines
+ * and frames the body itself, so no chunked encoding or Connection header is written to it. Implemented by the
+ * streams of HTTP/2 requests, {@link HeaderBlock} and {@link ErrorResponse} hand the head to it directly.
+ * @since 1.0.0
+ * @author MiTask
+ */
+public interface ResponseSink {
+    /**
+     * Sends status and headers, the body is written to the stream afterwards. Interim responses (1xx) are followed by another head
+     * @param fields Names as set by the handler and values, alternating
+     */
+    void head(int statusCode, List<String> fields) throws IOException;
+}
@@ -0,0 +1,18 @@
+package dev.mitask.server;
+
+/**
+ * Enum with all available connection handling engines
+ * @author MiTask
+ * @since 1.0.0
+ */
+public enum ServerEngine {
+    /**
+     * Every connection gets its own thread blocking on {@link java.net.Socket} streams
+     */
+    BLOCKING,
+
+    /**
+     * Connections are multiplexed over {@link java.nio.channels.Selector} event loops, only parsed requests occupy worker threads
+     */
+    NIO
+}
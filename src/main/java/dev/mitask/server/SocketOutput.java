@@ -0,0 +1,85 @@
+package dev.mitask.server;
+
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Output stream of a blocking connection. Files are sent with {@link FileChannel#transferTo} (sendfile)
+ * and mapped buffers with a channel write when the socket has a plain channel, both with a pooled buffer copy loop over TLS.
+ * @since 1.0.0
+ * @author MiTask
+ */
+public class SocketOutput extends OutputStream implements FileTransferOutput {
+    private final OutputStream out;
+    private final SocketChannel channel;
+    private long bytesWritten;
+
+    public SocketOutput(Socket socket) throws IOException {
+        this.out = socket.getOutputStream();
+        this.channel = socket instanceof SSLSocket ? null : socket.getChannel();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        bytesWritten++;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+        bytesWritten += length;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void transferFile(FileChannel file, long position, long count) throws IOException {
+        try(file) {
+            if(channel == null) {
+                FileTransferOutput.copy(file, position, count, this);
+                return;
+            }
+
+            out.flush();
+            long end = position + count;
+            while(position < end) {
+                long transferred = file.transferTo(position, end - position, channel);
+                if(transferred <= 0 && position >= file.size()) throw new IOException("File ended before " + count + " bytes could be sent");
+                position += transferred;
+                bytesWritten += transferred;
+            }
+        }
+    }
+
+    @Override
+    public void transferBuffer(ByteBuffer buffer) throws IOException {
+        if(channel == null) {
+            FileTransferOutput.copy(buffer, this);
+            return;
+        }
+
+        out.flush();
+        while(buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+        }
+    }
+}
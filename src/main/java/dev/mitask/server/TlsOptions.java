@@ -0,0 +1,57 @@
+package dev.mitask.server;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+
+import java.util.List;
+
+/**
+ * Settings of the HTTPS port: session resumption, protocols, cipher suites and certificate reloading.
+ * Passed to the tls option of the Kizuna builder, defaults are used without it
+ * @since 1.0.0
+ * @author MiTask
+ */
+@Getter
+public class TlsOptions {
+    private static final int DEFAULT_SESSION_CACHE_SIZE = 10_000;
+    private static final int DEFAULT_SESSION_TIMEOUT = 3600;
+    private static final List<String> DEFAULT_PROTOCOLS = List.of("TLSv1.3", "TLSv1.2");
+    // AEAD suites with forward secrecy only, AES-GCM first since it is hardware accelerated on most servers
+    private static final List<String> DEFAULT_CIPHER_SUITES = List.of(
+            "TLS_AES_128_GCM_SHA256", "TLS_AES_256_GCM_SHA384", "TLS_CHACHA20_POLY1305_SHA256",
+            "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256", "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+            "TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384", "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384",
+            "TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256", "TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256"
+    );
+
+    private final int sessionCacheSize, sessionTimeout;
+    private final boolean disableSessionTickets;
+    private final List<String> protocols, cipherSuites;
+    private final int reloadInterval;
+
+    /**
+     * @param sessionCacheSize Maximum amount of TLS sessions kept for resumption without a full handshake. 0 uses the default of 10000
+     * @param sessionTimeout Time in seconds a TLS session can be resumed. 0 uses the default of 1 hour
+     * @param disableSessionTickets Whether sessions are only resumed from the server side cache instead of tickets kept by the client (stateless resumption).
+     *                              The JDK applies this to the whole JVM and only reads it before the first TLS connection
+     * @param protocols Enabled protocol versions. Empty uses TLSv1.3 and TLSv1.2
+     * @param cipherSuites Enabled cipher suites in order of preference, the server's order wins. Empty uses AES-GCM and ChaCha20-Poly1305 with ECDHE.
+     *                     Suites the JDK does not support are left out
+     * @param reloadInterval Time in seconds between checks of the private key and certificate files, changed files are loaded
+     *                       without a restart. 0 disables reloading
+     */
+    @Builder(setterPrefix = "set")
+    private TlsOptions(int sessionCacheSize, int sessionTimeout, boolean disableSessionTickets, @Singular List<String> protocols, @Singular List<String> cipherSuites, int reloadInterval) {
+        if(sessionCacheSize < 0) throw new IllegalArgumentException("Session cache size can not be negative!");
+        if(sessionTimeout < 0) throw new IllegalArgumentException("Session timeout can not be negative!");
+        if(reloadInterval < 0) throw new IllegalArgumentException("Reload interval can not be negative!");
+
+        this.sessionCacheSize = sessionCacheSize == 0 ? DEFAULT_SESSION_CACHE_SIZE : sessionCacheSize;
+        this.sessionTimeout = sessionTimeout == 0 ? DEFAULT_SESSION_TIMEOUT : sessionTimeout;
+        this.disableSessionTickets = disableSessionTickets;
+        this.protocols = protocols.isEmpty() ? DEFAULT_PROTOCOLS : protocols;
+        this.cipherSuites = cipherSuites.isEmpty() ? DEFAULT_CIPHER_SUITES : cipherSuites;
+        this.reloadInterval = reloadInterval;
+    }
+}
@@ -0,0 +1,84 @@
+package dev.mitask.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory for the executors running connections and request handlers.
+ * Virtual threads are looked up reflectively, so Kizuna still runs on JVMs without them.
+ * @since 1.0.0
+ * @author MiTask
+ */
+public final class WorkerExecutors {
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findVirtualThreadExecutorFactory();
+
+    private WorkerExecutors() {}
+
+    /**
+     * @return true if the running JVM supports virtual threads
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * Unbounded pool of platform threads, a new thread is created whenever all existing ones are busy
+     */
+    public static ExecutorService cached() {
+        return cached("kizuna-worker-");
+    }
+
+    /**
+     * @param threadPrefix Name of the threads followed by their number
+     */
+    public static ExecutorService cached(String threadPrefix) {
+        return Executors.newCachedThreadPool(threadFactory(threadPrefix));
+    }
+
+    /**
+     * Pool with at most maxThreads platform threads, further tasks wait in the queue
+     * @param maxThreads Maximum amount of threads
+     */
+    public static ExecutorService bounded(int maxThreads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory("kizuna-worker-"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Executor starting a new virtual thread for each task. Falls back to {@link #bounded(int)} without a warning
+     * if virtual threads are not supported, check {@link #isVirtualThreadsSupported()} to report that
+     * @param maxThreads Maximum amount of threads of the fallback pool
+     */
+    public static ExecutorService virtual(int maxThreads) {
+        if(isVirtualThreadsSupported()) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+            } catch(ReflectiveOperationException ignored) {}
+        }
+
+        return bounded(maxThreads);
+    }
+
+    private static Method findVirtualThreadExecutorFactory() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            // Java 19 and 20 only have virtual threads as a preview feature, the factory throws unless it is enabled
+            ((ExecutorService) factory.invoke(null)).shutdown();
+            return factory;
+        } catch(ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> new Thread(runnable, prefix + counter.incrementAndGet());
+    }
+}
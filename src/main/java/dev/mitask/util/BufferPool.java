@@ -0,0 +1,63 @@
+package dev.mitask.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of equally sized byte buffers shared between all threads.
+ * Unlike a ThreadLocal it does not keep a buffer per (virtual) thread alive.
+ * @author MiTask
+ * @since 1.0.0
+ */
+public final class BufferPool {
+    /**
+     * Pool of 64 KiB heap buffers, used for copying file and body data
+     */
+    public static final BufferPool DEFAULT = new BufferPool(64 * 1024, 256, false);
+
+    private final int bufferSize, maxPooled;
+    private final boolean direct;
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * @param bufferSize Capacity of every buffer
+     * @param maxPooled Maximum amount of idle buffers kept in the pool
+     * @param direct Whether direct (off-heap) buffers should be allocated
+     */
+    public BufferPool(int bufferSize, int maxPooled, boolean direct) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+        this.direct = direct;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return cleared buffer, either from the pool or newly allocated
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if(buffer == null) return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns the buffer to the pool. It must not be used by the caller afterwards
+     */
+    public void release(ByteBuffer buffer) {
+        if(buffer.capacity() != bufferSize || buffer.isDirect() != direct) return;
+        if(pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+
+        buffers.offer(buffer);
+    }
+}
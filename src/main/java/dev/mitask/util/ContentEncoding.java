@@ -0,0 +1,81 @@
+package dev.mitask.util;
+
+/**
+ * Content codings Kizuna can compress responses with
+ * @since 1.0.0
+ * @author MiTask
+ */
+public enum ContentEncoding {
+    GZIP("gzip"),
+    DEFLATE("deflate");
+
+    private final String name;
+
+    ContentEncoding(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return name used in Accept-Encoding and Content-Encoding headers
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return whether the Accept-Encoding header value allows this coding
+     */
+    public boolean isAccepted(String acceptEncoding) {
+        return quality(acceptEncoding) > 0;
+    }
+
+    /**
+     * Picks the coding the client prefers, gzip wins ties
+     * @param acceptEncoding Accept-Encoding header value, may be null
+     * @return preferred coding or null if the response should not be compressed
+     */
+    public static ContentEncoding negotiate(String acceptEncoding) {
+        if(acceptEncoding == null) return null;
+
+        float gzip = GZIP.quality(acceptEncoding), deflate = DEFLATE.quality(acceptEncoding);
+        if(gzip <= 0 && deflate <= 0) return null;
+        return gzip >= deflate ? GZIP : DEFLATE;
+    }
+
+    /**
+     * @return q-value the Accept-Encoding header gives this coding, 0 if it is not accepted
+     */
+    private float quality(String acceptEncoding) {
+        if(acceptEncoding == null) return 0;
+
+        float wildcard = 0;
+        int start = 0;
+        while(start < acceptEncoding.length()) {
+            int end = acceptEncoding.indexOf(',', start);
+            if(end == -1) end = acceptEncoding.length();
+
+            String coding = acceptEncoding.substring(start, end);
+            start = end + 1;
+
+            float quality = 1;
+            int parameters = coding.indexOf(';');
+            if(parameters != -1) {
+                String parameter = coding.substring(parameters + 1).trim();
+                if(parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                    try {
+                        quality = Float.parseFloat(parameter.substring(2).trim());
+                    } catch(NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+                coding = coding.substring(0, parameters);
+            }
+
+            coding = coding.trim();
+            if(coding.equalsIgnoreCase(name)) return quality;
+            if(coding.equals("*")) wildcard = quality;
+        }
+
+        return wildcard;
+    }
+}
@@ -0,0 +1,51 @@
+package dev.mitask.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Pool of raw (headerless) deflaters with the same compression level shared between all threads.
+ * Creating a Deflater allocates native memory, so they are reused instead of being created per response.
+ * @since 1.0.0
+ * @author MiTask
+ */
+public final class DeflaterPool {
+    private final int level, maxPooled;
+    private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * @param level Compression level (1-9)
+     * @param maxPooled Maximum amount of idle deflaters kept in the pool, the rest is ended
+     */
+    public DeflaterPool(int level, int maxPooled) {
+        this.level = level;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * @return reset deflater, either from the pool or newly created
+     */
+    public Deflater acquire() {
+        Deflater deflater = deflaters.poll();
+        if(deflater == null) return new Deflater(level, true);
+
+        pooled.decrementAndGet();
+        return deflater;
+    }
+
+    /**
+     * Returns the deflater to the pool. It must not be used by the caller afterwards
+     */
+    public void release(Deflater deflater) {
+        if(pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            deflater.end();
+            return;
+        }
+
+        deflater.reset();
+        deflaters.offer(deflater);
+    }
+}
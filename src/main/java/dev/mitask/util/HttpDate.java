@@ -0,0 +1,67 @@
+package dev.mitask.util;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * Formatting and parsing of HTTP dates (IMF-fixdate, e.g. "Sun, 06 Nov 1994 08:49:37 GMT")
+ * @author MiTask
+ * @since 1.0.0
+ */
+public final class HttpDate {
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private static volatile CachedDate current = new CachedDate(-1, null, null);
+
+    private HttpDate() {}
+
+    /**
+     * @return current time as ISO-8859-1 bytes, formatted at most once per second and shared by all responses
+     */
+    public static byte[] currentBytes() {
+        return currentDate().bytes;
+    }
+
+    /**
+     * @return current time, formatted at most once per second and shared by all responses
+     */
+    public static String current() {
+        return currentDate().text;
+    }
+
+    private static CachedDate currentDate() {
+        long second = System.currentTimeMillis() / 1000;
+        CachedDate cached = current;
+        if(cached.second != second) {
+            String text = format(second * 1000);
+            cached = new CachedDate(second, text, text.getBytes(StandardCharsets.ISO_8859_1));
+            current = cached;
+        }
+        return cached;
+    }
+
+    /**
+     * @param millis Epoch milliseconds
+     */
+    public static String format(long millis) {
+        return FORMAT.format(Instant.ofEpochMilli(millis));
+    }
+
+    /**
+     * @return epoch milliseconds or -1 if the date could not be parsed
+     */
+    public static long parse(String date) {
+        try {
+            return ZonedDateTime.parse(date, FORMAT).toInstant().toEpochMilli();
+        } catch(DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private record CachedDate(long second, String text, byte[] bytes) {}
+}
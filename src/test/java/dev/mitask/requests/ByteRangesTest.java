@@ -0,0 +1,136 @@
+package dev.mitask.requests;
+
+import dev.mitask.util.HttpDate;
+import dev.mitask.util.HttpMethod;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ByteRangesTest {
+    private static final long SIZE = 1000;
+    private static final long LAST_MODIFIED = 1_700_000_000_000L;
+    private static final String ETAG = StaticFileCache.etag(LAST_MODIFIED, SIZE);
+
+    @Test
+    void parsesSingleRanges() {
+        assertArrayEquals(new long[]{0, 99}, ranges("bytes=0-99"));
+        assertArrayEquals(new long[]{500, 999}, ranges("bytes=500-"));
+        assertArrayEquals(new long[]{900, 999}, ranges("bytes=-100"));
+        assertArrayEquals(new long[]{0, 999}, ranges("bytes=-5000"));
+        assertArrayEquals(new long[]{990, 999}, ranges("BYTES=990-5000"));
+    }
+
+    @Test
+    void sortsAndMergesRanges() {
+        assertArrayEquals(new long[]{0, 199}, ranges("bytes=100-199, 0-99"));
+        assertArrayEquals(new long[]{0, 149}, ranges("bytes=0-99,50-149"));
+        assertArrayEquals(new long[]{0, 9, 20, 29, 900, 999}, ranges("bytes=-100, 20-29, 0-9"));
+        assertArrayEquals(new long[]{0, 999}, ranges("bytes=0-,-1"));
+    }
+
+    @Test
+    void skipsRangesBehindTheEnd() {
+        assertArrayEquals(new long[]{0, 9}, ranges("bytes=0-9, 1000-1100"));
+        assertArrayEquals(new long[0], ranges("bytes=1000-1100"));
+        assertArrayEquals(new long[0], ranges("bytes=-0"));
+    }
+
+    @Test
+    void ignoresInvalidHeaders() {
+        assertNull(ranges("items=0-9"));
+        assertNull(ranges("bytes=9-0"));
+        assertNull(ranges("bytes=0-9, x"));
+        assertNull(ranges("bytes=+1-9"));
+        assertNull(ranges("bytes= , "));
+        assertNull(ranges("bytes=" + "0-0,".repeat(17)));
+        assertArrayEquals(new long[]{0, 0}, ranges("bytes=" + "0-0,".repeat(16)));
+    }
+
+    @Test
+    void ignoresRangesOfOtherMethods() {
+        assertNull(ByteRanges.requested(request(HttpMethod.POST, Map.of("Range", "bytes=0-9")), SIZE, ETAG, LAST_MODIFIED));
+    }
+
+    @Test
+    void checksIfRange() {
+        assertTrue(ByteRanges.isCurrent(null, ETAG, LAST_MODIFIED));
+        assertTrue(ByteRanges.isCurrent(ETAG, ETAG, LAST_MODIFIED));
+        assertFalse(ByteRanges.isCurrent("\"other\"", ETAG, LAST_MODIFIED));
+        assertFalse(ByteRanges.isCurrent("W/" + ETAG, ETAG, LAST_MODIFIED));
+        assertTrue(ByteRanges.isCurrent(HttpDate.format(LAST_MODIFIED), ETAG, LAST_MODIFIED));
+        assertFalse(ByteRanges.isCurrent(HttpDate.format(LAST_MODIFIED - 1000), ETAG, LAST_MODIFIED));
+        assertFalse(ByteRanges.isCurrent("yesterday", ETAG, LAST_MODIFIED));
+
+        // An outdated If-Range sends the whole file
+        assertNull(ByteRanges.requested(request(HttpMethod.GET, Map.of("Range", "bytes=0-9", "If-Range", "\"other\"")), SIZE, ETAG, LAST_MODIFIED));
+    }
+
+    @Test
+    void sendsSingleRange() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteRanges.send(new HttpResponse(out, null), new byte[0], "text/plain", SIZE, new long[]{10, 14}, ByteRangesTest::writeContent);
+
+        String response = out.toString(StandardCharsets.ISO_8859_1);
+        assertTrue(response.startsWith("HTTP/1.1 206 "), response);
+        assertTrue(response.contains("\r\nContent-Range: bytes 10-14/1000\r\n"), response);
+        assertTrue(response.contains("\r\nContent-Length: 5\r\n"), response);
+        assertTrue(response.endsWith("\r\n\r\nklmno"), response);
+    }
+
+    @Test
+    void sendsMultipleRangesWithExactLength() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteRanges.send(new HttpResponse(out, null), new byte[0], "text/plain", SIZE, new long[]{0, 1, 26, 27}, ByteRangesTest::writeContent);
+
+        String response = out.toString(StandardCharsets.ISO_8859_1);
+        int bodyStart = response.indexOf("\r\n\r\n") + 4;
+        String boundary = response.split("boundary=", 2)[1].split("\r\n", 2)[0];
+        String length = response.split("Content-Length: ", 2)[1].split("\r\n", 2)[0];
+
+        assertTrue(response.startsWith("HTTP/1.1 206 "), response);
+        assertEquals(response.length() - bodyStart, Integer.parseInt(length));
+        assertEquals("\r\n--" + boundary + "\r\nContent-Type: text/plain\r\nContent-Range: bytes 0-1/1000\r\n\r\nab"
+                + "\r\n--" + boundary + "\r\nContent-Type: text/plain\r\nContent-Range: bytes 26-27/1000\r\n\r\nab"
+                + "\r\n--" + boundary + "--\r\n", response.substring(bodyStart));
+    }
+
+    @Test
+    void answersUnsatisfiableRangesWith416() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteRanges.sendUnsatisfiable(new HttpResponse(out, null), new byte[0], SIZE);
+
+        String response = out.toString(StandardCharsets.ISO_8859_1);
+        assertTrue(response.startsWith("HTTP/1.1 416 "), response);
+        assertTrue(response.contains("\r\nContent-Range: bytes */1000\r\n"), response);
+        assertTrue(response.contains("\r\nContent-Length: 0\r\n"), response);
+        assertTrue(response.endsWith("\r\n\r\n"), response);
+    }
+
+    private static long[] ranges(String range) {
+        return ByteRanges.requested(request(HttpMethod.GET, Map.of("Range", range)), SIZE, ETAG, LAST_MODIFIED);
+    }
+
+    private static HttpRequest request(HttpMethod method, Map<String, String> headers) {
+        return new HttpRequest(method, "/file.txt", new HashMap<>(), new HashMap<>(), "", headers, new HashMap<>(), "127.0.0.1", null, JsonCodec.DEFAULT, null);
+    }
+
+    /**
+     * Content of the file is the alphabet repeated
+     */
+    private static void writeContent(OutputStream out, long position, long count) throws IOException {
+        for(long i = position; i < position + count; i++) {
+            out.write('a' + (int) (i % 26));
+        }
+    }
+}
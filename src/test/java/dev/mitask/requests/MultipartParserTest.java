@@ -0,0 +1,170 @@
+package dev.mitask.requests;
+
+import dev.mitask.server.PayloadTooLargeException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MultipartParserTest {
+    private static final String BOUNDARY = "----FormBoundary7MA4YWxkTrZu0gW";
+    private static final FormOptions OPTIONS = FormOptions.builder().build();
+
+    @Test
+    void parsesFieldsAndFiles() throws IOException {
+        String body = "preamble\r\n"
+                + "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"title\"\r\n\r\n"
+                + "Hello\r\nworld\r\n"
+                + "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"tag\"\r\n\r\n"
+                + "a\r\n"
+                + "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"tag\"\r\n\r\n"
+                + "b\r\n"
+                + "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"upload\"; filename=\"a;b.txt\"\r\n"
+                + "Content-Type: text/plain\r\n\r\n"
+                + "file content\r\n"
+                + "--" + BOUNDARY + "--\r\nepilogue";
+
+        Form form = parse(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+        assertEquals("Hello\r\nworld", form.get("title"));
+        assertEquals(List.of("a", "b"), form.getAll("tag"));
+
+        FormPart file = form.getFile("upload");
+        assertEquals("a;b.txt", file.getFileName());
+        assertEquals("text/plain", file.getContentType());
+        assertEquals("file content", file.text());
+        assertTrue(file.isInMemory());
+    }
+
+    @Test
+    void findsBoundarySplitAcrossReads() throws IOException {
+        byte[] content = "line one\r\n--not the boundary\r\n\r\n--".getBytes(StandardCharsets.ISO_8859_1);
+        byte[] body = body(content);
+
+        // Every read size up to longer than the delimiter splits it at a different place
+        for(int readSize = 1; readSize <= BOUNDARY.length() + 8; readSize++) {
+            Form form = parse(new SplitInputStream(body, readSize));
+            assertArrayEquals(content, form.getFile("file").bytes(), "read size " + readSize);
+            assertEquals("value", form.get("field"), "read size " + readSize);
+        }
+    }
+
+    @Test
+    void findsBoundaryAroundBufferEnd() throws IOException {
+        // Parts around the 16 KiB buffer size move the delimiter across the end of the buffer
+        for(int size = 16 * 1024 - 200; size <= 16 * 1024 + 50; size += 7) {
+            byte[] content = new byte[size];
+            Arrays.fill(content, (byte) '-');
+            byte[] body = body(content);
+
+            Form form = parse(new SplitInputStream(body, 4096));
+            assertArrayEquals(content, form.getFile("file").bytes(), "size " + size);
+        }
+    }
+
+    @Test
+    void storesLargeFilesOnDisk() throws IOException {
+        byte[] content = new byte[200_000];
+        for(int i = 0; i < content.length; i++) content[i] = (byte) i;
+
+        Form form = parse(new SplitInputStream(body(content), 1000));
+        FormPart file = form.getFile("file");
+        try {
+            assertFalse(file.isInMemory());
+            assertEquals(content.length, file.getSize());
+            assertArrayEquals(content, file.bytes());
+        } finally {
+            form.deleteFiles();
+        }
+    }
+
+    @Test
+    void rejectsMalformedBodies() {
+        assertThrows(MalformedFormException.class, () -> parse(input("no boundary at all")));
+        assertThrows(MalformedFormException.class, () -> parse(input("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"a\"\r\n\r\nunterminated")));
+        assertThrows(MalformedFormException.class, () -> parse(input("--" + BOUNDARY + "\r\nContent-Type: text/plain\r\n\r\nx\r\n--" + BOUNDARY + "--")));
+        assertThrows(MalformedFormException.class, () -> parse(input("--" + BOUNDARY + "garbage\r\n\r\n--" + BOUNDARY + "--")));
+    }
+
+    @Test
+    void enforcesLimits() {
+        String part = "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"a\"\r\n\r\nvalue\r\n";
+        FormOptions twoParts = FormOptions.builder().setMaxParts(2).build();
+        assertThrows(PayloadTooLargeException.class, () -> new MultipartParser(input(part.repeat(3) + "--" + BOUNDARY + "--"), BOUNDARY, twoParts).parse());
+
+        FormOptions smallParts = FormOptions.builder().setMaxPartSize(4).build();
+        assertThrows(PayloadTooLargeException.class, () -> new MultipartParser(input(part + "--" + BOUNDARY + "--"), BOUNDARY, smallParts).parse());
+    }
+
+    @Test
+    void readsBoundaryParameter() throws MalformedFormException {
+        assertEquals("abc", MultipartParser.boundary("multipart/form-data; boundary=abc"));
+        assertEquals("a b", MultipartParser.boundary("multipart/form-data; charset=utf-8; BOUNDARY=\"a b\""));
+        assertThrows(MalformedFormException.class, () -> MultipartParser.boundary("multipart/form-data"));
+        assertThrows(MalformedFormException.class, () -> MultipartParser.boundary("multipart/form-data; boundary=" + "a".repeat(71)));
+    }
+
+    private static Form parse(InputStream in) throws IOException {
+        return new MultipartParser(in, BOUNDARY, OPTIONS).parse();
+    }
+
+    private static ByteArrayInputStream input(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * @return body with a file part of the content followed by a short field
+     */
+    private static byte[] body(byte[] content) {
+        byte[] head = ("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"data.bin\"\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        byte[] tail = ("\r\n--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"field\"\r\n\r\nvalue\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+        byte[] body = Arrays.copyOf(head, head.length + content.length + tail.length);
+        System.arraycopy(content, 0, body, head.length, content.length);
+        System.arraycopy(tail, 0, body, head.length + content.length, tail.length);
+        return body;
+    }
+
+    /**
+     * Returns at most a fixed amount of bytes per read, like a connection receiving small packets
+     */
+    private static final class SplitInputStream extends InputStream {
+        private final byte[] bytes;
+        private final int readSize;
+        private int position;
+
+        SplitInputStream(byte[] bytes, int readSize) {
+            this.bytes = bytes;
+            this.readSize = readSize;
+        }
+
+        @Override
+        public int read() {
+            return position < bytes.length ? bytes[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if(length == 0) return 0;
+            if(position == bytes.length) return -1;
+
+            int count = Math.min(Math.min(length, readSize), bytes.length - position);
+            System.arraycopy(bytes, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+    }
+}
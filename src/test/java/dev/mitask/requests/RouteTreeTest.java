@@ -0,0 +1,125 @@
+package dev.mitask.requests;
+
+import dev.mitask.util.HttpMethod;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RouteTreeTest {
+    @Test
+    void findsStaticRoutes() {
+        RouteTree tree = new RouteTree();
+        Route users = add(tree, HttpMethod.GET, "/users");
+        Route user = add(tree, HttpMethod.GET, "/user");
+        Route root = add(tree, HttpMethod.GET, "/");
+
+        assertSame(users, find(tree, HttpMethod.GET, "/users", new HashMap<>()));
+        assertSame(user, find(tree, HttpMethod.GET, "/user", new HashMap<>()));
+        assertSame(root, find(tree, HttpMethod.GET, "/", new HashMap<>()));
+        assertNull(find(tree, HttpMethod.GET, "/use", new HashMap<>()));
+        assertNull(find(tree, HttpMethod.GET, "/users/", new HashMap<>()));
+        assertNull(find(tree, HttpMethod.POST, "/users", new HashMap<>()));
+    }
+
+    @Test
+    void capturesParameters() {
+        RouteTree tree = new RouteTree();
+        Route route = add(tree, HttpMethod.GET, "/users/:id/posts/:postId");
+
+        Map<String, String> params = new HashMap<>();
+        assertSame(route, find(tree, HttpMethod.GET, "/users/42/posts/7", params));
+        assertEquals(Map.of("id", "42", "postId", "7"), params);
+
+        assertNull(find(tree, HttpMethod.GET, "/users//posts/7", new HashMap<>()));
+        assertNull(find(tree, HttpMethod.GET, "/users/42/posts", new HashMap<>()));
+    }
+
+    @Test
+    void prefersStaticOverParameterOverWildcard() {
+        // Registered in reverse precedence, the order must not matter
+        for(boolean reversed : new boolean[]{false, true}) {
+            RouteTree tree = new RouteTree();
+            Route wildcard, param, exact;
+            if(reversed) {
+                wildcard = add(tree, HttpMethod.GET, "/users/*");
+                param = add(tree, HttpMethod.GET, "/users/:id");
+                exact = add(tree, HttpMethod.GET, "/users/new");
+            } else {
+                exact = add(tree, HttpMethod.GET, "/users/new");
+                param = add(tree, HttpMethod.GET, "/users/:id");
+                wildcard = add(tree, HttpMethod.GET, "/users/*");
+            }
+
+            assertSame(exact, find(tree, HttpMethod.GET, "/users/new", new HashMap<>()));
+
+            Map<String, String> params = new HashMap<>();
+            assertSame(param, find(tree, HttpMethod.GET, "/users/newest", params));
+            assertEquals("newest", params.get("id"));
+
+            params = new HashMap<>();
+            assertSame(wildcard, find(tree, HttpMethod.GET, "/users/42/avatar.png", params));
+            assertEquals("42/avatar.png", params.get("*"));
+        }
+    }
+
+    @Test
+    void backtracksFromStaticToParameter() {
+        RouteTree tree = new RouteTree();
+        add(tree, HttpMethod.GET, "/users/new");
+        Route edit = add(tree, HttpMethod.GET, "/users/:id/edit");
+
+        Map<String, String> params = new HashMap<>();
+        assertSame(edit, find(tree, HttpMethod.GET, "/users/new/edit", params));
+        assertEquals(Map.of("id", "new"), params);
+    }
+
+    @Test
+    void keepsFirstOfDuplicateRoutes() {
+        RouteTree tree = new RouteTree();
+        Route first = add(tree, HttpMethod.GET, "/a/:x");
+        add(tree, HttpMethod.GET, "/a/:x");
+
+        assertSame(first, find(tree, HttpMethod.GET, "/a/1", new HashMap<>()));
+    }
+
+    @Test
+    void fallsBackToRegexRoutes() {
+        RouteTree tree = new RouteTree();
+        Route file = add(tree, HttpMethod.GET, "/files/:name.txt");
+        Route images = add(tree, HttpMethod.GET, "/img/*.png");
+
+        Map<String, String> params = new HashMap<>();
+        assertSame(file, find(tree, HttpMethod.GET, "/files/report.txt", params));
+        assertEquals("report", params.get("name"));
+        assertSame(images, find(tree, HttpMethod.GET, "/img/icons/logo.png", new HashMap<>()));
+        assertNull(find(tree, HttpMethod.GET, "/img/logo.jpg", new HashMap<>()));
+    }
+
+    @Test
+    void triesTreeBeforeRegexRoutes() {
+        RouteTree tree = new RouteTree();
+        add(tree, HttpMethod.GET, "/files/:name.txt");
+        Route param = add(tree, HttpMethod.GET, "/files/:file");
+
+        Map<String, String> params = new HashMap<>();
+        assertSame(param, find(tree, HttpMethod.GET, "/files/report.txt", params));
+        assertEquals("report.txt", params.get("file"));
+        assertTrue(!params.containsKey("name"));
+    }
+
+    private static Route add(RouteTree tree, HttpMethod method, String pattern) {
+        Route route = new Route(method, pattern, (request, response) -> {});
+        tree.add(route);
+        return route;
+    }
+
+    private static Route find(RouteTree tree, HttpMethod method, String path, Map<String, String> params) {
+        return tree.find(method, path, params);
+    }
+}
@@ -0,0 +1,177 @@
+package dev.mitask.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BodyInputStreamTest {
+    @Test
+    void readsContentLengthBody() throws IOException {
+        ByteArrayInputStream in = input("hello, next request");
+        BodyInputStream body = new BodyInputStream(in, head(5, false), null);
+
+        assertEquals("hello", text(body));
+        assertTrue(body.isFinished());
+        assertEquals(5, body.getBytesRead());
+        assertEquals(", next request", new String(in.readAllBytes(), StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    void decodesChunks() throws IOException {
+        BodyInputStream body = chunked("5\r\nhello\r\n7;name=value\r\n, world\r\nA \r\n0123456789\r\n0\r\n\r\n");
+
+        assertEquals("hello, world0123456789", text(body));
+        assertTrue(body.isFinished());
+        assertEquals(22, body.getBytesRead());
+    }
+
+    @Test
+    void decodesChunksSplitIntoSingleBytes() throws IOException {
+        String chunks = "3\r\nabc\r\n1f\r\n" + "x".repeat(31) + "\r\n0\r\n\r\n";
+        BodyInputStream body = new BodyInputStream(new TrickleInputStream(chunks.getBytes(StandardCharsets.ISO_8859_1)), head(-1, true), null);
+
+        assertEquals("abc" + "x".repeat(31), text(body));
+    }
+
+    @Test
+    void skipsTrailers() throws IOException {
+        ByteArrayInputStream in = input("5\r\nhello\r\n0\r\nX-Checksum: 1\r\nX-Other: 2\r\n\r\nGET");
+        BodyInputStream body = new BodyInputStream(in, head(-1, true), null);
+
+        assertEquals("hello", text(body));
+        assertEquals("GET", new String(in.readAllBytes(), StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    void rejectsInvalidChunkSizes() {
+        for(String size : new String[]{"+5", "-0", " 5", "5x", "0x5", "", "00000000000000005", "8000000000000000"}) {
+            BodyInputStream body = chunked(size + "\r\nhello\r\n0\r\n\r\n");
+            assertThrows(IOException.class, body::readAllBytes, size);
+        }
+    }
+
+    @Test
+    void acceptsSixteenDigitChunkSizes() throws IOException {
+        assertEquals("hello", text(chunked("0000000000000005\r\nhello\r\n0\r\n\r\n")));
+        assertEquals("hello", text(chunked("5 \t;ext\r\nhello\r\n0\r\n\r\n")));
+    }
+
+    @Test
+    void rejectsChunkDataLongerThanItsSize() {
+        assertThrows(IOException.class, chunked("3\r\nhello\r\n0\r\n\r\n")::readAllBytes);
+    }
+
+    @Test
+    void limitsTrailers() {
+        String trailer = "X-Padding: " + "a".repeat(1000) + "\r\n";
+        assertThrows(IOException.class, chunked("5\r\nhello\r\n0\r\n" + trailer.repeat(20) + "\r\n")::readAllBytes);
+
+        BodyInputStream body = chunked("5\r\nhello\r\n0\r\n" + trailer + "\r\n");
+        body.setMaxLength(100);
+        assertThrows(PayloadTooLargeException.class, body::readAllBytes);
+    }
+
+    @Test
+    void enforcesMaxLength() {
+        BodyInputStream body = new BodyInputStream(input("0123456789"), head(10, false), null);
+        body.setMaxLength(5);
+        assertThrows(PayloadTooLargeException.class, body::readAllBytes);
+
+        // Declared chunk sizes are rejected before their data is read
+        BodyInputStream chunked = chunked("a\r\n0123456789\r\n0\r\n\r\n");
+        chunked.setMaxLength(5);
+        assertThrows(PayloadTooLargeException.class, () -> chunked.read(new byte[1]));
+        assertEquals(0, chunked.getBytesRead());
+    }
+
+    @Test
+    void failsOnTruncatedBodies() {
+        assertThrows(EOFException.class, new BodyInputStream(input("hel"), head(5, false), null)::readAllBytes);
+        assertThrows(EOFException.class, chunked("5\r\nhel")::readAllBytes);
+        assertThrows(EOFException.class, chunked("5\r\nhello\r\n")::readAllBytes);
+    }
+
+    @Test
+    void sendsContinueOnFirstRead() throws IOException {
+        RequestHead head = head(5, false);
+        head.http11 = true;
+        head.expectContinue = true;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BodyInputStream body = new BodyInputStream(input("hello"), head, out);
+
+        assertEquals(0, out.size());
+        assertEquals("hello", text(body));
+        assertEquals("HTTP/1.1 100 Continue\r\n\r\n", out.toString(StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    void drainsUnreadBody() throws IOException {
+        ByteArrayInputStream in = input("5\r\nhello\r\n5\r\nworld\r\n0\r\n\r\nnext");
+        BodyInputStream body = new BodyInputStream(in, head(-1, true), null);
+        assertEquals('h', body.read());
+
+        assertTrue(body.drain(1024));
+        assertEquals("next", new String(in.readAllBytes(), StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    void stopsDrainingOverLimit() throws IOException {
+        BodyInputStream body = new BodyInputStream(input("x".repeat(100_000)), head(100_000, false), null);
+        assertFalse(body.drain(10));
+    }
+
+    private static RequestHead head(long contentLength, boolean chunked) {
+        RequestHead head = new RequestHead();
+        head.contentLength = contentLength;
+        head.chunked = chunked;
+        return head;
+    }
+
+    private static BodyInputStream chunked(String chunks) {
+        return new BodyInputStream(input(chunks), head(-1, true), null);
+    }
+
+    private static ByteArrayInputStream input(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static String text(InputStream in) throws IOException {
+        return new String(in.readAllBytes(), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns a single byte per read, like a connection receiving one packet per byte
+     */
+    private static final class TrickleInputStream extends InputStream {
+        private final byte[] bytes;
+        private int position;
+
+        TrickleInputStream(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read() {
+            return position < bytes.length ? bytes[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if(length == 0) return 0;
+            int b = read();
+            if(b == -1) return -1;
+            buffer[offset] = (byte) b;
+            return 1;
+        }
+    }
+}
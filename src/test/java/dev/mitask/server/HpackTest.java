@@ -0,0 +1,148 @@
+package dev.mitask.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Examples of RFC 7541 Appendix C
+ */
+class HpackTest {
+    private static final String DATE = "Mon, 21 Oct 2013 20:13:21 GMT";
+    private static final String LOCATION = "https://www.example.com";
+
+    @Test
+    void decodesLiteralRepresentations() throws Http2Exception {
+        // C.2.1 to C.2.4
+        assertEquals(List.of("custom-key", "custom-header"), decode(new HpackDecoder(), "400a637573746f6d2d6b65790d637573746f6d2d686561646572"));
+        assertEquals(List.of(":path", "/sample/path"), decode(new HpackDecoder(), "040c2f73616d706c652f70617468"));
+        assertEquals(List.of("password", "secret"), decode(new HpackDecoder(), "100870617373776f726406736563726574"));
+        assertEquals(List.of(":method", "GET"), decode(new HpackDecoder(), "82"));
+    }
+
+    @Test
+    void decodesRequestsWithoutHuffman() throws Http2Exception {
+        // C.3, the dynamic table carries :authority and cache-control over to the following requests
+        HpackDecoder decoder = new HpackDecoder();
+        assertEquals(List.of(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"),
+                decode(decoder, "828684410f7777772e6578616d706c652e636f6d"));
+        assertEquals(List.of(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com", "cache-control", "no-cache"),
+                decode(decoder, "828684be58086e6f2d6361636865"));
+        assertEquals(List.of(":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com", "custom-key", "custom-value"),
+                decode(decoder, "828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565"));
+    }
+
+    @Test
+    void decodesRequestsWithHuffman() throws Http2Exception {
+        // C.4
+        HpackDecoder decoder = new HpackDecoder();
+        assertEquals(List.of(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"),
+                decode(decoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff"));
+        assertEquals(List.of(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com", "cache-control", "no-cache"),
+                decode(decoder, "828684be5886a8eb10649cbf"));
+        assertEquals(List.of(":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com", "custom-key", "custom-value"),
+                decode(decoder, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf"));
+    }
+
+    @Test
+    void evictsOldestEntries() throws Http2Exception {
+        // C.5.1 and C.5.2 with a table of 256 octets, announced by a size update in front of the first block
+        HpackDecoder decoder = new HpackDecoder();
+        assertEquals(List.of(":status", "302", "cache-control", "private", "date", DATE, "location", LOCATION),
+                decode(decoder, "3fe101" + "4803333032" + "580770726976617465" + "611d" + hex(DATE) + "6e17" + hex(LOCATION)));
+        // Adding ":status 307" evicts ":status 302", the other entries move up by one
+        assertEquals(List.of(":status", "307", "cache-control", "private", "date", DATE, "location", LOCATION),
+                decode(decoder, "4803333037c1c0bf"));
+    }
+
+    @Test
+    void rejectsInvalidBlocks() {
+        // Index 0, an index behind both tables and a string longer than the block
+        assertThrows(Http2Exception.class, () -> decode(new HpackDecoder(), "80"));
+        assertThrows(Http2Exception.class, () -> decode(new HpackDecoder(), "ff00"));
+        assertThrows(Http2Exception.class, () -> decode(new HpackDecoder(), "400a6375"));
+        // Size update over the limit the server announced
+        assertThrows(Http2Exception.class, () -> decode(new HpackDecoder(), "3fe27f"));
+    }
+
+    @Test
+    void encodesRequestsLikeAppendix() {
+        // The encoder indexes and Huffman-codes exactly like the examples of C.4
+        HpackEncoder encoder = new HpackEncoder();
+        assertEquals("828684418cf1e3c2e5f23a6ba0ab90f4ff", encode(encoder, ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"));
+        assertEquals("828684be5886a8eb10649cbf", encode(encoder, ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com", "cache-control", "no-cache"));
+        assertEquals("828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf",
+                encode(encoder, ":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com", "custom-key", "custom-value"));
+    }
+
+    @Test
+    void announcesTableSizeChanges() {
+        HpackEncoder encoder = new HpackEncoder();
+        encoder.setMaxTableSize(0);
+        encoder.setMaxTableSize(256);
+        // Lowered and raised again before the next block, so both sizes are announced
+        assertEquals("203fe10182", encode(encoder, ":method", "GET"));
+        assertEquals("82", encode(encoder, ":method", "GET"));
+    }
+
+    @Test
+    void roundTripsResponses() throws Http2Exception {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder();
+        String[] fields = {":status", "200", "content-type", "text/html", "set-cookie", "id=1", "content-length", "1234", "x-custom", "value"};
+        for(int i = 0; i < 3; i++) {
+            encoder.begin();
+            for(int j = 0; j < fields.length; j += 2) {
+                encoder.header(fields[j], fields[j + 1]);
+            }
+
+            List<String> decoded = new ArrayList<>();
+            decoder.decode(encoder.buffer(), 0, encoder.length(), (name, value) -> {
+                decoded.add(name);
+                decoded.add(value);
+            });
+            assertEquals(Arrays.asList(fields), decoded);
+        }
+    }
+
+    @Test
+    void neverIndexesCookies() {
+        HpackEncoder encoder = new HpackEncoder();
+        // Literal never indexed with the name of static entry 55, also when it is sent again
+        for(int i = 0; i < 2; i++) {
+            encoder.begin();
+            encoder.header("set-cookie", "id=1");
+            assertArrayEquals(new byte[]{0x1f, 0x28}, Arrays.copyOf(encoder.buffer(), 2));
+        }
+    }
+
+    private static List<String> decode(HpackDecoder decoder, String hex) throws Http2Exception {
+        byte[] block = HexFormat.of().parseHex(hex);
+        List<String> fields = new ArrayList<>();
+        decoder.decode(block, 0, block.length, (name, value) -> {
+            fields.add(name);
+            fields.add(value);
+        });
+        return fields;
+    }
+
+    private static String encode(HpackEncoder encoder, String... fields) {
+        encoder.begin();
+        for(int i = 0; i < fields.length; i += 2) {
+            encoder.header(fields[i], fields[i + 1]);
+        }
+        return HexFormat.of().formatHex(encoder.buffer(), 0, encoder.length());
+    }
+
+    private static String hex(String text) {
+        return HexFormat.of().formatHex(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,185 @@
+package dev.mitask.server;
+
+import dev.mitask.util.HttpMethod;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HttpRequestParserTest {
+    private static final int MAX_HEADER_SIZE = 16 * 1024;
+    private static final int MAX_HEADER_COUNT = 100;
+
+    @Test
+    void parsesRequestLineAndHeaders() {
+        HttpRequestParser parser = parser();
+        ByteBuffer buffer = buffer("GET /users/42?sort=name HTTP/1.1\r\nHost: example.com\r\nX-Request-Id: abc\r\n\r\n");
+
+        assertEquals(HttpRequestParser.Result.COMPLETE, parser.parse(buffer));
+        RequestHead head = parser.getHead();
+        assertEquals(HttpMethod.GET, head.getMethod());
+        assertEquals("/users/42", head.getPath());
+        assertEquals("sort=name", head.getQuery());
+        assertTrue(head.isHttp11());
+        assertEquals("example.com", head.getHeaders().get("Host"));
+        assertEquals("abc", head.getHeaders().get("X-Request-Id"));
+        assertFalse(head.hasBody());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    void canonicalisesHeaderNames() {
+        HttpRequestParser parser = parser();
+        assertEquals(HttpRequestParser.Result.COMPLETE, parser.parse(buffer("GET / HTTP/1.1\r\nhost: a\r\nx-REQUEST-id: b\r\n\r\n")));
+
+        assertEquals("a", parser.getHead().getHeaders().get("Host"));
+        assertEquals("b", parser.getHead().getHeaders().get("X-Request-Id"));
+    }
+
+    @Test
+    void parsesHeadSplitAcrossReads() {
+        HttpRequestParser parser = parser();
+        byte[] request = "POST /form HTTP/1.1\r\nHost: example.com\r\nContent-Length: 5\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+        for(int i = 0; i < request.length - 1; i++) {
+            ByteBuffer single = ByteBuffer.wrap(request, i, 1);
+            assertEquals(HttpRequestParser.Result.INCOMPLETE, parser.parse(single));
+            assertFalse(single.hasRemaining());
+        }
+        assertEquals(HttpRequestParser.Result.COMPLETE, parser.parse(ByteBuffer.wrap(request, request.length - 1, 1)));
+
+        RequestHead head = parser.getHead();
+        assertEquals(HttpMethod.POST, head.getMethod());
+        assertEquals(5, head.getContentLength());
+        assertEquals(request.length, head.getHeadSize());
+    }
+
+    @Test
+    void leavesBodyAndPipelinedRequestsInBuffer() {
+        HttpRequestParser parser = parser();
+        ByteBuffer buffer = buffer("POST /a HTTP/1.1\r\nContent-Length: 5\r\n\r\nhelloGET /b HTTP/1.1\r\n\r\nGET /c HTTP/1.0\r\n\r\n");
+
+        assertEquals(HttpRequestParser.Result.COMPLETE, parser.parse(buffer));
+        assertEquals("/a", parser.getHead().getPath());
+        byte[] body = new byte[5];
+        buffer.get(body);
+        assertEquals("hello", new String(body, StandardCharsets.ISO_8859_1));
+
+        parser.reset();
+        assertEquals(HttpRequestParser.Result.COMPLETE, parser.parse(buffer));
+        assertEquals("/b", parser.getHead().getPath());
+        assertTrue(parser.getHead().isKeepAlive());
+
+        parser.reset();
+        assertEquals(HttpRequestParser.Result.COMPLETE, parser.parse(buffer));
+        assertEquals("/c", parser.getHead().getPath());
+        assertFalse(parser.getHead().isKeepAlive());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    void joinsRepeatedHeaders() {
+        HttpRequestParser parser = parser();
+        assertEquals(HttpRequestParser.Result.COMPLETE, parser.parse(buffer("GET / HTTP/1.1\r\nAccept: a\r\nAccept: b\r\nCookie: x=1\r\nCookie: y=2\r\n\r\n")));
+
+        assertEquals("a, b", parser.getHead().getHeaders().get("Accept"));
+        assertEquals("x=1; y=2", parser.getHead().getHeaders().get("Cookie"));
+    }
+
+    @Test
+    void rejectsObsoleteLineFolding() {
+        assertError(400, "GET / HTTP/1.1\r\nX-Folded: a\r\n b\r\n\r\n");
+    }
+
+    @Test
+    void rejectsInvalidHeaderNames() {
+        assertError(400, "GET / HTTP/1.1\r\nX Bad: a\r\n\r\n");
+        assertError(400, "GET / HTTP/1.1\r\nX-Bad : a\r\n\r\n");
+    }
+
+    @Test
+    void acceptsChunkedAsFinalTransferCoding() {
+        HttpRequestParser parser = parser();
+        assertEquals(HttpRequestParser.Result.COMPLETE, parser.parse(buffer("POST / HTTP/1.1\r\nTransfer-Encoding:  Chunked \r\n\r\n")));
+        assertTrue(parser.getHead().isChunked());
+    }
+
+    @Test
+    void rejectsInvalidTransferEncodings() {
+        assertError(400, "POST / HTTP/1.1\r\nTransfer-Encoding: xchunked\r\n\r\n");
+        assertError(400, "POST / HTTP/1.1\r\nTransfer-Encoding: chunked, gzip\r\n\r\n");
+        assertError(400, "POST / HTTP/1.1\r\nTransfer-Encoding: chunked, chunked\r\n\r\n");
+        assertError(400, "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\nTransfer-Encoding: identity\r\n\r\n");
+        assertError(400, "POST / HTTP/1.1\r\nTransfer-Encoding: \r\n\r\n");
+        assertError(501, "POST / HTTP/1.1\r\nTransfer-Encoding: gzip, chunked\r\n\r\n");
+    }
+
+    @Test
+    void closesConnectionWithTransferEncodingAndContentLength() {
+        HttpRequestParser parser = parser();
+        assertEquals(HttpRequestParser.Result.COMPLETE, parser.parse(buffer("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\nContent-Length: 3\r\n\r\n")));
+
+        RequestHead head = parser.getHead();
+        assertTrue(head.isChunked());
+        assertEquals(-1, head.getContentLength());
+        assertFalse(head.isKeepAlive());
+    }
+
+    @Test
+    void rejectsInvalidContentLengths() {
+        assertError(400, "POST / HTTP/1.1\r\nContent-Length: +5\r\n\r\n");
+        assertError(400, "POST / HTTP/1.1\r\nContent-Length: 5\r\nContent-Length: 6\r\n\r\n");
+    }
+
+    @Test
+    void rejectsUnknownMethodsAndVersions() {
+        assertError(501, "BREW / HTTP/1.1\r\n\r\n");
+        assertError(505, "GET / HTTP/2.0\r\n\r\n");
+        assertError(400, "GET / FTP/1.0\r\n\r\n");
+    }
+
+    @Test
+    void rejectsOversizeHeads() {
+        HttpRequestParser parser = new HttpRequestParser(64, MAX_HEADER_COUNT);
+        assertEquals(HttpRequestParser.Result.ERROR, parser.parse(buffer("GET /" + "a".repeat(100) + " HTTP/1.1\r\n\r\n")));
+        assertEquals(414, parser.getErrorStatus());
+
+        parser = new HttpRequestParser(64, MAX_HEADER_COUNT);
+        assertEquals(HttpRequestParser.Result.ERROR, parser.parse(buffer("GET / HTTP/1.1\r\nX-Long: " + "a".repeat(100) + "\r\n\r\n")));
+        assertEquals(431, parser.getErrorStatus());
+
+        parser = new HttpRequestParser(MAX_HEADER_SIZE, 2);
+        assertEquals(HttpRequestParser.Result.ERROR, parser.parse(buffer("GET / HTTP/1.1\r\nA: 1\r\nB: 2\r\nC: 3\r\n\r\n")));
+        assertEquals(431, parser.getErrorStatus());
+    }
+
+    @Test
+    void keepsFailingAfterError() {
+        HttpRequestParser parser = parser();
+        assertEquals(HttpRequestParser.Result.ERROR, parser.parse(buffer("GET / HTTP/1.1\r\nX Bad: a\r\n\r\n")));
+        assertEquals(HttpRequestParser.Result.ERROR, parser.parse(buffer("GET / HTTP/1.1\r\n\r\n")));
+
+        parser.reset();
+        assertEquals(HttpRequestParser.Result.COMPLETE, parser.parse(buffer("GET / HTTP/1.1\r\n\r\n")));
+        assertNull(parser.getHead().getQuery());
+    }
+
+    private static HttpRequestParser parser() {
+        return new HttpRequestParser(MAX_HEADER_SIZE, MAX_HEADER_COUNT);
+    }
+
+    private static void assertError(int status, String request) {
+        HttpRequestParser parser = parser();
+        assertEquals(HttpRequestParser.Result.ERROR, parser.parse(buffer(request)), request);
+        assertEquals(status, parser.getErrorStatus(), request);
+    }
+
+    private static ByteBuffer buffer(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}